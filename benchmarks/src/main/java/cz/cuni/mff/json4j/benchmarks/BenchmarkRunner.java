@@ -0,0 +1,35 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar.
+ * Accepts the usual JMH command line options (e.g. a regular expression
+ * selecting the benchmarks) and always attaches the GC profiler,
+ * so that the allocation rate is reported next to every result.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner(){
+    }
+
+    /**
+     * Runs the benchmarks selected by the arguments (all of them by default).
+     * @param args The JMH command line options.
+     * @throws RunnerException If running the benchmarks fails.
+     * @throws CommandLineOptionException If the options are not valid.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
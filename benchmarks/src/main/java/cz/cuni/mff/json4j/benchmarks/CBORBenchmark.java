@@ -0,0 +1,106 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.JSONCBORReader;
+import cz.cuni.mff.json4j.JSONCBORWriter;
+import cz.cuni.mff.json4j.JSONMalformedSourceException;
+import cz.cuni.mff.json4j.JSONParser;
+import cz.cuni.mff.json4j.JSONUnfinishedStringAtEOF;
+import cz.cuni.mff.json4j.JSONValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the binary CBOR encoding compared to JSON text.
+ * Measures decoding the generated documents from CBOR bytes against parsing
+ * them from a String and from UTF-8 bytes, and encoding them to CBOR against
+ * serializing them. The Refs variants use string references for the repeated
+ * keys and values.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CBORBenchmark {
+
+    @Param
+    public CORPUS_TYPE corpus;
+
+    private String source;
+    private byte[] source_bytes;
+    private JSONValue tree;
+    private byte[] cbor;
+    private byte[] cbor_refs;
+
+    /**
+     * Generates the document and encodes it to CBOR before the measurement.
+     * @throws JSONMalformedSourceException Never, the documents are valid.
+     * @throws JSONUnfinishedStringAtEOF Never, the documents are valid.
+     * @throws IOException Never, the documents are written to memory.
+     */
+    @Setup
+    public void setup() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF, IOException {
+        source = Corpora.generate(corpus);
+        source_bytes = source.getBytes(StandardCharsets.UTF_8);
+        tree = new JSONParser(source).parseString();
+        cbor = encode(false);
+        cbor_refs = encode(true);
+    }
+
+    /**
+     * Encodes the tree to CBOR bytes.
+     * @param string_references Whether to use string references.
+     * @return The CBOR bytes.
+     * @throws IOException Never, the tree is written to memory.
+     */
+    private byte[] encode(boolean string_references) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONCBORWriter writer = new JSONCBORWriter(out);
+        writer.setStringReferences(string_references);
+        writer.write(tree);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public JSONValue parseString() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(source).parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseBytes() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(source_bytes).parseString();
+    }
+
+    @Benchmark
+    public JSONValue decodeCBOR() throws JSONMalformedSourceException {
+        return new JSONCBORReader(cbor).read();
+    }
+
+    @Benchmark
+    public JSONValue decodeCBORRefs() throws JSONMalformedSourceException {
+        return new JSONCBORReader(cbor_refs).read();
+    }
+
+    @Benchmark
+    public String serialize(){
+        return tree.serialize_compact();
+    }
+
+    @Benchmark
+    public void encodeCBOR() throws IOException {
+        new JSONCBORWriter(OutputStream.nullOutputStream()).write(tree);
+    }
+
+    @Benchmark
+    public void encodeCBORRefs() throws IOException {
+        JSONCBORWriter writer = new JSONCBORWriter(OutputStream.nullOutputStream());
+        writer.setStringReferences(true);
+        writer.write(tree);
+    }
+}
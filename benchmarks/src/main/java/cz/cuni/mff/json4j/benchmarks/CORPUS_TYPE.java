@@ -0,0 +1,14 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+/**
+ * Enumeration of the generated documents the benchmarks are run on.
+ * Each of them stresses a different part of the library.
+ */
+public enum CORPUS_TYPE {
+    SMALL_API,          // A short response of a REST API, mixed value types
+    NUMBER_ARRAY,       // A large flat Array of integers and decimals
+    DEEP_NESTING,       // A configuration nested deep into Objects and Arrays
+    STRING_LOGS,        // An Array of log records dominated by long Strings with escapes
+    WIDE_OBJECT,        // A single Object with many keys
+    STRUCTURAL          // Indented empty containers and keywords, no Strings nor numbers
+}
@@ -0,0 +1,71 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.JSONConcurrentObject;
+import cz.cuni.mff.json4j.JSONObject;
+import cz.cuni.mff.json4j.JSONValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of a session-state Object shared by several threads.
+ * Every operation reads a random key and every tenth one also replaces it.
+ * The Locked variant guards a plain JSONObject by a single lock, the
+ * Concurrent variant uses a JSONConcurrentObject without any locks.
+ * Run with -t to change the number of threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentBenchmark {
+
+    // The number of keys of the shared Object
+    private final static int KEYS = 1_000;
+
+    private final JSONObject locked_object = new JSONObject();
+    private final JSONConcurrentObject concurrent_object = new JSONConcurrentObject();
+    private final String[] keys = new String[KEYS];
+
+    /**
+     * Fills both Objects with the same pairs.
+     */
+    @Setup
+    public void setup(){
+        for(int i = 0; i < KEYS; i++){
+            keys[i] = "session-" + i;
+            locked_object.put(keys[i], new JSONValue((long) i));
+            concurrent_object.put(keys[i], new JSONValue((long) i));
+        }
+    }
+
+    @Benchmark
+    public JSONValue readWriteLocked(){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = keys[random.nextInt(KEYS)];
+        synchronized(locked_object){
+            JSONValue value = locked_object.get(key);
+            if(random.nextInt(10) == 0) locked_object.put(key, new JSONValue(value.getLong() + 1));
+            return value;
+        }
+    }
+
+    @Benchmark
+    public JSONValue readWriteConcurrent(){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = keys[random.nextInt(KEYS)];
+        if(random.nextInt(10) == 0){
+            return concurrent_object.compute(key, (k, value) -> new JSONValue(value.getLong() + 1));
+        }
+        return concurrent_object.get(key);
+    }
+
+    @Benchmark
+    public String serializeConcurrent(){
+        return concurrent_object.serialize_compact();
+    }
+}
@@ -0,0 +1,188 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generator of the benchmark documents.
+ * Every document is produced by a Random with a fixed seed, so all runs
+ * (and all machines) measure exactly the same input.
+ */
+public final class Corpora {
+
+    // Seed of the Random used for all documents
+    private final static long SEED = 0x6a736f6e34L;
+
+    private final static String[] WORDS = {
+            "request", "handled", "user", "session", "timeout", "cache", "miss",
+            "database", "query", "returned", "rows", "error", "retry", "connection",
+            "closed", "payload", "accepted", "rejected", "token", "expired"
+    };
+
+    private Corpora(){
+    }
+
+    /**
+     * Generates the document of the given type.
+     * @param type The type of the document.
+     * @return The JSON source of the document.
+     */
+    public static String generate(CORPUS_TYPE type){
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder();
+        switch(type) {
+            case SMALL_API -> smallApi(random, sb);
+            case NUMBER_ARRAY -> numberArray(random, sb, 100_000);
+            case DEEP_NESTING -> deepNesting(random, sb, 200);
+            case STRING_LOGS -> stringLogs(random, sb, 5_000);
+            case WIDE_OBJECT -> wideObject(random, sb, 10_000);
+            case STRUCTURAL -> structural(random, sb, 20_000);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a response of a REST API, about 1 kB long.
+     * @param random The source of the data.
+     * @param sb The builder the document is appended to.
+     */
+    private static void smallApi(Random random, StringBuilder sb){
+        sb.append("{\"id\":").append(random.nextInt(1_000_000))
+                .append(",\"name\":\"").append(word(random)).append(' ').append(word(random))
+                .append("\",\"active\":").append(random.nextBoolean())
+                .append(",\"score\":").append(random.nextInt(10_000) / 100.0)
+                .append(",\"manager\":null")
+                .append(",\"tags\":[");
+        for(int i = 0; i < 5; i++){
+            if(i > 0) sb.append(',');
+            sb.append('"').append(word(random)).append('"');
+        }
+        sb.append("],\"orders\":[");
+        for(int i = 0; i < 8; i++){
+            if(i > 0) sb.append(',');
+            sb.append("{\"order_id\":").append(random.nextInt(100_000))
+                    .append(",\"price\":").append(random.nextInt(100_000) / 100.0)
+                    .append(",\"paid\":").append(random.nextBoolean())
+                    .append('}');
+        }
+        sb.append("]}");
+    }
+
+    /**
+     * Appends a flat Array of numbers, half of them integers, half decimals.
+     * @param random The source of the data.
+     * @param sb The builder the document is appended to.
+     * @param count The number of elements.
+     */
+    private static void numberArray(Random random, StringBuilder sb, int count){
+        sb.append('[');
+        for(int i = 0; i < count; i++){
+            if(i > 0) sb.append(',');
+            if(random.nextBoolean()){
+                sb.append(random.nextInt());
+            }
+            else {
+                sb.append(random.nextInt(1_000_000) / 1000.0);
+            }
+        }
+        sb.append(']');
+    }
+
+    /**
+     * Appends a configuration where every level holds a few settings and
+     * an Array wrapping the next level.
+     * @param random The source of the data.
+     * @param sb The builder the document is appended to.
+     * @param depth The number of nested levels.
+     */
+    private static void deepNesting(Random random, StringBuilder sb, int depth){
+        for(int i = 0; i < depth; i++){
+            sb.append("{\"level\":").append(i)
+                    .append(",\"enabled\":").append(random.nextBoolean())
+                    .append(",\"label\":\"").append(word(random))
+                    .append("\",\"children\":[");
+        }
+        sb.append("null");
+        for(int i = 0; i < depth; i++){
+            sb.append("]}");
+        }
+    }
+
+    /**
+     * Appends an Array of log records with long messages, some with escapes.
+     * @param random The source of the data.
+     * @param sb The builder the document is appended to.
+     * @param count The number of records.
+     */
+    private static void stringLogs(Random random, StringBuilder sb, int count){
+        sb.append('[');
+        for(int i = 0; i < count; i++){
+            if(i > 0) sb.append(',');
+            sb.append("{\"level\":\"").append(random.nextInt(10) == 0 ? "ERROR" : "INFO")
+                    .append("\",\"logger\":\"cz.cuni.mff.").append(word(random))
+                    .append("\",\"message\":\"");
+            int words = 10 + random.nextInt(30);
+            for(int w = 0; w < words; w++){
+                if(w > 0) sb.append(' ');
+                sb.append(word(random));
+                int special = random.nextInt(20);
+                if(special == 0) sb.append("\\\"quoted\\\"");
+                else if(special == 1) sb.append("\\n\\t");
+                else if(special == 2) sb.append("\\u00e9");
+            }
+            sb.append("\"}");
+        }
+        sb.append(']');
+    }
+
+    /**
+     * Appends a single Object with many distinct keys.
+     * @param random The source of the data.
+     * @param sb The builder the document is appended to.
+     * @param count The number of keys.
+     */
+    private static void wideObject(Random random, StringBuilder sb, int count){
+        sb.append('{');
+        for(int i = 0; i < count; i++){
+            if(i > 0) sb.append(',');
+            sb.append('"').append(word(random)).append('_').append(i).append("\":");
+            switch(random.nextInt(3)) {
+                case 0 -> sb.append(random.nextInt(1000));
+                case 1 -> sb.append('"').append(word(random)).append('"');
+                default -> sb.append(random.nextBoolean());
+            }
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Appends an indented Array of empty containers and keywords,
+     * so that the document consists of structural characters and whitespace only.
+     * @param random The source of the data.
+     * @param sb The builder the document is appended to.
+     * @param count The number of elements.
+     */
+    private static void structural(Random random, StringBuilder sb, int count){
+        sb.append("[\n");
+        for(int i = 0; i < count; i++){
+            if(i > 0) sb.append(",\n");
+            sb.append("    ");
+            switch(random.nextInt(5)) {
+                case 0 -> sb.append("[ ]");
+                case 1 -> sb.append("{ }");
+                case 2 -> sb.append("[\n        [ ],\n        { }\n    ]");
+                case 3 -> sb.append(random.nextBoolean());
+                default -> sb.append("null");
+            }
+        }
+        sb.append("\n]");
+    }
+
+    /**
+     * Picks a random word of the dictionary.
+     * @param random The source of the data.
+     * @return The word.
+     */
+    private static String word(Random random){
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
@@ -0,0 +1,66 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.EVENT_TYPE;
+import cz.cuni.mff.json4j.JSONMalformedSourceException;
+import cz.cuni.mff.json4j.JSONReader;
+import cz.cuni.mff.json4j.JSONUnfinishedStringAtEOF;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the allocations done by the lexers.
+ * All events of the document are pulled by a JSONReader, so no tree is built.
+ * Structural characters, whitespace and keywords are lexed without allocation,
+ * so on the STRUCTURAL corpus gc.alloc.rate.norm should stay at the fixed
+ * cost of creating the reader, no matter how large the document is.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerAllocationBenchmark {
+
+    @Param({"STRUCTURAL", "NUMBER_ARRAY", "SMALL_API"})
+    public CORPUS_TYPE corpus;
+
+    private String source;
+    private byte[] source_bytes;
+
+    /**
+     * Generates the document before the measurement.
+     */
+    @Setup
+    public void setup(){
+        source = Corpora.generate(corpus);
+        source_bytes = source.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int lexChars() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return countEvents(new JSONReader(source));
+    }
+
+    @Benchmark
+    public int lexBytes() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return countEvents(new JSONReader(source_bytes));
+    }
+
+    /**
+     * Pulls all events of the reader.
+     * @param reader The reader over the document.
+     * @return The number of the events.
+     * @throws JSONMalformedSourceException Never, the documents are valid.
+     * @throws JSONUnfinishedStringAtEOF Never, the documents are valid.
+     */
+    private static int countEvents(JSONReader reader) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        int count = 0;
+        while(reader.next() != EVENT_TYPE.END_DOCUMENT){
+            count++;
+        }
+        return count;
+    }
+}
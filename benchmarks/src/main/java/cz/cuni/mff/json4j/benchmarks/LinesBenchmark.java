@@ -0,0 +1,65 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.JSONLinesReader;
+import cz.cuni.mff.json4j.JSONLinesWriter;
+import cz.cuni.mff.json4j.JSONMalformedSourceException;
+import cz.cuni.mff.json4j.JSONParser;
+import cz.cuni.mff.json4j.JSONUnfinishedStringAtEOF;
+import cz.cuni.mff.json4j.JSONValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of reading and writing newline-delimited JSON.
+ * The lines are the records of the STRING_LOGS corpus. Measures reading
+ * them by a sequential and a parallel Stream and writing them back.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LinesBenchmark {
+
+    private JSONValue records;
+    private byte[] lines;
+
+    /**
+     * Writes the records of the generated document as lines before the measurement.
+     * @throws JSONMalformedSourceException Never, the documents are valid.
+     * @throws JSONUnfinishedStringAtEOF Never, the documents are valid.
+     * @throws IOException Never, the lines are written to memory.
+     */
+    @Setup
+    public void setup() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF, IOException {
+        records = new JSONParser(Corpora.generate(CORPUS_TYPE.STRING_LOGS)).parseString();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONLinesWriter writer = new JSONLinesWriter(out);
+        writer.writeAll(records.getArray());
+        writer.flush();
+        lines = out.toByteArray();
+    }
+
+    @Benchmark
+    public long readLines(){
+        return new JSONLinesReader(new ByteArrayInputStream(lines)).stream().count();
+    }
+
+    @Benchmark
+    public long readLinesParallel(){
+        return new JSONLinesReader(new ByteArrayInputStream(lines)).parallelStream().count();
+    }
+
+    @Benchmark
+    public void writeLines() throws IOException {
+        JSONLinesWriter writer = new JSONLinesWriter(OutputStream.nullOutputStream());
+        writer.writeAll(records.getArray());
+        writer.flush();
+    }
+}
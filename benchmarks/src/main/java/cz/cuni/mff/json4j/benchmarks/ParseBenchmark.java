@@ -0,0 +1,208 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.EVENT_TYPE;
+import cz.cuni.mff.json4j.JSONMalformedSourceException;
+import cz.cuni.mff.json4j.JSONParser;
+import cz.cuni.mff.json4j.JSONPath;
+import cz.cuni.mff.json4j.JSONReader;
+import cz.cuni.mff.json4j.JSONUnfinishedStringAtEOF;
+import cz.cuni.mff.json4j.JSONValue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing the generated documents.
+ * Measures building the whole tree from a String, a Reader, an InputStream
+ * of UTF-8 bytes and the UTF-8 bytes directly, and pulling the events
+ * by the JSONReader without building any tree. The Reused variants reset
+ * a single parser instead of creating a new one for every document, the
+ * CanonicalKeys variants additionally share the keys through a symbol table.
+ * The Lazy variants only index the document and materialize its top-level
+ * container, as when reading a single field of the document. The Parallel
+ * variants split the top-level Array to parts parsed by the common ForkJoinPool.
+ * The File variants parse the document from a file, either memory-mapped
+ * or read to a String first. The Select variants build only the first
+ * value of the top-level container, skipping the rest of the document.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param
+    public CORPUS_TYPE corpus;
+
+    private String source;
+    private byte[] source_bytes;
+    private Path source_file;
+
+    // A single parser reset for every operation
+    private final JSONParser reused_parser = new JSONParser();
+
+    // A single parser reset for every operation, canonicalizing the keys
+    private final JSONParser canonical_parser = new JSONParser();
+
+    // A single parser reset for every operation, parsing lazily
+    private final JSONParser lazy_parser = new JSONParser();
+
+    // A single parser reset for every operation, parsing large Arrays in parallel
+    private final JSONParser parallel_parser = new JSONParser();
+
+    // The query selecting the first value of a top-level Array
+    private final JSONPath first_value = JSONPath.compile("/0");
+
+    /**
+     * Generates the document and writes it to a file before the measurement.
+     * @throws IOException If the file cannot be written.
+     */
+    @Setup
+    public void setup() throws IOException {
+        source = Corpora.generate(corpus);
+        source_bytes = source.getBytes(StandardCharsets.UTF_8);
+        source_file = Files.createTempFile("json4j-", ".json");
+        Files.write(source_file, source_bytes);
+        canonical_parser.setKeyCanonicalization(true);
+        lazy_parser.setLazy(true);
+        parallel_parser.setParallel(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public JSONValue parseString() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(source).parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseReader() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(new StringReader(source)).parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseStream() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(new ByteArrayInputStream(source_bytes)).parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseBytes() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(source_bytes).parseString();
+    }
+
+    /**
+     * Deletes the file of the document after the measurement.
+     * @throws IOException If the file cannot be deleted.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source_file);
+    }
+
+    @Benchmark
+    public JSONValue parseFile() throws IOException, JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(source_file).parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseFileRead() throws IOException, JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return new JSONParser(Files.readString(source_file)).parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseStringReused() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        reused_parser.reset(source);
+        return reused_parser.parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseBytesReused() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        reused_parser.reset(source_bytes);
+        return reused_parser.parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseStringCanonicalKeys() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        canonical_parser.reset(source);
+        return canonical_parser.parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseBytesCanonicalKeys() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        canonical_parser.reset(source_bytes);
+        return canonical_parser.parseString();
+    }
+
+    @Benchmark
+    public int parseStringLazy() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        lazy_parser.reset(source);
+        return topLevelSize(lazy_parser.parseString());
+    }
+
+    @Benchmark
+    public int parseBytesLazy() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        lazy_parser.reset(source_bytes);
+        return topLevelSize(lazy_parser.parseString());
+    }
+
+    @Benchmark
+    public JSONValue parseStringParallel() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        parallel_parser.reset(source);
+        return parallel_parser.parseString();
+    }
+
+    @Benchmark
+    public JSONValue parseBytesParallel() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        parallel_parser.reset(source_bytes);
+        return parallel_parser.parseString();
+    }
+
+    @Benchmark
+    public List<JSONValue> selectString() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        reused_parser.reset(source);
+        return reused_parser.select(first_value);
+    }
+
+    @Benchmark
+    public List<JSONValue> selectBytes() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        reused_parser.reset(source_bytes);
+        return reused_parser.select(first_value);
+    }
+
+    @Benchmark
+    public List<JSONValue> selectBytesLazy() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        lazy_parser.reset(source_bytes);
+        return lazy_parser.select(first_value);
+    }
+
+    /**
+     * Materializes the top-level container of a lazily parsed document.
+     * @param value The root of the document.
+     * @return The number of values of the top-level container.
+     */
+    private static int topLevelSize(JSONValue value){
+        return switch(value.type) {
+            case OBJECT -> value.getObject().size();
+            case ARRAY -> value.getArray().size();
+            default -> 1;
+        };
+    }
+
+    @Benchmark
+    public void readEvents(Blackhole blackhole) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        JSONReader reader = new JSONReader(source);
+        EVENT_TYPE event;
+        while((event = reader.next()) != EVENT_TYPE.END_DOCUMENT){
+            blackhole.consume(event);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.EVENT_TYPE;
+import cz.cuni.mff.json4j.JSONMalformedSourceException;
+import cz.cuni.mff.json4j.JSONObject;
+import cz.cuni.mff.json4j.JSONParser;
+import cz.cuni.mff.json4j.JSONPersistentArray;
+import cz.cuni.mff.json4j.JSONPersistentObject;
+import cz.cuni.mff.json4j.JSONReader;
+import cz.cuni.mff.json4j.JSONUnfinishedStringAtEOF;
+import cz.cuni.mff.json4j.JSONValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of deriving variants of a shared tree.
+ * The Copy variants change a deep copy of the mutable tree (made by parsing
+ * its serialization, as the mutable classes cannot be copied otherwise), the
+ * Persistent variants create a new version of the persistent tree. Key lookups
+ * in the persistent wide Object are measured as well, to be compared with
+ * TreeAccessBenchmark.objectGet.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistentBenchmark {
+
+    private JSONObject wide_object;
+    private JSONPersistentObject persistent_object;
+    private String[] wide_object_keys;
+    private JSONPersistentArray persistent_logs;
+
+    // The value put to every variant
+    private final JSONValue changed = new JSONValue("changed");
+
+    /**
+     * Parses the generated documents, copies them to persistent trees and collects the keys of the wide Object.
+     * @throws JSONMalformedSourceException Never, the documents are valid.
+     * @throws JSONUnfinishedStringAtEOF Never, the documents are valid.
+     */
+    @Setup
+    public void setup() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        String source = Corpora.generate(CORPUS_TYPE.WIDE_OBJECT);
+        wide_object = new JSONParser(source).parseString().getObject();
+        persistent_object = new JSONPersistentObject(wide_object);
+        persistent_logs = new JSONPersistentArray(
+                new JSONParser(Corpora.generate(CORPUS_TYPE.STRING_LOGS)).parseString().getArray()
+        );
+
+        List<String> keys = new ArrayList<>();
+        JSONReader reader = new JSONReader(source);
+        EVENT_TYPE event;
+        while((event = reader.next()) != EVENT_TYPE.END_DOCUMENT){
+            if(event == EVENT_TYPE.KEY) keys.add(reader.getString());
+        }
+        wide_object_keys = keys.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public JSONObject objectVariantCopy() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        JSONObject copy = new JSONParser(wide_object.serialize_compact()).parseString().getObject();
+        copy.put(wide_object_keys[wide_object_keys.length / 2], changed);
+        return copy;
+    }
+
+    @Benchmark
+    public JSONPersistentObject objectVariantPersistent(){
+        return persistent_object.with(wide_object_keys[wide_object_keys.length / 2], changed);
+    }
+
+    @Benchmark
+    public JSONPersistentArray arrayVariantPersistent(){
+        int index = persistent_logs.size() / 2;
+        JSONPersistentObject record = (JSONPersistentObject) persistent_logs.get(index).getObject();
+        return persistent_logs.with(index, new JSONValue(record.with("message", changed)));
+    }
+
+    @Benchmark
+    public int persistentObjectGet(){
+        int found = 0;
+        for(String key: wide_object_keys){
+            if(persistent_object.get(key) != null) found++;
+        }
+        return found;
+    }
+}
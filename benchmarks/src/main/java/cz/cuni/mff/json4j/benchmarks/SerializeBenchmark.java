@@ -0,0 +1,61 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.JSONMalformedSourceException;
+import cz.cuni.mff.json4j.JSONParser;
+import cz.cuni.mff.json4j.JSONUnfinishedStringAtEOF;
+import cz.cuni.mff.json4j.JSONValue;
+import cz.cuni.mff.json4j.JSONWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of serializing the parsed documents.
+ * Measures both serializations to a String and streaming the compact
+ * serialization as UTF-8 to an OutputStream discarding the bytes.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializeBenchmark {
+
+    @Param
+    public CORPUS_TYPE corpus;
+
+    private JSONValue value;
+
+    /**
+     * Parses the generated document before the measurement.
+     * @throws JSONMalformedSourceException Never, the documents are valid.
+     * @throws JSONUnfinishedStringAtEOF Never, the documents are valid.
+     */
+    @Setup
+    public void setup() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        value = new JSONParser(Corpora.generate(corpus)).parseString();
+    }
+
+    @Benchmark
+    public String serializeCompact(){
+        return value.serialize_compact();
+    }
+
+    @Benchmark
+    public String serializeReadable(){
+        return value.serialize_readable();
+    }
+
+    @Benchmark
+    public String serializeSorted(){
+        return value.serialize_sorted();
+    }
+
+    @Benchmark
+    public void writeStream() throws IOException {
+        new JSONWriter(OutputStream.nullOutputStream()).write(value);
+    }
+}
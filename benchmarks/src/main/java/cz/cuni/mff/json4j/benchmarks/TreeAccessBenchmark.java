@@ -0,0 +1,103 @@
+package cz.cuni.mff.json4j.benchmarks;
+
+import cz.cuni.mff.json4j.EVENT_TYPE;
+import cz.cuni.mff.json4j.JSONArray;
+import cz.cuni.mff.json4j.JSONMalformedSourceException;
+import cz.cuni.mff.json4j.JSONObject;
+import cz.cuni.mff.json4j.JSONParser;
+import cz.cuni.mff.json4j.JSONReader;
+import cz.cuni.mff.json4j.JSONUnfinishedStringAtEOF;
+import cz.cuni.mff.json4j.JSONValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of reading values from an already parsed tree.
+ * Measures indexed and iterated access to a large Array, key lookups
+ * in a wide Object and a path lookup repeated over an Array of Objects.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeAccessBenchmark {
+
+    private JSONArray numbers;
+    private JSONObject wide_object;
+    private String[] wide_object_keys;
+    private JSONArray logs;
+
+    /**
+     * Parses the generated documents and collects the keys of the wide Object.
+     * @throws JSONMalformedSourceException Never, the documents are valid.
+     * @throws JSONUnfinishedStringAtEOF Never, the documents are valid.
+     */
+    @Setup
+    public void setup() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        numbers = new JSONParser(Corpora.generate(CORPUS_TYPE.NUMBER_ARRAY)).parseString().getArray();
+        logs = new JSONParser(Corpora.generate(CORPUS_TYPE.STRING_LOGS)).parseString().getArray();
+
+        String source = Corpora.generate(CORPUS_TYPE.WIDE_OBJECT);
+        wide_object = new JSONParser(source).parseString().getObject();
+        List<String> keys = new ArrayList<>();
+        JSONReader reader = new JSONReader(source);
+        EVENT_TYPE event;
+        while((event = reader.next()) != EVENT_TYPE.END_DOCUMENT){
+            if(event == EVENT_TYPE.KEY) keys.add(reader.getString());
+        }
+        wide_object_keys = keys.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public double arrayGetDouble(){
+        double sum = 0;
+        int size = numbers.size();
+        for(int i = 0; i < size; i++){
+            sum += numbers.getDouble(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double arrayGet(){
+        double sum = 0;
+        int size = numbers.size();
+        for(int i = 0; i < size; i++){
+            sum += numbers.get(i).getDouble();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double arrayIterate(){
+        double sum = 0;
+        for(JSONValue value: numbers){
+            sum += value.getDouble();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int objectGet(){
+        int found = 0;
+        for(String key: wide_object_keys){
+            if(wide_object.get(key) != null) found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int nestedGet(){
+        int length = 0;
+        int size = logs.size();
+        for(int i = 0; i < size; i++){
+            length += logs.get(i).getObject().get("message").getString().length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,21 @@
+package cz.cuni.mff.json4j;
+
+/**
+ * Enumeration of the events produced by the JSONReader.
+ * Every JSON value is reported either as a single scalar event
+ * (STRING, NUMBER, BOOLEAN, NULL) or as a pair of START_ and END_ events
+ * enclosing the events of its contents. Every value inside an Object
+ * is preceded by a KEY event.
+ */
+public enum EVENT_TYPE {
+    START_OBJECT,           // '{'
+    END_OBJECT,             // '}'
+    START_ARRAY,            // '['
+    END_ARRAY,              // ']'
+    KEY,                    // A key of an Object, the ':' is consumed with it
+    STRING,                 // A String value
+    NUMBER,                 // A number value
+    BOOLEAN,                // "true" or "false"
+    NULL,                   // "null"
+    END_DOCUMENT            // The whole JSON value was processed
+}
@@ -1,19 +1,55 @@
 package cz.cuni.mff.json4j;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 
 /**
  * A wrapper for a JSON Array type.
- * Utilizes a Linked list for holding the values and provides
- * wrapper methods to operate on it.
+ * Utilizes a growable array (ArrayList) for holding the values and provides
+ * wrapper methods to operate on it. Indexed access therefore takes constant time.
  * Note that all added elements must be wrapped in the JSONValue wrapper.
+ * An Array filled through add(long) or add(double) holds its numbers in a dense
+ * primitive array instead, as long as all of them are of the same kind (integers
+ * or not). The numbers are then wrapped in a new JSONValue upon every access.
+ * Adding any other value converts the Array to the ArrayList storage.
+ * An Array of a lazily parsed tree holds nothing until it is accessed for the
+ * first time, its values are then parsed from the source (see JSONParser.setLazy()).
  */
-public class JSONArray {
+public class JSONArray implements Iterable<JSONValue> {
 
     /**
-     * The underlying LinkedList holding the values of the Array.
+     * The underlying ArrayList holding the values of the Array.
+     * Null while the Array is numeric.
      */
-    private LinkedList<JSONValue> values;
+    private ArrayList<JSONValue> values;
+
+    /**
+     * The numbers of a numeric Array, either the longs or the bits of the doubles.
+     * Null unless the Array is numeric. Valid up to numbers_size.
+     */
+    private long[] numbers;
+    private int numbers_size;
+
+    /**
+     * Whether the numbers of a numeric Array are longs (or doubles).
+     */
+    private boolean numbers_integral;
+
+    /**
+     * The structural index of the source of a lazily parsed Array, null once it is materialized.
+     * Volatile, so that the materialized values are visible to all threads reading the tree.
+     */
+    private volatile JSONStructuralIndex lazy_index;
+
+    /**
+     * The number of the Array in the lazy_index.
+     */
+    private int lazy_ordinal;
 
     /**
      * Get a value from the Array.
@@ -21,23 +57,111 @@ public class JSONArray {
      * @return The element at the requested index.
      */
     public JSONValue get(int index){
+        this.load();
+        if(numbers != null){
+            Objects.checkIndex(index, numbers_size);
+            return this.wrapNumber(numbers[index]);
+        }
         return values.get(index);
     }
 
+    /**
+     * Get a number from the Array as double, without wrapping it to JSONValue
+     * if the Array is numeric.
+     * @param index Index of the number to retrieve.
+     * @return The number at the requested index.
+     * @throws IllegalStateException If the element is not a number.
+     */
+    public double getDouble(int index){
+        this.load();
+        if(numbers != null){
+            Objects.checkIndex(index, numbers_size);
+            return numbers_integral ? (double) numbers[index] : Double.longBitsToDouble(numbers[index]);
+        }
+        return values.get(index).getDouble();
+    }
+
+    /**
+     * Get a number from the Array as long, without wrapping it to JSONValue
+     * if the Array is numeric.
+     * @param index Index of the number to retrieve.
+     * @return The number at the requested index, non-integers are truncated towards zero.
+     * @throws IllegalStateException If the element is not a number.
+     */
+    public long getLong(int index){
+        this.load();
+        if(numbers != null){
+            Objects.checkIndex(index, numbers_size);
+            return numbers_integral ? numbers[index] : (long) Double.longBitsToDouble(numbers[index]);
+        }
+        return values.get(index).getLong();
+    }
+
     /**
      * Add a value to the Array.
      * @param value Value to be added.
      */
     public void add(JSONValue value){
+        this.load();
+        if(numbers != null){
+            if(this.fitsNumbers(value)){
+                this.appendNumber(value.isIntegral() ? value.getLong() : Double.doubleToRawLongBits(value.getDouble()));
+                return;
+            }
+            this.inflate();
+        }
         values.add(value);
     }
 
+    /**
+     * Add an integer to the Array.
+     * If the Array is empty or holds only integers, it is kept numeric.
+     * @param value Number to be added.
+     */
+    public void add(long value){
+        this.load();
+        if(this.size() == 0 && numbers == null){
+            this.startNumbers(true);
+        }
+        if(numbers != null && numbers_integral){
+            this.appendNumber(value);
+            return;
+        }
+        this.add(new JSONValue(value));
+    }
+
+    /**
+     * Add a non-integer number to the Array.
+     * If the Array is empty or holds only non-integers, it is kept numeric.
+     * @param value Number to be added.
+     */
+    public void add(double value){
+        this.load();
+        if(this.size() == 0 && numbers == null){
+            this.startNumbers(false);
+        }
+        if(numbers != null && !numbers_integral){
+            this.appendNumber(Double.doubleToRawLongBits(value));
+            return;
+        }
+        this.add(new JSONValue(value));
+    }
+
     /**
      * Change the value at index of the Array.
      * @param index Index of the value to be changed.
      * @param value Value to be put at the index.
      */
     public void set(int index, JSONValue value){
+        this.load();
+        if(numbers != null){
+            Objects.checkIndex(index, numbers_size);
+            if(this.fitsNumbers(value)){
+                numbers[index] = value.isIntegral() ? value.getLong() : Double.doubleToRawLongBits(value.getDouble());
+                return;
+            }
+            this.inflate();
+        }
         values.set(index, value);
     }
 
@@ -47,49 +171,256 @@ public class JSONArray {
      * @return The removed value.
      */
     public JSONValue remove(int index){
+        this.load();
+        if(numbers != null){
+            JSONValue removed = this.get(index);
+            System.arraycopy(numbers, index + 1, numbers, index, numbers_size - index - 1);
+            numbers_size--;
+            return removed;
+        }
         return values.remove(index);
     }
 
+    /**
+     * Get an iterator over the values of the Array in their order.
+     * @return Iterator over the values of the Array.
+     */
+    @Override
+    public Iterator<JSONValue> iterator(){
+        this.load();
+        if(numbers == null){
+            return values.iterator();
+        }
+        return new Iterator<>() {
+            // Index of the value returned by the next call of next()
+            private int index = 0;
+
+            @Override
+            public boolean hasNext(){
+                return index < size();
+            }
+
+            @Override
+            public JSONValue next(){
+                if(!this.hasNext()) throw new NoSuchElementException();
+                return get(index++);
+            }
+
+            @Override
+            public void remove(){
+                if(index == 0) throw new IllegalStateException();
+                JSONArray.this.remove(--index);
+            }
+        };
+    }
+
     /**
      * Get the size of the Array.
      * @return Number of elements in the Array.
      */
     public int size(){
-        return values.size();
+        this.load();
+        return numbers != null ? numbers_size : values.size();
+    }
+
+    /**
+     * Checks if the Array holds its values as dense primitive numbers.
+     * Used by the JSONWriter to write the numbers without wrapping them.
+     * @return Whether the Array is numeric.
+     */
+    boolean isNumeric(){
+        this.load();
+        return numbers != null;
+    }
+
+    /**
+     * Checks if the numbers of a numeric Array are integers.
+     * @return Whether the numbers are held as longs (or doubles).
+     */
+    boolean isIntegral(){
+        this.load();
+        return numbers_integral;
+    }
+
+    /**
+     * Get a view of the Array which does not change while it is being walked.
+     * Used by the JSONWriter and the copies, which read the values one by one.
+     * @return This Array, the current version of a concurrent one.
+     */
+    JSONArray stable(){
+        return this;
+    }
+
+    /**
+     * Materializes the Array if it was parsed lazily and not accessed yet.
+     * @throws UncheckedJSONException If the Array is malformed.
+     */
+    private void load(){
+        JSONStructuralIndex lazy = lazy_index;
+        if(lazy != null){
+            lazy.load(this, lazy_ordinal);
+        }
+    }
+
+    /**
+     * Checks if the Array is a lazy shell which was not materialized yet.
+     * @return Whether the Array still waits for its values.
+     */
+    boolean isLazy(){
+        return lazy_index != null;
+    }
+
+    /**
+     * Takes over the values of the Array materialized for this lazy shell.
+     * @param materialized The Array holding the values, not used afterwards.
+     */
+    void adopt(JSONArray materialized){
+        values = materialized.values;
+        numbers = materialized.numbers;
+        numbers_size = materialized.numbers_size;
+        numbers_integral = materialized.numbers_integral;
+        lazy_index = null;
+    }
+
+    /**
+     * Appends all values of the other Array to this one.
+     * The Array stays numeric only if both hold numbers of the same kind,
+     * so the result is the same as if the values were added one by one.
+     * Used by the JSONParser to join the parts of an Array parsed in parallel.
+     * @param other The Array whose values are appended, not changed.
+     */
+    void addAll(JSONArray other){
+        this.load();
+        other.load();
+        if(numbers != null && other.numbers != null && numbers_integral == other.numbers_integral){
+            if(numbers_size + other.numbers_size > numbers.length){
+                numbers = Arrays.copyOf(numbers, Math.max(numbers.length * 2, numbers_size + other.numbers_size));
+            }
+            System.arraycopy(other.numbers, 0, numbers, numbers_size, other.numbers_size);
+            numbers_size += other.numbers_size;
+            return;
+        }
+        if(numbers != null){
+            this.inflate();
+        }
+        if(other.numbers != null){
+            values.ensureCapacity(values.size() + other.numbers_size);
+            for(int i = 0; i < other.numbers_size; i++){
+                values.add(other.wrapNumber(other.numbers[i]));
+            }
+        }
+        else {
+            values.addAll(other.values);
+        }
+    }
+
+    /**
+     * Checks if the value can be held in the numbers array without a change of its kind.
+     * Numbers kept as literals are never converted, so that they stay exact.
+     * @param value The value to be checked.
+     * @return Whether the value is a primitive number of the same kind as the numbers of the Array.
+     */
+    private boolean fitsNumbers(JSONValue value){
+        return value.type == JSON_TYPE.NUMBER
+                && value.getLiteral() == null
+                && value.isIntegral() == numbers_integral;
+    }
+
+    /**
+     * Wraps a number of the numbers array into a JSONValue.
+     * @param bits The long or the bits of the double.
+     * @return The wrapped number.
+     */
+    private JSONValue wrapNumber(long bits){
+        return numbers_integral ? new JSONValue(bits) : new JSONValue(Double.longBitsToDouble(bits));
+    }
+
+    /**
+     * Switches an empty Array to the numeric storage.
+     * @param integral Whether the numbers are going to be longs (or doubles).
+     */
+    private void startNumbers(boolean integral){
+        numbers = new long[16];
+        numbers_size = 0;
+        numbers_integral = integral;
+        values = null;
+    }
+
+    /**
+     * Appends a number to the numbers array, growing it if needed.
+     * @param bits The long or the bits of the double.
+     */
+    private void appendNumber(long bits){
+        if(numbers_size == numbers.length){
+            numbers = Arrays.copyOf(numbers, numbers_size * 2);
+        }
+        numbers[numbers_size++] = bits;
+    }
+
+    /**
+     * Converts a numeric Array to the ArrayList storage by wrapping all its numbers.
+     */
+    private void inflate(){
+        values = new ArrayList<>(Math.max(numbers_size, 10));
+        for(int i = 0; i < numbers_size; i++){
+            values.add(this.wrapNumber(numbers[i]));
+        }
+        numbers = null;
+        numbers_size = 0;
     }
 
     /**
      * Creates an empty JSON Array.
      */
     public JSONArray(){
-        this.values = new LinkedList<>();
+        this.values = new ArrayList<>();
+    }
+
+    /**
+     * Creates an empty JSON Array with room for the expected number of values.
+     * @param capacity Number of values the Array can hold before it has to grow.
+     */
+    public JSONArray(int capacity){
+        this.values = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Creates a lazy shell of the Array recorded in the structural index.
+     * Its values are parsed upon its first access.
+     * @param lazy_index The structural index of the source.
+     * @param lazy_ordinal The number of the Array in the index.
+     */
+    JSONArray(JSONStructuralIndex lazy_index, int lazy_ordinal){
+        this.lazy_index = lazy_index;
+        this.lazy_ordinal = lazy_ordinal;
+    }
+
+    /**
+     * Creates a JSON Array From the list of JSON Values.
+     * The values are copied, later changes of the list do not affect the Array.
+     * @param values The List from which the JSONArray can be constructed.
+     */
+    public JSONArray(List<JSONValue> values){
+        this.values = new ArrayList<>(values);
     }
 
     /**
      * Creates a JSON Array From the list of JSON Values.
+     * The values are copied, later changes of the list do not affect the Array.
      * @param values The LinkedList from which the JSONArray can be constructed.
      */
     public JSONArray(LinkedList<JSONValue> values){
-        this.values = values;
+        this((List<JSONValue>) values);
     }
 
     /**
      * Serializes the Array in a space-saving manner.
      * Uses minimal possible number of characters required.
+     * The whole Array is written by a single JSONWriter.
      * @return The compact serialization of the Array
      */
     public String serialize_compact(){
-        StringBuilder out = new StringBuilder();
-        out.append('[');
-        for(JSONValue val: this.values){
-            out.append(val.toString());
-            out.append(',');
-        }
-        // Remove the last comma
-        if(!this.values.isEmpty()) out.deleteCharAt(out.length()-1);
-        out.append(']');
-
-        return out.toString();
+        return JSONWriter.toCompactString(new JSONValue(this));
     }
 
     /**
@@ -97,30 +428,20 @@ public class JSONArray {
      * All values are printed on separate lines, indented. All inner multiline
      * values (Arrays and Objects) are indented as well.
      * Empty Array is printed only as a pair of brackets.
+     * The whole Array is written by a single readable JSONWriter.
      * @return Human readable serialization of the Array.
      */
     public String serialize_readable(){
-        StringBuilder out = new StringBuilder();
-        out.append('[');
-        if(!this.values.isEmpty()) out.append('\n');
-
-        for(JSONValue val: this.values){
-            out.append("    ");                         // Indent by 4 spaces
-            String value_string = val.serialize_readable();
-            // Indent all lines of multiline values (Arrays/Objects)
-            if(value_string.lines().count() > 1){
-                // Indent and remove indent from the first line
-                value_string = value_string.indent(4).trim();
-            }
-            out.append(value_string);
-            out.append(",\n");
-        }
-
-        // Remove last comma (but leave in the endline)
-        if(!this.values.isEmpty()) out.deleteCharAt(out.length()-2);
-        out.append(']');
+        return JSONWriter.toReadableString(new JSONValue(this));
+    }
 
-        return out.toString();
+    /**
+     * Serializes the Array in a space-saving manner with the keys of all
+     * Objects in it sorted, so that equal Arrays always give the same String.
+     * @return The compact serialization of the Array with sorted keys.
+     */
+    public String serialize_sorted(){
+        return JSONWriter.toSortedString(new JSONValue(this));
     }
 
     /**
@@ -0,0 +1,103 @@
+package cz.cuni.mff.json4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Classifies the bytes of a block of UTF-8 encoded JSON at once.
+ * Every class of bytes is returned as a bit mask, the i-th bit describing
+ * the i-th byte of the block. The masks are used by the JSONStructuralIndex
+ * to find the Strings and the brackets of whole blocks without looking at
+ * the bytes one by one.
+ * The fastest available implementation is chosen upon the first use:
+ * the one using the Vector API (compiled only on JDK 17 or later, and working
+ * only when the jdk.incubator.vector module is added to the runtime), otherwise
+ * the one comparing 8 bytes at once in a long (JSONSwarClassifier).
+ * The Vector API can be turned off by the system property json4j.vector=false.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+abstract class JSONBlockClassifier {
+
+    // Number of bytes classified at once, one bit of a long per byte
+    final static int BLOCK_SIZE = 64;
+
+    // Indexes of the masks filled by classify()
+    final static int QUOTES = 0;
+    final static int BACKSLASHES = 1;
+    final static int OPENING_BRACKETS = 2;
+    final static int CLOSING_BRACKETS = 3;
+
+    // The name of the implementation using the Vector API, loaded reflectively
+    private final static String VECTOR_CLASSIFIER = "cz.cuni.mff.json4j.JSONVectorClassifier";
+
+    /**
+     * Classifies BLOCK_SIZE bytes of the array starting at the offset.
+     * Fills the masks of the quotes ('"'), the backslashes ('\\'),
+     * the opening brackets ('{' and '[') and the closing brackets ('}' and ']').
+     * @param block The array holding the bytes.
+     * @param offset Index of the first byte of the block, at least BLOCK_SIZE bytes have to follow.
+     * @param masks Array of at least 4 masks, filled at QUOTES, BACKSLASHES,
+     *              OPENING_BRACKETS and CLOSING_BRACKETS.
+     */
+    abstract void classify(byte[] block, int offset, long[] masks);
+
+    /**
+     * Get the implementation used by the library, chosen upon the first call.
+     * @return The shared classifier.
+     */
+    static JSONBlockClassifier instance(){
+        return Chosen.INSTANCE;
+    }
+
+    /**
+     * Chooses the implementation of the classifier.
+     * The Vector API implementation is used only if it can be loaded and
+     * classifies a sample block the same way as the fallback one.
+     * @return The classifier to be used.
+     */
+    private static JSONBlockClassifier load(){
+        JSONBlockClassifier fallback = new JSONSwarClassifier();
+        if(!Boolean.parseBoolean(System.getProperty("json4j.vector", "true"))){
+            return fallback;
+        }
+        try {
+            JSONBlockClassifier vector = (JSONBlockClassifier) Class.forName(VECTOR_CLASSIFIER)
+                    .getDeclaredConstructor().newInstance();
+            return vector.agreesWith(fallback) ? vector : fallback;
+        }
+        catch (ReflectiveOperationException | LinkageError | RuntimeException e){
+            // Older JDK or the incubator module is not added, the fallback is used
+            return fallback;
+        }
+    }
+
+    /**
+     * Compares the masks of this classifier with the other one on a sample block.
+     * @param other The classifier known to be correct.
+     * @return Whether both classifiers return the same masks.
+     */
+    private boolean agreesWith(JSONBlockClassifier other){
+        byte[] sample = new byte[BLOCK_SIZE * 2];
+        byte[] alphabet = "{}[]\",:\\ aZ09\u007f".getBytes(StandardCharsets.US_ASCII);
+        for(int i = 0; i < sample.length; i++){
+            sample[i] = i % 7 == 3 ? (byte) (0x80 | i) : alphabet[(i * 5) % alphabet.length];
+        }
+        long[] expected = new long[4];
+        long[] actual = new long[4];
+        for(int offset = 0; offset <= BLOCK_SIZE; offset += 13){
+            other.classify(sample, offset, expected);
+            this.classify(sample, offset, actual);
+            if(!Arrays.equals(expected, actual)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Holds the chosen implementation. It is not a static field of JSONBlockClassifier
+     * itself, since the implementations are its subclasses: creating them while
+     * initializing it would let them run before their own static fields are set.
+     */
+    private final static class Chosen {
+        final static JSONBlockClassifier INSTANCE = load();
+    }
+}
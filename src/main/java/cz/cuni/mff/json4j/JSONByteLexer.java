@@ -0,0 +1,294 @@
+package cz.cuni.mff.json4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A JSONLexer working directly on UTF-8 encoded bytes.
+ * The whole source is expected in memory (a byte array or a ByteBuffer),
+ * so no decoding to chars is done upfront. All the structural characters,
+ * keywords and numbers are ASCII and are recognized as bytes. Strings are
+ * only validated while being scanned (escape sequences and UTF-8 sequences)
+ * and they are decoded to Java Strings only once their value is requested.
+ * The bytes are read by absolute indexes, the position of the ByteBuffer
+ * is not changed. A file of 2 GB or more is read from the overlapping windows
+ * of its JSONByteSource: every token is read from the window its first byte
+ * falls to, so tokens longer than JSONByteSource.WINDOW_SIZE (1 GB) are not
+ * supported there. The lexer can be reset to a new source.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+class JSONByteLexer extends JSONLexer {
+
+    // The bytes to be tokenized
+    private JSONByteSource bytes;
+
+    // The window of the source being tokenized, its first byte is at the position base
+        // For a ByteBuffer source, the window is a duplicate of the buffer and base is 0
+    private ByteBuffer source;
+    private long base;
+    private boolean last_window;
+
+    // Index of the currently processed byte and the end of the window
+    private int index;
+    private int limit;
+
+    /**
+     * Starts processing the bytes of the source.
+     * Any previous source is forgotten.
+     * The bytes must not be modified while the tokens are in use.
+     * @param bytes The UTF-8 encoded source.
+     */
+    void reset(JSONByteSource bytes){
+        this.bytes = bytes;
+        this.moveTo(bytes.start);
+    }
+
+    /**
+     * Get the position of the next byte to be processed.
+     * @return The current position in the source (the absolute index in a ByteBuffer).
+     */
+    @Override
+    long position(){
+        return base + index;
+    }
+
+    /**
+     * Moves the processing to the byte at the position of the source.
+     * @param position The position of the byte, between the start and the limit of the source.
+     */
+    @Override
+    void seek(long position){
+        this.moveTo(position);
+    }
+
+    /**
+     * Switches to the window holding the position (and the following WINDOW_SIZE bytes).
+     * @param position The position of the byte to be processed next.
+     */
+    private void moveTo(long position){
+        int window = bytes.windowOf(position);
+        source = bytes.window(window);
+        base = bytes.baseOf(window);
+        last_window = window == bytes.windowCount() - 1;
+        index = (int) (position - base);
+        limit = last_window ? (int) (bytes.limit - base) : source.limit();
+    }
+
+    /**
+     * Checks that the end of the window reached inside of a token is the end of the source.
+     * @throws JSONMalformedSourceException If the token continues to the next window.
+     */
+    private void checkLastWindow() throws JSONMalformedSourceException {
+        if(!last_window){
+            throw new JSONMalformedSourceException("Tokens longer than 1 GB are not supported in files of 2 GB or more");
+        }
+    }
+
+    /**
+     * Fetches next token from this.source.
+     * After the function call, the index is moved after the last byte
+     * of the token.
+     * In case of multi-character tokens (numbers and non-String literals),
+     * parsing stops upon encountering a whitespace, token character or EOF.
+     * In case of String literals, the String is read by readString().
+     *
+     * @param key Whether the token is expected to be a key of an Object.
+     * @return Next JSON token from the source.
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered inside an unfinished String.
+     * @throws JSONMalformedSourceException If a String contains an invalid escape or UTF-8 sequence.
+     */
+    @Override
+    JSONToken nextToken(boolean key) throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException {
+
+        // Read all whitespace before token
+        while(index < limit && isWhitespace(source.get(index))){
+            index++;
+        }
+
+        // Every token is read from the window its first byte falls to
+        if(index >= JSONByteSource.WINDOW_SIZE && !last_window){
+            this.moveTo(base + index);
+            return this.nextToken(key);
+        }
+
+        // Handle being at the end of source
+        if(index >= limit){
+            return JSONToken.generateEOFToken();
+        }
+
+        byte current = source.get(index);
+
+        // Next token is String
+        if(current == QUOTE_CHAR){
+            return this.readString(key);
+        }
+        // Next token is single-character (brackets, comma, etc...)
+        else if(isTokenChar(current)){
+            index++;
+            return JSONToken.generateStructuralToken(current);
+        }
+
+        // Next token is a literal (number/boolean/null)
+        int start = index;
+        do {
+            index++;
+        } while(index < limit && !isDelimiter(source.get(index)));
+        if(index == limit){
+            this.checkLastWindow();
+        }
+
+        // The keywords are shared tokens, only numbers keep a view of the literal
+        if(this.matches(start, "true")) return JSONToken.generateBooleanToken(true);
+        if(this.matches(start, "false")) return JSONToken.generateBooleanToken(false);
+        if(this.matches(start, "null")) return JSONToken.generateNullToken();
+        return JSONToken.generateNumberToken(new JSONByteLiteral(source, start, index));
+    }
+
+    /**
+     * Checks if the literal ending at the current index is the keyword.
+     * @param start Index of the first byte of the literal.
+     * @param keyword The ASCII keyword.
+     * @return Whether the literal is exactly the keyword.
+     */
+    private boolean matches(int start, String keyword){
+        if(index - start != keyword.length()) return false;
+        for(int i = 0; i < keyword.length(); i++){
+            if(source.get(start + i) != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scans a String literal starting at the current QUOTE_CHAR.
+     * The index is moved after the closing QUOTE_CHAR. The escape sequences
+     * and the UTF-8 sequences are validated, but nothing is decoded.
+     * Keys are looked up in this.symbols (if set) instead, ASCII keys without
+     * escape sequences directly in the source.
+     *
+     * @param key Whether the String is expected to be a key of an Object.
+     * @return The STRING_LITERAL token holding the undecoded String.
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered before the closing QUOTE_CHAR.
+     * @throws JSONMalformedSourceException If the String contains an invalid escape or UTF-8 sequence.
+     */
+    private JSONToken readString(boolean key) throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException {
+        int start = index + 1;
+        int i = start;
+        boolean escaped = false;
+        boolean ascii = true;
+
+        while(true){
+            if(i >= limit){
+                this.checkLastWindow();
+                throw new JSONUnfinishedStringAtEOF();
+            }
+            byte b = source.get(i);
+            if(b == QUOTE_CHAR){
+                break;
+            }
+            if(b == ESCAPE_CHAR){
+                escaped = true;
+                i = this.skipEscape(i);
+            }
+            else if(b < 0){
+                ascii = false;
+                i = this.skipMultiByte(i);
+            }
+            else {
+                i++;
+            }
+        }
+
+        index = i + 1;
+        if(key && symbols != null && ascii && !escaped){
+            return symbols.lookup(source, start, i);
+        }
+        JSONByteString value = new JSONByteString(source, start, i, escaped);
+        if(key && symbols != null){
+            return symbols.lookup(value.toString());
+        }
+        return JSONToken.generateStringToken(value);
+    }
+
+    /**
+     * Validates the escape sequence starting at the ESCAPE_CHAR.
+     * @param i Index of the ESCAPE_CHAR.
+     * @return Index of the first byte after the sequence.
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered inside the sequence.
+     * @throws JSONMalformedSourceException If the escape sequence is not valid.
+     */
+    private int skipEscape(int i) throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException {
+        if(i + 1 >= limit){
+            this.checkLastWindow();
+            throw new JSONUnfinishedStringAtEOF();
+        }
+        char escape = (char) (source.get(i + 1) & 0xFF);
+        switch(escape) {
+            case '"', '\\', '/', 'b', 'f', 'n', 'r', 't' -> {
+                return i + 2;
+            }
+            case 'u' -> {
+                if(i + 6 > limit){
+                    this.checkLastWindow();
+                    throw new JSONUnfinishedStringAtEOF();
+                }
+                for(int d = i + 2; d < i + 6; d++){
+                    char digit = (char) (source.get(d) & 0xFF);
+                    if(hexDigit(digit) < 0){
+                        throw new JSONMalformedSourceException(
+                                "Invalid hexadecimal digit in unicode escape sequence: " + digit
+                        );
+                    }
+                }
+                return i + 6;
+            }
+            default -> throw new JSONMalformedSourceException(
+                    "Invalid escape sequence in String: \\" + escape
+            );
+        }
+    }
+
+    /**
+     * Validates the multi-byte UTF-8 sequence starting at the index.
+     * Overlong encodings, surrogates and code points above U+10FFFF
+     * are rejected, as specified in RFC 3629.
+     * @param i Index of the leading byte of the sequence.
+     * @return Index of the first byte after the sequence.
+     * @throws JSONMalformedSourceException If the sequence is not valid UTF-8.
+     */
+    private int skipMultiByte(int i) throws JSONMalformedSourceException {
+        int lead = source.get(i) & 0xFF;
+
+        // The number of continuation bytes and the allowed range of the first one
+        int continuation;
+        int min = 0x80;
+        int max = 0xBF;
+        if(lead >= 0xC2 && lead <= 0xDF){
+            continuation = 1;
+        }
+        else if(lead >= 0xE0 && lead <= 0xEF){
+            continuation = 2;
+            if(lead == 0xE0) min = 0xA0;
+            if(lead == 0xED) max = 0x9F;
+        }
+        else if(lead >= 0xF0 && lead <= 0xF4){
+            continuation = 3;
+            if(lead == 0xF0) min = 0x90;
+            if(lead == 0xF4) max = 0x8F;
+        }
+        else {
+            throw new JSONMalformedSourceException("Malformed UTF-8 sequence in String");
+        }
+
+        if(i + continuation >= limit){
+            this.checkLastWindow();
+        }
+        for(int c = 1; c <= continuation; c++){
+            int b = i + c < limit ? source.get(i + c) & 0xFF : -1;
+            if(b < min || b > max){
+                throw new JSONMalformedSourceException("Malformed UTF-8 sequence in String");
+            }
+            min = 0x80;
+            max = 0xBF;
+        }
+        return i + continuation + 1;
+    }
+}
@@ -0,0 +1,64 @@
+package cz.cuni.mff.json4j;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A literal of a UTF-8 encoded JSON source viewed as a CharSequence.
+ * Used for number literals, which consist of ASCII characters only,
+ * so every byte is exactly one char. The JSONNumberDecoder works
+ * on the view directly, so no String is created for the number
+ * unless its literal is requested.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+final class JSONByteLiteral implements CharSequence {
+
+    // The source and the range of the literal in it
+    private final ByteBuffer source;
+    private final int start;
+    private final int end;
+
+    /**
+     * Creates a view of the literal in the source.
+     * @param source The UTF-8 encoded source.
+     * @param start Index of the first byte of the literal.
+     * @param end Index of the first byte after the literal.
+     */
+    JSONByteLiteral(ByteBuffer source, int start, int end){
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length(){
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index){
+        if(index < 0 || index >= end - start){
+            throw new IndexOutOfBoundsException(index);
+        }
+        return (char) (source.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to){
+        if(from < 0 || to > end - start || from > to){
+            throw new IndexOutOfBoundsException();
+        }
+        return new JSONByteLiteral(source, start + from, start + to);
+    }
+
+    /**
+     * Copies the literal to a String.
+     * @return The literal.
+     */
+    @Override
+    public String toString(){
+        byte[] bytes = new byte[end - start];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
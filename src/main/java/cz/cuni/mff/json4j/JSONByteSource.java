@@ -0,0 +1,134 @@
+package cz.cuni.mff.json4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The UTF-8 bytes of a source held in memory, addressed by long positions.
+ * A ByteBuffer (or a file of less than 2 GB, mapped whole) is a single window,
+ * whose positions are the absolute indexes of the buffer. A larger file is
+ * mapped as windows starting every WINDOW_SIZE bytes, each of them mapping
+ * as far as a ByteBuffer can reach (up to twice the WINDOW_SIZE), so the
+ * windows overlap: any run of at most WINDOW_SIZE bytes lies whole in the
+ * window its first byte falls to. The JSONByteLexer thus reads every token
+ * from a single window, and the tokens refer to a plain ByteBuffer.
+ * Mapping the overlaps costs only address space, the pages are shared.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+final class JSONByteSource {
+
+    // The distance between the starts of the windows of a large file (1 GB)
+    final static int WINDOW_SHIFT = 30;
+    final static int WINDOW_SIZE = 1 << WINDOW_SHIFT;
+
+    // The windows in the order of the source, a single one for ByteBuffers and smaller files
+    private final ByteBuffer[] windows;
+
+    // The position of the first byte and the position after the last byte of the source
+    final long start;
+    final long limit;
+
+    /**
+     * Creates the source of the windows.
+     * @param windows The windows, the i-th one starting at the position i * WINDOW_SIZE if there are more.
+     * @param start The position of the first byte.
+     * @param limit The position after the last byte.
+     */
+    private JSONByteSource(ByteBuffer[] windows, long start, long limit){
+        this.windows = windows;
+        this.start = start;
+        this.limit = limit;
+    }
+
+    /**
+     * Creates the source of the bytes between the position and the limit of the buffer.
+     * @param buffer The bytes, they are not copied. The buffer is duplicated, so that the user can move its position.
+     * @return The source of the single window.
+     */
+    static JSONByteSource of(ByteBuffer buffer){
+        return new JSONByteSource(new ByteBuffer[]{buffer.duplicate()}, buffer.position(), buffer.limit());
+    }
+
+    /**
+     * Maps the whole file to memory for reading.
+     * The channel is closed right away, the mappings stay valid without it.
+     * @param file The path of the file.
+     * @return The source of the mapped bytes of the file.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    static JSONByteSource map(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size <= Integer.MAX_VALUE){
+                return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+
+            ByteBuffer[] windows = new ByteBuffer[(int) ((size + WINDOW_SIZE - 1) >>> WINDOW_SHIFT)];
+            for(int w = 0; w < windows.length; w++){
+                long base = (long) w << WINDOW_SHIFT;
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, Integer.MAX_VALUE));
+            }
+            return new JSONByteSource(windows, 0, size);
+        }
+    }
+
+    /**
+     * Get the number of the windows.
+     * @return The number of the windows, 1 unless the source is a file of 2 GB or more.
+     */
+    int windowCount(){
+        return windows.length;
+    }
+
+    /**
+     * Finds the window holding the position and the WINDOW_SIZE bytes after it.
+     * @param position A position between start and limit (inclusive).
+     * @return The number of the window.
+     */
+    int windowOf(long position){
+        return windows.length == 1 ? 0 : Math.min((int) (position >>> WINDOW_SHIFT), windows.length - 1);
+    }
+
+    /**
+     * Get the window.
+     * @param window The number of the window.
+     * @return The bytes of the window, indexed by the positions less its base.
+     */
+    ByteBuffer window(int window){
+        return windows[window];
+    }
+
+    /**
+     * Get the position of the first byte of the window.
+     * @param window The number of the window.
+     * @return The position corresponding to the index 0 of the window.
+     */
+    long baseOf(int window){
+        return (long) window << WINDOW_SHIFT;
+    }
+
+    /**
+     * Get the byte at the position.
+     * @param position The position of the byte, between start and limit.
+     * @return The byte.
+     */
+    byte get(long position){
+        int window = this.windowOf(position);
+        return windows[window].get((int) (position - this.baseOf(window)));
+    }
+
+    /**
+     * Copies the bytes starting at the position.
+     * @param position The position of the first byte.
+     * @param target The array the bytes are copied to.
+     * @param offset The index of the target the first byte is copied to.
+     * @param length The number of the bytes, at most WINDOW_SIZE, not reaching behind the limit.
+     */
+    void get(long position, byte[] target, int offset, int length){
+        int window = this.windowOf(position);
+        windows[window].get((int) (position - this.baseOf(window)), target, offset, length);
+    }
+}
@@ -0,0 +1,130 @@
+package cz.cuni.mff.json4j;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A String of a UTF-8 encoded JSON source which was not decoded yet.
+ * Refers to the bytes between the quotes in the source, which the JSONByteLexer
+ * has already validated (escape sequences and UTF-8 sequences), so the decoding
+ * cannot fail. The Java String is created only when toString() is called
+ * and it is then kept for subsequent calls.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+final class JSONByteString {
+
+    // The source and the range of the String in it (without the quotes)
+    private final ByteBuffer source;
+    private final int start;
+    private final int end;
+
+    // Whether the String contains any escape sequence
+    private final boolean escaped;
+
+    // The decoded String, null until requested
+    private String decoded;
+
+    /**
+     * Creates a reference to a validated String of the source.
+     * @param source The UTF-8 encoded source.
+     * @param start Index of the first byte after the opening quote.
+     * @param end Index of the closing quote.
+     * @param escaped Whether there is any escape sequence in the range.
+     */
+    JSONByteString(ByteBuffer source, int start, int end, boolean escaped){
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.escaped = escaped;
+    }
+
+    /**
+     * Decodes the String (only upon the first call).
+     * @return The value of the String.
+     */
+    @Override
+    public String toString(){
+        if(decoded == null){
+            decoded = escaped ? this.decodeEscaped() : this.decodePlain();
+        }
+        return decoded;
+    }
+
+    /**
+     * Decodes a String without escape sequences.
+     * The bytes are left to the JDK decoder, which handles ASCII in bulk.
+     * @return The value of the String.
+     */
+    private String decodePlain(){
+        if(source.hasArray()){
+            return new String(source.array(), source.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a String with escape sequences.
+     * Every byte produces at most one char, so the length of the range
+     * is enough for the result.
+     * @return The value of the String.
+     */
+    private String decodeEscaped(){
+        char[] chars = new char[end - start];
+        int length = 0;
+        int i = start;
+        while(i < end){
+            int b = source.get(i);
+
+            // Escape sequence
+            if(b == JSONLexer.ESCAPE_CHAR){
+                char escape = (char) source.get(i + 1);
+                if(escape == 'u'){
+                    int code = 0;
+                    for(int d = i + 2; d < i + 6; d++){
+                        code = code * 16 + JSONLexer.hexDigit(source.get(d));
+                    }
+                    chars[length++] = (char) code;
+                    i += 6;
+                }
+                else {
+                    chars[length++] = switch(escape) {
+                        case 'b' -> '\b';
+                        case 'f' -> '\f';
+                        case 'n' -> '\n';
+                        case 'r' -> '\r';
+                        case 't' -> '\t';
+                        // '"', '\\' and '/' stand for themselves
+                        default -> escape;
+                    };
+                    i += 2;
+                }
+            }
+            // ASCII character
+            else if(b >= 0){
+                chars[length++] = (char) b;
+                i++;
+            }
+            // Multi-byte UTF-8 sequence
+            else {
+                int code_point;
+                if((b & 0xE0) == 0xC0){
+                    code_point = (b & 0x1F) << 6 | source.get(i + 1) & 0x3F;
+                    i += 2;
+                }
+                else if((b & 0xF0) == 0xE0){
+                    code_point = (b & 0x0F) << 12 | (source.get(i + 1) & 0x3F) << 6 | source.get(i + 2) & 0x3F;
+                    i += 3;
+                }
+                else {
+                    code_point = (b & 0x07) << 18 | (source.get(i + 1) & 0x3F) << 12
+                            | (source.get(i + 2) & 0x3F) << 6 | source.get(i + 3) & 0x3F;
+                    i += 4;
+                }
+                length += Character.toChars(code_point, chars, length);
+            }
+        }
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,582 @@
+package cz.cuni.mff.json4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A class for decoding JSONValues from CBOR (RFC 8949), as written by the JSONCBORWriter.
+ * The source holds one data item or a sequence of them (RFC 8742), which are
+ * read one by one by read(). Strings are decoded from their UTF-8 bytes in one
+ * step, numbers are read in their binary form, and the Arrays and Objects are
+ * created with their final size, so the decoding does much less work than
+ * parsing the same document from JSON text.
+ * Besides the items produced by the JSONCBORWriter (including the string
+ * references, tags 256 and 25), items of indefinite length, half-precision
+ * floats and bignums (tags 2 and 3) are read. Other tags are ignored and their
+ * content is read as is. Items with no JSON counterpart (byte strings, keys
+ * other than text strings, simple values other than false, true and null)
+ * are reported as malformed, 'undefined' is read as null. Text strings which
+ * are not well-formed UTF-8 are reported as well, as by the JSONParser.
+ * In-memory sources (byte[], ByteBuffer) are decoded directly, an InputStream
+ * (and a ByteBuffer without an accessible array) is read through a buffer,
+ * which grows to the longest string of the source. The bytes of an in-memory
+ * source must not be modified while they are being read.
+ * Failures of the InputStream are rethrown as UncheckedIOException.
+ * An instance must not be used by more threads at once.
+ */
+public class JSONCBORReader {
+
+    // The initial size of the buffer of the streamed sources
+    private final static int BUFFER_SIZE = 8192;
+
+    // The byte ending an item of indefinite length
+    private final static int BREAK = 0xFF;
+
+    // The bytes being decoded, valid from position up to limit
+        // The array of an in-memory source itself, or the buffer of a streamed one
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    // The source the buffer is refilled from, both null for the in-memory sources
+    private final InputStream stream;
+    private final ByteBuffer source_buffer;
+
+    // The strings of the current stringref namespace in the order of their indexes, null outside namespaces
+    private ArrayList<String> string_table;
+
+    // The decoder of the non-ASCII text strings, rejecting malformed UTF-8 instead of replacing it
+    private final CharsetDecoder utf8_decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    // The tree of shapes shared by the decoded Objects
+    private JSONShape shapes = JSONShape.newRoot();
+
+    // The keys and values of the Objects being decoded (the nested ones on top of the outer ones)
+    private String[] pending_keys = new String[16];
+    private JSONValue[] pending_values = new JSONValue[16];
+    private int pending_size = 0;
+
+    /**
+     * Creates a JSONCBORReader decoding the bytes of the array.
+     * @param source_bytes The CBOR bytes.
+     */
+    public JSONCBORReader(byte[] source_bytes){
+        this.buffer = source_bytes;
+        this.position = 0;
+        this.limit = source_bytes.length;
+        this.stream = null;
+        this.source_buffer = null;
+    }
+
+    /**
+     * Creates a JSONCBORReader decoding the bytes between the position and the limit of the ByteBuffer.
+     * A heap buffer is decoded directly, a direct (or mapped) buffer is copied out
+     * piece by piece. The position of the ByteBuffer is not changed.
+     * @param source_buffer The CBOR bytes.
+     */
+    public JSONCBORReader(ByteBuffer source_buffer){
+        this.stream = null;
+        if(source_buffer.hasArray()){
+            this.buffer = source_buffer.array();
+            this.position = source_buffer.arrayOffset() + source_buffer.position();
+            this.limit = source_buffer.arrayOffset() + source_buffer.limit();
+            this.source_buffer = null;
+        }
+        else {
+            this.buffer = new byte[BUFFER_SIZE];
+            this.position = 0;
+            this.limit = 0;
+            this.source_buffer = source_buffer.slice();
+        }
+    }
+
+    /**
+     * Creates a JSONCBORReader decoding the bytes of the InputStream.
+     * The stream is read through a buffer, it is not closed by the reader.
+     * @param source_stream The stream of the CBOR bytes.
+     */
+    public JSONCBORReader(InputStream source_stream){
+        this.buffer = new byte[BUFFER_SIZE];
+        this.position = 0;
+        this.limit = 0;
+        this.stream = source_stream;
+        this.source_buffer = null;
+    }
+
+    /**
+     * Checks if there is another item to be read.
+     * @return Whether the source continues.
+     * @throws UncheckedIOException If the InputStream fails.
+     */
+    public boolean hasNext(){
+        return position < limit || this.refill();
+    }
+
+    /**
+     * Decodes the next item of the source.
+     * @return The decoded value.
+     * @throws JSONMalformedSourceException If the source ends or the item is not well-formed
+     * CBOR, or it cannot be represented in JSON.
+     * @throws UncheckedIOException If the InputStream fails.
+     */
+    public JSONValue read() throws JSONMalformedSourceException {
+
+        // Forget the pairs left by a failed decoding and the shapes once there is no room for more
+        Arrays.fill(pending_keys, 0, pending_size, null);
+        Arrays.fill(pending_values, 0, pending_size, null);
+        pending_size = 0;
+        if(shapes.isTreeFull()){
+            shapes = JSONShape.newRoot();
+        }
+        string_table = null;
+
+        return this.readValue(this.nextByte());
+    }
+
+    /**
+     * Decodes the item starting by the initial byte.
+     * @param initial The initial byte of the item, already consumed.
+     * @return The decoded value.
+     * @throws JSONMalformedSourceException If the item is not well-formed or cannot be represented in JSON.
+     */
+    private JSONValue readValue(int initial) throws JSONMalformedSourceException {
+        int info = initial & 0x1F;
+        switch(initial & 0xE0){
+            case JSONCBORWriter.UNSIGNED -> {
+                long number = this.readArgument(info);
+                // Above Long.MAX_VALUE, the number is kept exact as its literal
+                return number >= 0 ? new JSONValue(number) : new JSONValue(new BigDecimal(Long.toUnsignedString(number)));
+            }
+            case JSONCBORWriter.NEGATIVE -> {
+                long number = this.readArgument(info);
+                return number >= 0 ? new JSONValue(-1 - number)
+                        : new JSONValue(new BigDecimal(Long.toUnsignedString(number)).negate().subtract(BigDecimal.ONE));
+            }
+            case JSONCBORWriter.TEXT -> {
+                return new JSONValue(this.readText(info));
+            }
+            case JSONCBORWriter.ARRAY -> {
+                return new JSONValue(this.readArray(info));
+            }
+            case JSONCBORWriter.MAP -> {
+                return new JSONValue(this.readObject(info));
+            }
+            case JSONCBORWriter.TAG -> {
+                return this.readTagged(this.readArgument(info));
+            }
+            case JSONCBORWriter.SIMPLE -> {
+                return this.readSimple(info);
+            }
+            default -> throw new JSONMalformedSourceException("Byte strings cannot be represented in JSON");
+        }
+    }
+
+    /**
+     * Decodes the Array, keeping its numbers unwrapped as the JSONParser does.
+     * @param info The additional information of the initial byte.
+     * @return The decoded Array.
+     * @throws JSONMalformedSourceException If the Array or its values are malformed.
+     */
+    private JSONArray readArray(int info) throws JSONMalformedSourceException {
+        if(info == 31){
+            JSONArray array = new JSONArray();
+            int initial;
+            while((initial = this.nextByte()) != BREAK){
+                this.addValue(array, initial);
+            }
+            return array;
+        }
+
+        int size = this.readLength(info);
+        // Every value takes at least a byte, so a corrupt size cannot allocate much more than the source
+        JSONArray array = new JSONArray(source_buffer == null && stream == null ? Math.min(size, limit - position) : Math.min(size, BUFFER_SIZE));
+        for(int i = 0; i < size; i++){
+            this.addValue(array, this.nextByte());
+        }
+        return array;
+    }
+
+    /**
+     * Decodes the value and adds it to the Array.
+     * Integers fitting to long and floats are added unwrapped, so that all-number Arrays stay numeric.
+     * @param array The Array the value is added to.
+     * @param initial The initial byte of the value, already consumed.
+     * @throws JSONMalformedSourceException If the value is malformed.
+     */
+    private void addValue(JSONArray array, int initial) throws JSONMalformedSourceException {
+        int major = initial & 0xE0;
+        int info = initial & 0x1F;
+        if((major == JSONCBORWriter.UNSIGNED || major == JSONCBORWriter.NEGATIVE) && info < 28){
+            long number = this.readArgument(info);
+            if(number >= 0){
+                array.add(major == JSONCBORWriter.UNSIGNED ? number : -1 - number);
+                return;
+            }
+            // Out of the range of long, the exact number is added
+            BigDecimal exact = new BigDecimal(Long.toUnsignedString(number));
+            array.add(new JSONValue(major == JSONCBORWriter.UNSIGNED ? exact : exact.negate().subtract(BigDecimal.ONE)));
+        }
+        else if(initial >= (JSONCBORWriter.SIMPLE | 25) && initial <= JSONCBORWriter.DOUBLE){
+            array.add(this.readFloat(info));
+        }
+        else {
+            array.add(this.readValue(initial));
+        }
+    }
+
+    /**
+     * Decodes the map to an Object.
+     * The pairs are collected first and the Object is created with its shape at once.
+     * @param info The additional information of the initial byte.
+     * @return The decoded Object.
+     * @throws JSONMalformedSourceException If the map is malformed or has keys other than text strings.
+     */
+    private JSONObject readObject(int info) throws JSONMalformedSourceException {
+        int base = pending_size;
+        if(info == 31){
+            int initial;
+            while((initial = this.nextByte()) != BREAK){
+                this.addPair(initial);
+            }
+        }
+        else {
+            int size = this.readLength(info);
+            for(int i = 0; i < size; i++){
+                this.addPair(this.nextByte());
+            }
+        }
+
+        JSONObject object = JSONObject.fromPairs(shapes, pending_keys, pending_values, base, pending_size);
+
+        // Drop the references, so that the values can be collected with their tree
+        Arrays.fill(pending_keys, base, pending_size, null);
+        Arrays.fill(pending_values, base, pending_size, null);
+        pending_size = base;
+        return object;
+    }
+
+    /**
+     * Decodes a key and its value and pushes them to the pending pairs.
+     * @param initial The initial byte of the key, already consumed.
+     * @throws JSONMalformedSourceException If the key is not a text string or the pair is malformed.
+     */
+    private void addPair(int initial) throws JSONMalformedSourceException {
+        String key;
+        if((initial & 0xE0) == JSONCBORWriter.TEXT){
+            key = this.readText(initial & 0x1F);
+        }
+        else if((initial & 0xE0) == JSONCBORWriter.TAG && this.readArgument(initial & 0x1F) == JSONCBORWriter.TAG_STRING_REFERENCE){
+            key = this.readReference();
+        }
+        else {
+            throw new JSONMalformedSourceException("Keys of JSON Objects must be text strings, found initial byte " + initial);
+        }
+        JSONValue value = this.readValue(this.nextByte());
+
+        if(pending_size == pending_keys.length){
+            pending_keys = Arrays.copyOf(pending_keys, pending_size * 2);
+            pending_values = Arrays.copyOf(pending_values, pending_size * 2);
+        }
+        pending_keys[pending_size] = key;
+        pending_values[pending_size] = value;
+        pending_size++;
+    }
+
+    /**
+     * Decodes the text string and adds it to the stringref namespace if it is long enough.
+     * @param info The additional information of the initial byte.
+     * @return The decoded String.
+     * @throws JSONMalformedSourceException If the string is malformed.
+     */
+    private String readText(int info) throws JSONMalformedSourceException {
+        if(info == 31){
+            // The chunks of an indefinite string are definite strings, they are never referenced
+            StringBuilder text = new StringBuilder();
+            int initial;
+            while((initial = this.nextByte()) != BREAK){
+                if((initial & 0xE0) != JSONCBORWriter.TEXT || (initial & 0x1F) == 31){
+                    throw new JSONMalformedSourceException("Chunks of a text string must be definite text strings");
+                }
+                int length = this.readLength(initial & 0x1F);
+                this.ensure(length);
+                text.append(this.decodeText(length));
+                position += length;
+            }
+            return text.toString();
+        }
+
+        int length = this.readLength(info);
+        this.ensure(length);
+        String text = this.decodeText(length);
+        position += length;
+        if(string_table != null && length >= JSONCBORWriter.minReferencedLength(string_table.size())){
+            string_table.add(text);
+        }
+        return text;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes at the position, which the buffer already holds.
+     * The String constructor replaces malformed bytes by U+FFFD, so only the
+     * Strings containing it (rarely present in the source itself) are decoded
+     * again by the decoder, which reports the malformed bytes.
+     * The position is not moved.
+     * @param length The number of the bytes.
+     * @return The decoded String.
+     * @throws JSONMalformedSourceException If the bytes are not well-formed UTF-8.
+     */
+    private String decodeText(int length) throws JSONMalformedSourceException {
+        String text = new String(buffer, position, length, StandardCharsets.UTF_8);
+        if(text.indexOf('\uFFFD') < 0){
+            return text;
+        }
+        try {
+            return utf8_decoder.decode(ByteBuffer.wrap(buffer, position, length)).toString();
+        }
+        catch (CharacterCodingException e){
+            throw new JSONMalformedSourceException("Malformed UTF-8 in a text string");
+        }
+    }
+
+    /**
+     * Decodes the stringref whose tag was just read.
+     * @return The referenced String.
+     * @throws JSONMalformedSourceException If the reference is outside a namespace or out of its range.
+     */
+    private String readReference() throws JSONMalformedSourceException {
+        int initial = this.nextByte();
+        if((initial & 0xE0) != JSONCBORWriter.UNSIGNED){
+            throw new JSONMalformedSourceException("A string reference must be an unsigned integer");
+        }
+        long index = this.readArgument(initial & 0x1F);
+        if(string_table == null || index < 0 || index >= string_table.size()){
+            throw new JSONMalformedSourceException("String reference " + Long.toUnsignedString(index) + " is not defined");
+        }
+        return string_table.get((int) index);
+    }
+
+    /**
+     * Decodes the item following the tag.
+     * Bignums and decimal fractions are decoded to exact numbers, string references
+     * to their strings, unknown tags are ignored.
+     * @param tag The number of the tag.
+     * @return The decoded value.
+     * @throws JSONMalformedSourceException If the tagged item is malformed.
+     */
+    private JSONValue readTagged(long tag) throws JSONMalformedSourceException {
+        if(tag == JSONCBORWriter.TAG_STRING_REFERENCE){
+            return new JSONValue(this.readReference());
+        }
+        if(tag == JSONCBORWriter.TAG_STRING_NAMESPACE){
+            // The namespace is valid only inside the item, the outer one is restored afterwards
+            ArrayList<String> outer = string_table;
+            string_table = new ArrayList<>();
+            try {
+                return this.readValue(this.nextByte());
+            }
+            finally {
+                string_table = outer;
+            }
+        }
+        if(tag == JSONCBORWriter.TAG_POSITIVE_BIGNUM || tag == JSONCBORWriter.TAG_NEGATIVE_BIGNUM){
+            BigInteger magnitude = new BigInteger(1, this.readBytes());
+            BigInteger number = tag == JSONCBORWriter.TAG_POSITIVE_BIGNUM ? magnitude : magnitude.negate().subtract(BigInteger.ONE);
+            return new JSONValue(new BigDecimal(number));
+        }
+        if(tag == JSONCBORWriter.TAG_DECIMAL_FRACTION){
+            if(this.nextByte() != (JSONCBORWriter.ARRAY | 2)){
+                throw new JSONMalformedSourceException("A decimal fraction must be an Array of the exponent and the mantissa");
+            }
+            JSONValue exponent = this.readValue(this.nextByte());
+            JSONValue mantissa = this.readValue(this.nextByte());
+            if(!exponent.isIntegral() || exponent.getLong() != (int) exponent.getLong()
+                    || mantissa.type != JSON_TYPE.NUMBER || mantissa.getBigDecimal().scale() != 0){
+                throw new JSONMalformedSourceException("The exponent and the mantissa of a decimal fraction must be integers");
+            }
+            return new JSONValue(mantissa.getBigDecimal().scaleByPowerOfTen((int) exponent.getLong()));
+        }
+        return this.readValue(this.nextByte());
+    }
+
+    /**
+     * Decodes the byte string of a bignum.
+     * @return The bytes of the string.
+     * @throws JSONMalformedSourceException If the item is not a byte string.
+     */
+    private byte[] readBytes() throws JSONMalformedSourceException {
+        int initial = this.nextByte();
+        if((initial & 0xE0) != JSONCBORWriter.BYTES){
+            throw new JSONMalformedSourceException("A bignum must be a byte string");
+        }
+        if((initial & 0x1F) != 31){
+            int length = this.readLength(initial & 0x1F);
+            this.ensure(length);
+            byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        byte[] bytes = new byte[0];
+        while((initial = this.nextByte()) != BREAK){
+            if((initial & 0xE0) != JSONCBORWriter.BYTES || (initial & 0x1F) == 31){
+                throw new JSONMalformedSourceException("Chunks of a byte string must be definite byte strings");
+            }
+            int length = this.readLength(initial & 0x1F);
+            this.ensure(length);
+            bytes = Arrays.copyOf(bytes, bytes.length + length);
+            System.arraycopy(buffer, position, bytes, bytes.length - length, length);
+            position += length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes the simple value or the float.
+     * @param info The additional information of the initial byte.
+     * @return The decoded value.
+     * @throws JSONMalformedSourceException If the simple value has no JSON counterpart.
+     */
+    private JSONValue readSimple(int info) throws JSONMalformedSourceException {
+        return switch(info) {
+            case 20 -> new JSONValue(false);
+            case 21 -> new JSONValue(true);
+            // 'undefined' is the closest to null
+            case 22, 23 -> new JSONValue();
+            case 25, 26, 27 -> new JSONValue(this.readFloat(info));
+            case 31 -> throw new JSONMalformedSourceException("Unexpected break outside of an item of indefinite length");
+            default -> throw new JSONMalformedSourceException(
+                    "Simple value " + (info == 24 ? this.nextByte() : info) + " cannot be represented in JSON"
+            );
+        };
+    }
+
+    /**
+     * Decodes the half-precision, single-precision or double-precision float.
+     * @param info The additional information of the initial byte (25, 26 or 27).
+     * @return The value of the float.
+     * @throws JSONMalformedSourceException If the source ends.
+     */
+    private double readFloat(int info) throws JSONMalformedSourceException {
+        long bits = this.readArgument(info);
+        if(info == 27) return Double.longBitsToDouble(bits);
+        if(info == 26) return Float.intBitsToFloat((int) bits);
+
+        int exponent = (int) (bits >> 10) & 0x1F;
+        int mantissa = (int) bits & 0x3FF;
+        double magnitude = exponent == 0 ? Math.scalb((double) mantissa, -24)
+                : exponent != 31 ? Math.scalb((double) (mantissa | 0x400), exponent - 25)
+                : mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        return (bits & 0x8000) != 0 ? -magnitude : magnitude;
+    }
+
+    /**
+     * Decodes the length of a string, Array or map.
+     * @param info The additional information of the initial byte.
+     * @return The length.
+     * @throws JSONMalformedSourceException If the length is malformed or larger than an array can hold.
+     */
+    private int readLength(int info) throws JSONMalformedSourceException {
+        long length = this.readArgument(info);
+        if(length < 0 || length > Integer.MAX_VALUE - 8){
+            throw new JSONMalformedSourceException("Length " + Long.toUnsignedString(length) + " is too large");
+        }
+        return (int) length;
+    }
+
+    /**
+     * Decodes the argument following the initial byte.
+     * @param info The additional information of the initial byte.
+     * @return The unsigned argument (negative above Long.MAX_VALUE).
+     * @throws JSONMalformedSourceException If the information is reserved or indefinite, or the source ends.
+     */
+    private long readArgument(int info) throws JSONMalformedSourceException {
+        if(info < 24){
+            return info;
+        }
+        if(info > 27){
+            throw new JSONMalformedSourceException("Unexpected additional information " + info);
+        }
+        int count = 1 << (info - 24);
+        this.ensure(count);
+        long argument = 0;
+        for(int i = 0; i < count; i++){
+            argument = argument << 8 | buffer[position++] & 0xFF;
+        }
+        return argument;
+    }
+
+    /**
+     * Consumes the next byte.
+     * @return The byte as an unsigned value.
+     * @throws JSONMalformedSourceException If the source ends.
+     */
+    private int nextByte() throws JSONMalformedSourceException {
+        if(position == limit){
+            this.ensure(1);
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Makes sure that the buffer holds the bytes.
+     * @param count The number of the bytes needed after the position.
+     * @throws JSONMalformedSourceException If the source ends before.
+     */
+    private void ensure(int count) throws JSONMalformedSourceException {
+        while(limit - position < count){
+            if(stream == null && source_buffer == null){
+                throw new JSONMalformedSourceException("Unexpected end of the CBOR source");
+            }
+            if(position == 0 && limit == buffer.length){
+                // The item is longer than the full buffer, which grows to hold it whole
+                    // Step by step, so that a corrupt length does not allocate more than the source has
+                buffer = Arrays.copyOf(buffer, (int) Math.min(count, 2L * buffer.length));
+            }
+            if(!this.refill()){
+                throw new JSONMalformedSourceException("Unexpected end of the CBOR source");
+            }
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more after them.
+     * @return Whether any bytes were read, false for in-memory sources and at the end of the source.
+     * @throws UncheckedIOException If the InputStream fails.
+     */
+    private boolean refill(){
+        if(stream == null && source_buffer == null){
+            return false;
+        }
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+
+        if(source_buffer != null){
+            int count = Math.min(source_buffer.remaining(), buffer.length - limit);
+            source_buffer.get(buffer, limit, count);
+            limit += count;
+            return count > 0;
+        }
+        try {
+            int count = stream.read(buffer, limit, buffer.length - limit);
+            if(count <= 0) return false;
+            limit += count;
+            return true;
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
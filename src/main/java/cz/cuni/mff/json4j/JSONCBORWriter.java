@@ -0,0 +1,471 @@
+package cz.cuni.mff.json4j;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * A class for encoding JSONValues to CBOR (RFC 8949), a binary format of the
+ * same data model as JSON. Strings are written with their length and numbers
+ * in their binary form, so neither needs to be escaped, formatted or parsed.
+ * The integers take 1 to 9 bytes by their magnitude, the doubles 9 bytes, or
+ * 5 if they are exactly representable as floats. Numbers kept as literals
+ * are written exactly, non-integers as decimal fractions (tag 4).
+ * Every Array and Object is written with the number of its values, so the
+ * output is the same as the preferred serialization of the RFC.
+ * With setStringReferences(true), every document is written in a stringref
+ * namespace (tags 256 and 25, see http://cbor.schmorp.de/stringref), and every
+ * repeated string (typically the keys of the records of an Array) is replaced
+ * by the index of its first occurrence. The JSONCBORReader reads both forms.
+ * The tree is walked once and written through a fixed-size buffer to an
+ * OutputStream or a ByteBuffer. The sink is not closed by the JSONCBORWriter.
+ */
+public class JSONCBORWriter implements Flushable {
+
+    // Number of bytes collected before they are passed to the sink
+    private final static int BUFFER_SIZE = 8192;
+
+    // The major types of the CBOR data items, shifted to the initial byte
+    final static int UNSIGNED = 0;
+    final static int NEGATIVE = 1 << 5;
+    final static int BYTES = 2 << 5;
+    final static int TEXT = 3 << 5;
+    final static int ARRAY = 4 << 5;
+    final static int MAP = 5 << 5;
+    final static int TAG = 6 << 5;
+    final static int SIMPLE = 7 << 5;
+
+    // The initial bytes of the simple values and floats
+    final static int FALSE = SIMPLE | 20;
+    final static int TRUE = SIMPLE | 21;
+    final static int NULL = SIMPLE | 22;
+    final static int FLOAT = SIMPLE | 26;
+    final static int DOUBLE = SIMPLE | 27;
+
+    // The tags of the numbers and the string references
+    final static int TAG_POSITIVE_BIGNUM = 2;
+    final static int TAG_NEGATIVE_BIGNUM = 3;
+    final static int TAG_DECIMAL_FRACTION = 4;
+    final static int TAG_STRING_REFERENCE = 25;
+    final static int TAG_STRING_NAMESPACE = 256;
+
+    // Exactly one of the sinks is set
+    private final OutputStream stream;
+    private final ByteBuffer target;
+
+    // The bytes waiting to be passed to the sink, valid up to buffer_length
+    private final byte[] buffer;
+    private int buffer_length;
+
+    // Whether the repeated strings are written as references
+    private boolean string_references;
+
+    // The indexes of the strings of the current namespace, null without string references
+    private HashMap<String, Integer> string_table;
+
+    /**
+     * Creates a JSONCBORWriter writing the CBOR to the OutputStream.
+     * @param stream The OutputStream to write to.
+     */
+    public JSONCBORWriter(OutputStream stream){
+        this(stream, null);
+    }
+
+    /**
+     * Creates a JSONCBORWriter writing the CBOR to the ByteBuffer.
+     * The bytes are put at the position of the buffer, which is advanced
+     * accordingly. The buffer can be cleared and reused between writes.
+     * @param target The ByteBuffer to write to.
+     */
+    public JSONCBORWriter(ByteBuffer target){
+        this(null, target);
+    }
+
+    /**
+     * Creates a JSONCBORWriter with the provided sink.
+     * Used by the public constructors, which set exactly one of the sinks.
+     * @param stream The OutputStream sink or null.
+     * @param target The ByteBuffer sink or null.
+     */
+    private JSONCBORWriter(OutputStream stream, ByteBuffer target){
+        this.stream = stream;
+        this.target = target;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.buffer_length = 0;
+        this.string_references = false;
+    }
+
+    /**
+     * Switches between writing every string whole (the default) and replacing
+     * the repeated strings by references to their first occurrence.
+     * The references save space (and the decoding of the strings) for documents
+     * repeating their keys or values, but not all CBOR decoders support them.
+     * @param string_references Whether the following writes should use string references.
+     */
+    public void setStringReferences(boolean string_references){
+        this.string_references = string_references;
+    }
+
+    /**
+     * Encodes the value and passes it whole to the sink.
+     * Values written one after another form a CBOR sequence (RFC 8742),
+     * which the JSONCBORReader reads value by value.
+     * @param value The value to be written.
+     * @throws IOException If the sink fails.
+     * @throws java.nio.BufferOverflowException If the target ByteBuffer is full.
+     */
+    public void write(JSONValue value) throws IOException {
+        if(string_references){
+            // Every value is a namespace of its own, so it can be read without the previous ones
+            this.writeHead(TAG, TAG_STRING_NAMESPACE);
+            string_table = new HashMap<>();
+        }
+        try {
+            this.writeValue(value);
+        }
+        finally {
+            string_table = null;
+        }
+        this.flushBuffer();
+    }
+
+    /**
+     * Passes all buffered bytes to the sink and flushes the sink.
+     * @throws IOException If the sink fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.flushBuffer();
+        if(stream != null) stream.flush();
+    }
+
+    /**
+     * Writes the value according to its type.
+     * @param value The value to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeValue(JSONValue value) throws IOException {
+        switch(value.type) {
+            case STRING ->  this.writeString(value.getString());
+            case NUMBER ->  this.writeNumber(value);
+            case BOOLEAN -> this.writeByte(value.getBoolean() ? TRUE : FALSE);
+            case NULL ->    this.writeByte(NULL);
+            case ARRAY ->   this.writeArray(value.getArray().stable());
+            case OBJECT ->  this.writeObject(value.getObject().stable());
+        }
+    }
+
+    /**
+     * Writes the Array with the number of its values.
+     * The numbers of a numeric Array are read without wrapping them.
+     * @param array The Array to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeArray(JSONArray array) throws IOException {
+        int size = array.size();
+        this.writeHead(ARRAY, size);
+        if(array.isNumeric()){
+            boolean integral = array.isIntegral();
+            for(int i = 0; i < size; i++){
+                if(integral) this.writeLong(array.getLong(i));
+                else this.writeDouble(array.getDouble(i));
+            }
+            return;
+        }
+        for(JSONValue value: array){
+            this.writeValue(value);
+        }
+    }
+
+    /**
+     * Writes the Object as a map with the number of its pairs, in the order of its keys.
+     * @param object The Object to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeObject(JSONObject object) throws IOException {
+        int size = object.size();
+        this.writeHead(MAP, size);
+        for(int slot = 0; slot < size; slot++){
+            this.writeString(object.keyAt(slot));
+            this.writeValue(object.valueAt(slot));
+        }
+    }
+
+    /**
+     * Writes the number in its binary form.
+     * Numbers kept as literals are written exactly: integers fitting to long
+     * as integers, the others as decimal fractions. A negative zero literal
+     * is written as the double -0.0, since a decimal fraction has no sign of zero.
+     * @param value The number to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeNumber(JSONValue value) throws IOException {
+        if(value.isIntegral()){
+            this.writeLong(value.getLong());
+        }
+        else if(value.getLiteral() == null){
+            this.writeDouble(value.getDouble());
+        }
+        else {
+            BigDecimal number = value.getBigDecimal();
+            if(number.signum() == 0 && value.getLiteral().charAt(0) == '-'){
+                this.writeDouble(-0.0);
+            }
+            else {
+                this.writeDecimal(number);
+            }
+        }
+    }
+
+    /**
+     * Writes the integer in the shortest form.
+     * @param number The integer to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeLong(long number) throws IOException {
+        if(number >= 0) this.writeHead(UNSIGNED, number);
+        else this.writeHead(NEGATIVE, -1 - number);
+    }
+
+    /**
+     * Writes the double, as a float if it can be represented exactly.
+     * @param number The double to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeDouble(double number) throws IOException {
+        float single = (float) number;
+        if(single == number || Double.isNaN(number)){
+            this.ensure(5);
+            buffer[buffer_length++] = (byte) FLOAT;
+            this.putBits(Float.floatToRawIntBits(single), 4);
+        }
+        else {
+            this.ensure(9);
+            buffer[buffer_length++] = (byte) DOUBLE;
+            this.putBits(Double.doubleToRawLongBits(number), 8);
+        }
+    }
+
+    /**
+     * Writes the exact number as a decimal fraction: the tag 4 and the Array
+     * of the exponent and the mantissa, which is a bignum if it does not fit to long.
+     * @param number The number to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeDecimal(BigDecimal number) throws IOException {
+        this.writeHead(TAG, TAG_DECIMAL_FRACTION);
+        this.writeHead(ARRAY, 2);
+        this.writeLong(-(long) number.scale());
+        BigInteger mantissa = number.unscaledValue();
+        if(mantissa.bitLength() < Long.SIZE){
+            this.writeLong(mantissa.longValueExact());
+            return;
+        }
+
+        // The bignums hold the magnitude (of -1 - n for the negative ones) as big-endian bytes
+        boolean negative = mantissa.signum() < 0;
+        byte[] magnitude = (negative ? mantissa.negate().subtract(BigInteger.ONE) : mantissa).toByteArray();
+        int from = magnitude[0] == 0 ? 1 : 0;
+        this.writeHead(TAG, negative ? TAG_NEGATIVE_BIGNUM : TAG_POSITIVE_BIGNUM);
+        this.writeHead(BYTES, magnitude.length - from);
+        this.writeBytes(magnitude, from, magnitude.length - from);
+    }
+
+    /**
+     * Writes the String as UTF-8 bytes preceded by their number, or as a
+     * reference if it was written before in the current namespace.
+     * @param string The String to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeString(String string) throws IOException {
+        int length = utf8Length(string);
+        if(string_table != null){
+            Integer reference = string_table.get(string);
+            if(reference != null){
+                this.writeHead(TAG, TAG_STRING_REFERENCE);
+                this.writeHead(UNSIGNED, reference);
+                return;
+            }
+            // Only the strings longer than their reference are given an index, as the readers expect
+            if(length >= minReferencedLength(string_table.size())){
+                string_table.put(string, string_table.size());
+            }
+        }
+
+        this.writeHead(TEXT, length);
+        if(length == string.length()){
+            // ASCII only, the chars are the bytes
+            for(int i = 0; i < length; ){
+                this.ensure(1);
+                int end = Math.min(length, i + buffer.length - buffer_length);
+                for(; i < end; i++){
+                    buffer[buffer_length++] = (byte) string.charAt(i);
+                }
+            }
+            return;
+        }
+        for(int i = 0; i < string.length(); i++){
+            this.ensure(4);
+            char c = string.charAt(i);
+            if(c < 0x80){
+                buffer[buffer_length++] = (byte) c;
+            }
+            else if(c < 0x800){
+                buffer[buffer_length++] = (byte) (0xC0 | c >> 6);
+                buffer[buffer_length++] = (byte) (0x80 | c & 0x3F);
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))){
+                int code_point = Character.toCodePoint(c, string.charAt(++i));
+                buffer[buffer_length++] = (byte) (0xF0 | code_point >> 18);
+                buffer[buffer_length++] = (byte) (0x80 | code_point >> 12 & 0x3F);
+                buffer[buffer_length++] = (byte) (0x80 | code_point >> 6 & 0x3F);
+                buffer[buffer_length++] = (byte) (0x80 | code_point & 0x3F);
+            }
+            else {
+                // Unpaired surrogates are replaced by '?', as by String.getBytes()
+                if(Character.isSurrogate(c)) c = '?';
+                buffer[buffer_length++] = (byte) (c < 0x80 ? c : 0xE0 | c >> 12);
+                if(c >= 0x80){
+                    buffer[buffer_length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buffer[buffer_length++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the length of the String encoded as UTF-8.
+     * @param string The String.
+     * @return The number of the UTF-8 bytes.
+     */
+    private static int utf8Length(String string){
+        int length = string.length();
+        for(int i = 0; i < string.length(); i++){
+            char c = string.charAt(i);
+            if(c >= 0x800){
+                // Surrogate pairs take 4 bytes for 2 chars, unpaired surrogates 1 byte for the '?'
+                if(Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))){
+                    length += 2;
+                    i++;
+                }
+                else if(!Character.isSurrogate(c)){
+                    length += 2;
+                }
+            }
+            else if(c >= 0x80){
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Get the minimal length of a string to be given the next index of the namespace.
+     * Shorter strings would not be shortened by a reference (see the stringref specification).
+     * @param index The next index of the namespace.
+     * @return The minimal number of UTF-8 bytes of the string.
+     */
+    static int minReferencedLength(int index){
+        if(index < 24) return 3;
+        if(index < 256) return 4;
+        if(index < 65536) return 5;
+        return 7;
+    }
+
+    /**
+     * Writes the initial byte of the major type with the argument in the shortest form.
+     * @param major The major type shifted to the initial byte.
+     * @param argument The unsigned argument (the length, the number or the tag).
+     * @throws IOException If the sink fails.
+     */
+    private void writeHead(int major, long argument) throws IOException {
+        this.ensure(9);
+        if(argument >= 0 && argument < 24){
+            buffer[buffer_length++] = (byte) (major | (int) argument);
+        }
+        else if(argument >= 0 && argument < 1 << 8){
+            buffer[buffer_length++] = (byte) (major | 24);
+            buffer[buffer_length++] = (byte) argument;
+        }
+        else if(argument >= 0 && argument < 1 << 16){
+            buffer[buffer_length++] = (byte) (major | 25);
+            this.putBits(argument, 2);
+        }
+        else if(argument >= 0 && argument < 1L << 32){
+            buffer[buffer_length++] = (byte) (major | 26);
+            this.putBits(argument, 4);
+        }
+        else {
+            // Negative arguments are the unsigned ones above Long.MAX_VALUE
+            buffer[buffer_length++] = (byte) (major | 27);
+            this.putBits(argument, 8);
+        }
+    }
+
+    /**
+     * Puts the lowest bytes of the bits to the buffer, the most significant first.
+     * The buffer must have room for them.
+     * @param bits The bits to be put.
+     * @param count The number of the lowest bytes to be put.
+     */
+    private void putBits(long bits, int count){
+        for(int shift = 8 * (count - 1); shift >= 0; shift -= 8){
+            buffer[buffer_length++] = (byte) (bits >>> shift);
+        }
+    }
+
+    /**
+     * Writes a single byte.
+     * @param b The byte to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeByte(int b) throws IOException {
+        this.ensure(1);
+        buffer[buffer_length++] = (byte) b;
+    }
+
+    /**
+     * Writes the range of the bytes.
+     * @param bytes The bytes to be written.
+     * @param from Index of the first byte.
+     * @param count The number of the bytes.
+     * @throws IOException If the sink fails.
+     */
+    private void writeBytes(byte[] bytes, int from, int count) throws IOException {
+        while(count > 0){
+            this.ensure(1);
+            int chunk = Math.min(count, buffer.length - buffer_length);
+            System.arraycopy(bytes, from, buffer, buffer_length, chunk);
+            buffer_length += chunk;
+            from += chunk;
+            count -= chunk;
+        }
+    }
+
+    /**
+     * Makes room for the bytes in the buffer, passing the buffered ones to the sink if needed.
+     * @param count The number of the bytes to be put (at most 9).
+     * @throws IOException If the sink fails.
+     */
+    private void ensure(int count) throws IOException {
+        if(buffer_length + count > buffer.length){
+            this.flushBuffer();
+        }
+    }
+
+    /**
+     * Passes the buffered bytes to the sink.
+     * @throws IOException If the sink fails.
+     */
+    private void flushBuffer() throws IOException {
+        if(buffer_length == 0) return;
+        if(stream != null) stream.write(buffer, 0, buffer_length);
+        else target.put(buffer, 0, buffer_length);
+        buffer_length = 0;
+    }
+
+}
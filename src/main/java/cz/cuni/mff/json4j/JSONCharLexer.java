@@ -0,0 +1,367 @@
+package cz.cuni.mff.json4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/**
+ * A JSONLexer over the characters of a Reader or a String.
+ * The source is read through a fixed-size buffer which is refilled
+ * from the underlying Reader once all of its characters are processed.
+ * Strings are copied to the buffer directly, without any Reader.
+ * The lexer can be reset to a new source, keeping its buffers.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+class JSONCharLexer extends JSONLexer {
+
+    // Number of characters read from the source at once
+    private final static int BUFFER_SIZE = 8192;
+
+    // The source providing the characters to be tokenized
+        // Either the Reader or the String is set, the other one is null
+    private Reader json_source;
+    private String string_source;
+
+    // The number of characters of the source loaded to the buffer so far (including the buffer)
+    private int source_offset;
+
+    // The characters read from the source, valid up to buffer_length
+    private final char[] buffer;
+    private int buffer_length;
+
+    // Currently processed character of the buffer
+    private int char_index;
+    private char current_char;
+
+    // Scratch space for literals and Strings which cannot be taken from the buffer at once
+        // Reused for all tokens, the contents are always copied out of it
+    private final StringBuilder scratch;
+
+    /**
+     * Creates a JSONCharLexer without any source.
+     * One of the reset() methods has to be called before fetching tokens.
+     */
+    JSONCharLexer(){
+        this(BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a JSONCharLexer without any source, for sources of about the given length.
+     * The buffer is made smaller for short sources, but never larger than the default.
+     * @param source_length The expected number of characters of the sources.
+     */
+    JSONCharLexer(int source_length){
+        this.buffer = new char[Math.max(1, Math.min(BUFFER_SIZE, source_length))];
+        this.scratch = new StringBuilder();
+    }
+
+    /**
+     * Starts tokenizing the provided Reader from its current position.
+     * The Reader is not closed by the lexer.
+     * @param json_source The Reader providing the characters to be tokenized.
+     */
+    void reset(Reader json_source){
+        this.json_source = json_source;
+        this.string_source = null;
+        this.source_offset = 0;
+
+        // Load the first chunk of the source and initialize current_char at its beginning
+        this.fillBuffer();
+    }
+
+    /**
+     * Starts tokenizing the provided String.
+     * @param string_source The String to be tokenized.
+     */
+    void reset(String string_source){
+        this.json_source = null;
+        this.string_source = string_source;
+        this.source_offset = 0;
+
+        // Load the first chunk of the source and initialize current_char at its beginning
+        this.fillBuffer();
+    }
+
+    /**
+     * Get the index of the next character to be processed.
+     * Counted from the beginning of the String (or of the part of the Reader read so far).
+     * @return The current position in the source.
+     */
+    @Override
+    long position(){
+        return source_offset - buffer_length + char_index;
+    }
+
+    /**
+     * Moves the processing to the character at the position of the String.
+     * Positions inside of the current buffer are reached without refilling it.
+     * @param position The index of the character in the String.
+     * @throws IllegalStateException If the source is read from a Reader.
+     */
+    @Override
+    void seek(long position){
+        if(string_source == null){
+            throw new IllegalStateException("Only String sources can be seeked");
+        }
+        int buffer_start = source_offset - buffer_length;
+        if(position >= buffer_start && position < source_offset){
+            this.moveTo((int) (position - buffer_start));
+        }
+        else {
+            source_offset = (int) position;
+            this.fillBuffer();
+        }
+    }
+
+    /**
+     * Replaces the contents of the buffer with the next chunk of the source
+     * and moves char_index to its beginning.
+     * At the end of the source the buffer is left empty and current_char = '\0'.
+     * @throws UncheckedIOException If the underlying Reader fails.
+     */
+    private void fillBuffer(){
+        if(string_source != null){
+            buffer_length = Math.min(buffer.length, string_source.length() - source_offset);
+            string_source.getChars(source_offset, source_offset + buffer_length, buffer, 0);
+        }
+        else {
+            try {
+                int read;
+                do {
+                    read = json_source.read(buffer, 0, buffer.length);
+                } while(read == 0);
+                buffer_length = Math.max(read, 0);
+            }
+            catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+        source_offset += buffer_length;
+
+        char_index = 0;
+        current_char = this.eof() ? '\0' : buffer[0];
+    }
+
+    /**
+     * Checks if the input was processed whole.
+     * @return whether the end of the input was encountered.
+     */
+    private boolean eof(){
+        return char_index >= buffer_length;
+    }
+
+    /**
+     * Moves to processing of the next character of the input.
+     * Increases the internal char_index variable and updates this.current_char.
+     * Refills the buffer once all of its characters are processed.
+     * In case of reaching the end of the input, sets current_char = '\0'.
+     */
+    private void incrementIndex(){
+        char_index++;
+        if(char_index >= buffer_length && buffer_length > 0){
+            this.fillBuffer();
+            return;
+        }
+        current_char = this.eof() ? '\0' : buffer[char_index];
+    }
+
+    /**
+     * Fetches next token from this.json_source.
+     * After the function call, the char_index is moved after the last char
+     * of the token.
+     * In case of multi-character tokens (numbers and non-String literals),
+     * parsing stops upon encountering a whitespace, token character or EOF.
+     * In case of String literals, the String is read by readString().
+     * In case of invalid sequence of characters, a JSONToken with
+     * token_type = INVALID_TOKEN is returned.
+     * In case of calling this function at the end of the file (or with only
+     * whitespace left), generates an EOF token.
+     *
+     * @param key Whether the token is expected to be a key of an Object.
+     * @return Next JSON token from the source String
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered inside an unfinished String.
+     * @throws JSONMalformedSourceException If a String contains an invalid escape sequence.
+     */
+    @Override
+    JSONToken nextToken(boolean key) throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException {
+
+        // Read all whitespace before token
+        while(!this.eof() && isWhitespace(current_char)){
+            this.incrementIndex();
+        }
+
+        // Handle being at the end of source
+        if(this.eof()){
+            return JSONToken.generateEOFToken();
+        }
+
+        // Next token is String
+        if(current_char == QUOTE_CHAR){
+            return this.readString(key);
+        }
+        // Next token is single-character (brackets, comma, etc...)
+        else if(isTokenChar(current_char)){
+            JSONToken token = JSONToken.generateStructuralToken(current_char);
+            this.incrementIndex();
+
+            return token;
+        }
+
+        // Next token is a literal (number/boolean/null)
+            // Validity is checked in the next step
+        this.readLiteral();
+        JSONToken keyword = JSONToken.generateKeywordToken(scratch);
+        return keyword != null ? keyword : JSONToken.generateNumberToken(scratch.toString());
+    }
+
+    /**
+     * Reads a literal (number/boolean/null) starting at the current character
+     * into the scratch space.
+     * The reading stops upon a whitespace, token character or EOF. The characters
+     * are copied from the buffer in chunks, a literal spanning more buffers is
+     * continued after the refill.
+     */
+    private void readLiteral(){
+        scratch.setLength(0);
+        while(true){
+            int start = char_index;
+            int end = start;
+            while(end < buffer_length && !isDelimiter(buffer[end])){
+                end++;
+            }
+            scratch.append(buffer, start, end - start);
+
+            boolean buffer_exhausted = end == buffer_length;
+            this.moveTo(end);
+            if(!buffer_exhausted || this.eof()){
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a String literal starting at the current QUOTE_CHAR.
+     * The reading stops upon the next unescaped QUOTE_CHAR, the char_index
+     * is then moved after it. Escape sequences (including \\uXXXX) are decoded
+     * on the way, so the token holds the final value of the String.
+     * Strings without any escape sequence that lie whole in the buffer
+     * are taken over directly, without building them char by char.
+     * Keys are looked up in this.symbols (if set) instead of creating a new String.
+     *
+     * @param key Whether the String is expected to be a key of an Object.
+     * @return The STRING_LITERAL token.
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered before the closing QUOTE_CHAR.
+     * @throws JSONMalformedSourceException If the String contains an invalid escape sequence.
+     */
+    private JSONToken readString(boolean key) throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException {
+
+        // Fast path: look for the closing quote in the buffer
+        int start = char_index + 1;
+        int end = start;
+        while(end < buffer_length && buffer[end] != QUOTE_CHAR && buffer[end] != ESCAPE_CHAR){
+            end++;
+        }
+        if(end < buffer_length && buffer[end] == QUOTE_CHAR){
+            JSONToken token = key && symbols != null
+                    ? symbols.lookup(buffer, start, end)
+                    : JSONToken.generateStringToken(new String(buffer, start, end - start));
+            this.moveTo(end + 1);
+            return token;
+        }
+
+        // Slow path: the String contains an escape or continues in the next chunk
+        StringBuilder value_sb = scratch;
+        value_sb.setLength(0);
+        value_sb.append(buffer, start, end - start);
+        this.moveTo(end);
+
+        while(true){
+            if(this.eof()){
+                throw new JSONUnfinishedStringAtEOF();
+            }
+            char c = current_char;
+            if(c == QUOTE_CHAR){
+                this.incrementIndex();
+                return key && symbols != null
+                        ? symbols.lookup(value_sb.toString())
+                        : JSONToken.generateStringToken(value_sb.toString());
+            }
+            if(c == ESCAPE_CHAR){
+                value_sb.append(this.readEscape());
+            }
+            else {
+                value_sb.append(c);
+            }
+            this.incrementIndex();
+        }
+    }
+
+    /**
+     * Decodes the escape sequence starting at the current ESCAPE_CHAR.
+     * After running, the current character is the last one of the sequence.
+     * Surrogate pairs are written as two consecutive \\uXXXX sequences,
+     * each of which is decoded to one char of the pair.
+     *
+     * @return The character represented by the escape sequence.
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered inside the sequence.
+     * @throws JSONMalformedSourceException If the escape sequence is not valid.
+     */
+    private char readEscape() throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException {
+        this.incrementIndex();
+        if(this.eof()){
+            throw new JSONUnfinishedStringAtEOF();
+        }
+
+        return switch(current_char) {
+            case '"' ->  '"';
+            case '\\' -> '\\';
+            case '/' ->  '/';
+            case 'b' ->  '\b';
+            case 'f' ->  '\f';
+            case 'n' ->  '\n';
+            case 'r' ->  '\r';
+            case 't' ->  '\t';
+            case 'u' ->  this.readUnicodeEscape();
+            default -> throw new JSONMalformedSourceException(
+                    "Invalid escape sequence in String: \\" + current_char
+            );
+        };
+    }
+
+    /**
+     * Decodes the four hexadecimal digits of a \\uXXXX escape sequence.
+     * Expects the current character to be the 'u'. After running, the current
+     * character is the last digit.
+     *
+     * @return The UTF-16 char with the code given by the digits.
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered inside the sequence.
+     * @throws JSONMalformedSourceException If any of the digits is not hexadecimal.
+     */
+    private char readUnicodeEscape() throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException {
+        int code = 0;
+        for(int i = 0; i < 4; i++){
+            this.incrementIndex();
+            if(this.eof()){
+                throw new JSONUnfinishedStringAtEOF();
+            }
+            int digit = hexDigit(current_char);
+            if(digit < 0){
+                throw new JSONMalformedSourceException(
+                        "Invalid hexadecimal digit in unicode escape sequence: " + current_char
+                );
+            }
+            code = code * 16 + digit;
+        }
+        return (char) code;
+    }
+
+    /**
+     * Moves the processing to the character at the index of the buffer.
+     * The index may point right behind the buffer, which is then refilled.
+     * @param index The index of the character to be processed next.
+     */
+    private void moveTo(int index){
+        char_index = index - 1;
+        this.incrementIndex();
+    }
+}
@@ -0,0 +1,200 @@
+package cz.cuni.mff.json4j;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * A JSON Array which can be changed and read by many threads at once.
+ * It holds its current version as a JSONPersistentArray. Reading takes the
+ * current version without any locking, and every change creates a new version
+ * by JSONPersistentArray.with() or withAdded() and installs it by a
+ * compare-and-set. Unlike a copy-on-write list, a change copies only the nodes
+ * on the path to the changed value, not the whole Array.
+ * The iterator, a serialization or a snapshot() always see a single version,
+ * never a half-done change. Changes of more values at once are done atomically
+ * by update(), whose function may be called more than once if other threads
+ * install a new version meanwhile, so it should not have side effects.
+ * The values added to the Array are converted by JSONValue.toPersistent().
+ */
+public final class JSONConcurrentArray extends JSONArray {
+
+    // The current version of the Array
+    private final AtomicReference<JSONPersistentArray> current;
+
+    /**
+     * Creates an empty concurrent JSON Array.
+     */
+    public JSONConcurrentArray(){
+        this(new JSONPersistentArray());
+    }
+
+    /**
+     * Creates a concurrent JSON Array with the values of the Array.
+     * The values are copied to a persistent Array (see JSONValue.toPersistent()),
+     * a persistent Array is used as it is.
+     * @param array The Array whose values are taken.
+     */
+    public JSONConcurrentArray(JSONArray array){
+        super(0);
+        JSONArray stable = array.stable();
+        this.current = new AtomicReference<>(
+                stable instanceof JSONPersistentArray ? (JSONPersistentArray) stable : new JSONPersistentArray(stable)
+        );
+    }
+
+    /**
+     * Get the current version of the Array.
+     * The version never changes, so it can be read, walked or serialized
+     * consistently while other threads change this Array.
+     * @return The persistent Array holding the current values.
+     */
+    public JSONPersistentArray snapshot(){
+        return current.get();
+    }
+
+    /**
+     * Get a value from the current version of the Array.
+     * @param index Index of the element to retrieve.
+     * @return The element at the requested index.
+     */
+    @Override
+    public JSONValue get(int index){
+        return current.get().get(index);
+    }
+
+    /**
+     * Get a number from the current version of the Array as double.
+     * @param index Index of the number to retrieve.
+     * @return The number at the requested index.
+     * @throws IllegalStateException If the element is not a number.
+     */
+    @Override
+    public double getDouble(int index){
+        return current.get().getDouble(index);
+    }
+
+    /**
+     * Get a number from the current version of the Array as long.
+     * @param index Index of the number to retrieve.
+     * @return The number at the requested index, non-integers are truncated towards zero.
+     * @throws IllegalStateException If the element is not a number.
+     */
+    @Override
+    public long getLong(int index){
+        return current.get().getLong(index);
+    }
+
+    /**
+     * Get the size of the current version of the Array.
+     * @return Number of elements in the Array.
+     */
+    @Override
+    public int size(){
+        return current.get().size();
+    }
+
+    /**
+     * Get an iterator over the values of the current version of the Array.
+     * The iterator is not affected by later changes and does not support remove().
+     * @return Iterator over the values of the Array.
+     */
+    @Override
+    public Iterator<JSONValue> iterator(){
+        return current.get().iterator();
+    }
+
+    /**
+     * Add a value after all the other ones.
+     * @param value Value to be added.
+     */
+    @Override
+    public void add(JSONValue value){
+        JSONValue persistent = value.toPersistent();
+        this.update(array -> array.withAdded(persistent));
+    }
+
+    /**
+     * Add an integer after all the other values.
+     * @param value Number to be added.
+     */
+    @Override
+    public void add(long value){
+        this.add(new JSONValue(value));
+    }
+
+    /**
+     * Add a non-integer number after all the other values.
+     * @param value Number to be added.
+     */
+    @Override
+    public void add(double value){
+        this.add(new JSONValue(value));
+    }
+
+    /**
+     * Change the value at index of the Array.
+     * @param index Index of the value to be changed.
+     * @param value Value to be put at the index.
+     * @throws IndexOutOfBoundsException If the index is not less than size() at the time of the change.
+     */
+    @Override
+    public void set(int index, JSONValue value){
+        JSONValue persistent = value.toPersistent();
+        this.update(array -> array.with(index, persistent));
+    }
+
+    /**
+     * Removes an element at the index.
+     * The following values move to lower indexes, which takes time linear in the size of the Array.
+     * @param index of the value to be removed.
+     * @return The removed value.
+     * @throws IndexOutOfBoundsException If the index is not less than size() at the time of the change.
+     */
+    @Override
+    public JSONValue remove(int index){
+        while(true){
+            JSONPersistentArray array = current.get();
+            JSONValue removed = array.get(index);
+            if(current.compareAndSet(array, array.without(index))){
+                return removed;
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the whole Array by a new version derived from the current one.
+     * Used for changes depending on the current values (e.g. incrementing a counter)
+     * or changing more values at once, which other threads see all or none of.
+     * @param function Gets the current version and returns the new one.
+     *                 It may be called more than once, if other threads change the Array meanwhile.
+     * @return The installed version.
+     */
+    public JSONPersistentArray update(UnaryOperator<JSONPersistentArray> function){
+        return current.updateAndGet(function);
+    }
+
+    /**
+     * Appends all values of the other Array atomically.
+     * @param other The Array whose values are appended, not changed.
+     */
+    @Override
+    void addAll(JSONArray other){
+        JSONArray stable = other.stable();
+        this.update(array -> {
+            for(JSONValue value: stable){
+                array = array.withAdded(value);
+            }
+            return array;
+        });
+    }
+
+    /**
+     * Get the current version, which does not change while it is being walked.
+     * @return The current version of the Array.
+     */
+    @Override
+    JSONArray stable(){
+        return current.get();
+    }
+}
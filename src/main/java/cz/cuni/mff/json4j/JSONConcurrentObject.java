@@ -0,0 +1,209 @@
+package cz.cuni.mff.json4j;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * A JSON Object which can be changed and read by many threads at once.
+ * It holds its current version as a JSONPersistentObject. Reading (get(),
+ * size(), serialization) takes the current version without any locking, and
+ * every change creates a new version by JSONPersistentObject.with() and
+ * installs it by a compare-and-set. The nested Objects and Arrays are persistent,
+ * so the whole tree below the Object is one atomic value: a serialization or a
+ * snapshot() always sees the state between two changes, never a half-done one.
+ * The changes are atomic as well: compute(), putIfAbsent() and update() apply
+ * their function to the current version and retry if another thread has
+ * installed a new version meanwhile. The functions may therefore be called
+ * more than once and should not have side effects.
+ * Nested values are changed by replacing them (e.g. by compute() with the
+ * with() of the persistent value), the values put to the Object are converted
+ * by JSONValue.toPersistent().
+ */
+public final class JSONConcurrentObject extends JSONObject {
+
+    // The current version of the Object
+    private final AtomicReference<JSONPersistentObject> current;
+
+    /**
+     * Creates an empty concurrent JSON Object.
+     */
+    public JSONConcurrentObject(){
+        this(new JSONPersistentObject());
+    }
+
+    /**
+     * Creates a concurrent JSON Object with the pairs of the Object.
+     * The pairs are copied to a persistent Object (see JSONValue.toPersistent()),
+     * a persistent Object is used as it is.
+     * @param object The Object whose pairs are taken.
+     */
+    public JSONConcurrentObject(JSONObject object){
+        super(JSONShape.sharedRoot());
+        JSONObject stable = object.stable();
+        this.current = new AtomicReference<>(
+                stable instanceof JSONPersistentObject ? (JSONPersistentObject) stable : new JSONPersistentObject(stable)
+        );
+    }
+
+    /**
+     * Get the current version of the Object.
+     * The version never changes, so it can be read, walked or serialized
+     * consistently while other threads change this Object.
+     * @return The persistent Object holding the current pairs.
+     */
+    public JSONPersistentObject snapshot(){
+        return current.get();
+    }
+
+    /**
+     * Get the value associated to the provided key in the current version.
+     * @param key Key used to find the value.
+     * @return JSON Value associated to the key, null if there is none.
+     */
+    @Override
+    public JSONValue get(String key){
+        return current.get().get(key);
+    }
+
+    /**
+     * Get the number of key-value pairs of the current version.
+     * @return The number of keys.
+     */
+    @Override
+    public int size(){
+        return current.get().size();
+    }
+
+    /**
+     * Associate a value to the key.
+     * If the key is already present, its value is replaced and the key keeps its place.
+     * Otherwise the pair is added after all the other ones.
+     * @param key String to be used as a key.
+     * @param value The value to be associated to the key.
+     */
+    @Override
+    public void put(String key, JSONValue value){
+        JSONValue persistent = value.toPersistent();
+        this.update(object -> object.with(key, persistent));
+    }
+
+    /**
+     * Associate a value to the key, unless the key is already present.
+     * @param key String to be used as a key.
+     * @param value The value to be associated to the key.
+     * @return The value already associated to the key, null if the value was put.
+     */
+    public JSONValue putIfAbsent(String key, JSONValue value){
+        JSONValue persistent = value.toPersistent();
+        while(true){
+            JSONPersistentObject object = current.get();
+            JSONValue present = object.get(key);
+            if(present != null || current.compareAndSet(object, object.with(key, persistent))){
+                return present;
+            }
+        }
+    }
+
+    /**
+     * Removes the value associated with the key.
+     * The following pairs keep their order.
+     * @param key of the value to be removed.
+     * @return The removed value, null if the key was not present.
+     */
+    @Override
+    public JSONValue remove(String key){
+        while(true){
+            JSONPersistentObject object = current.get();
+            JSONValue removed = object.get(key);
+            if(removed == null || current.compareAndSet(object, object.without(key))){
+                return removed;
+            }
+        }
+    }
+
+    /**
+     * Atomically computes the new value of the key from its current value.
+     * @param key The key whose value is computed.
+     * @param function Gets the key and its current value (null if it is not present) and
+     *                 returns the new value, or null to remove the key.
+     *                 It may be called more than once, if other threads change the Object meanwhile.
+     * @return The new value of the key, null if it was removed.
+     */
+    public JSONValue compute(String key, BiFunction<String, JSONValue, JSONValue> function){
+        while(true){
+            JSONPersistentObject object = current.get();
+            JSONValue computed = function.apply(key, object.get(key));
+            JSONValue persistent = computed != null ? computed.toPersistent() : null;
+            JSONPersistentObject next = persistent != null ? object.with(key, persistent) : object.without(key);
+            if(current.compareAndSet(object, next)){
+                return persistent;
+            }
+        }
+    }
+
+    /**
+     * Atomically computes the value of the key if it is not present.
+     * @param key The key whose value is computed.
+     * @param function Gets the key and returns its value, or null to leave it absent.
+     *                 It may be called more than once, if other threads change the Object meanwhile.
+     * @return The present or the computed value of the key, null if there is none.
+     */
+    public JSONValue computeIfAbsent(String key, Function<String, JSONValue> function){
+        return this.compute(key, (k, present) -> present != null ? present : function.apply(k));
+    }
+
+    /**
+     * Atomically computes the new value of the key if it is present.
+     * @param key The key whose value is computed.
+     * @param function Gets the key and its current value and returns the new value, or null to remove the key.
+     *                 It may be called more than once, if other threads change the Object meanwhile.
+     * @return The new value of the key, null if it is not present (anymore).
+     */
+    public JSONValue computeIfPresent(String key, BiFunction<String, JSONValue, JSONValue> function){
+        return this.compute(key, (k, present) -> present != null ? function.apply(k, present) : null);
+    }
+
+    /**
+     * Atomically replaces the whole Object by a new version derived from the current one.
+     * Used for changes of more keys at once, which other threads see all or none of.
+     * @param function Gets the current version and returns the new one.
+     *                 It may be called more than once, if other threads change the Object meanwhile.
+     * @return The installed version.
+     */
+    public JSONPersistentObject update(UnaryOperator<JSONPersistentObject> function){
+        return current.updateAndGet(function);
+    }
+
+    /**
+     * Get the key of the slot of the current version.
+     * Consistent walks of the Object use stable() instead.
+     * @param slot Index of the slot, less than size().
+     * @return The key of the slot.
+     */
+    @Override
+    String keyAt(int slot){
+        return current.get().keyAt(slot);
+    }
+
+    /**
+     * Get the value of the slot of the current version.
+     * Consistent walks of the Object use stable() instead.
+     * @param slot Index of the slot, less than size().
+     * @return The value of the slot.
+     */
+    @Override
+    JSONValue valueAt(int slot){
+        return current.get().valueAt(slot);
+    }
+
+    /**
+     * Get the current version, which does not change while it is being walked.
+     * @return The current version of the Object.
+     */
+    @Override
+    JSONObject stable(){
+        return current.get();
+    }
+}
@@ -0,0 +1,147 @@
+package cz.cuni.mff.json4j;
+
+import java.util.Arrays;
+
+/**
+ * An immutable map of Object keys to their slots (hash array mapped trie).
+ * Every node consumes 5 bits of the hash of the key and holds only its
+ * present children, found by counting the bits of a 32-bit bitmap below
+ * the bit of the child. Adding a key creates a new version of the map which
+ * copies only the nodes on the path to the key (at most 7 of them) and shares
+ * all the other ones with the old version. Keys whose hashes are equal in all
+ * 32 bits are kept in a list at the bottom of the trie.
+ * Used by the persistent JSON Objects to find the slots of their keys.
+ * Not public, since there is no reason to use it outside of the library.
+ */
+final class JSONHashTrie {
+
+    // The number of bits of the hash consumed by a level of the trie
+    private final static int BITS = 5;
+    private final static int MASK = (1 << BITS) - 1;
+
+    // The map without keys
+    final static JSONHashTrie EMPTY = new JSONHashTrie(0, new Object[0]);
+
+    // The bits of the present children
+        // 0 for the list of the keys with equal hashes below the last level
+    private final int bitmap;
+
+    // A pair for every present child in the order of the bits
+        // A key and its slot (Integer) for a single key, null and the child node for more keys
+    private final Object[] entries;
+
+    /**
+     * Creates a node of the trie.
+     * @param bitmap The bits of the present children.
+     * @param entries The pairs of the children.
+     */
+    private JSONHashTrie(int bitmap, Object[] entries){
+        this.bitmap = bitmap;
+        this.entries = entries;
+    }
+
+    /**
+     * Creates the map of the keys to their indexes in the array.
+     * @param keys The distinct keys.
+     * @param count The number of the keys to be taken from the start of the array.
+     * @return The map of the keys to their indexes.
+     */
+    static JSONHashTrie of(String[] keys, int count){
+        JSONHashTrie map = EMPTY;
+        for(int slot = 0; slot < count; slot++){
+            map = map.with(keys[slot], slot);
+        }
+        return map;
+    }
+
+    /**
+     * Finds the slot of the key.
+     * @param key The key to be found.
+     * @return The slot of the key, -1 if the map does not contain it.
+     */
+    int find(String key){
+        int hash = hash(key);
+        JSONHashTrie node = this;
+        for(int shift = 0; shift < Integer.SIZE; shift += BITS){
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if((node.bitmap & bit) == 0){
+                return -1;
+            }
+            int i = 2 * Integer.bitCount(node.bitmap & (bit - 1));
+            Object child_key = node.entries[i];
+            if(child_key != null){
+                return child_key.equals(key) ? (Integer) node.entries[i + 1] : -1;
+            }
+            node = (JSONHashTrie) node.entries[i + 1];
+        }
+
+        // Below the last level, the keys with equal hashes are searched linearly
+        for(int i = 0; i < node.entries.length; i += 2){
+            if(node.entries[i].equals(key)) return (Integer) node.entries[i + 1];
+        }
+        return -1;
+    }
+
+    /**
+     * Creates the version of the map with the key added.
+     * @param key The key, which must not be contained in the map.
+     * @param slot The slot of the key.
+     * @return The new version of the map.
+     */
+    JSONHashTrie with(String key, int slot){
+        return this.with(0, hash(key), key, slot);
+    }
+
+    /**
+     * Copies the node with the key added to its subtree.
+     * @param shift The shift of the bits of the hash consumed by the node.
+     * @param hash The hash of the key.
+     * @param key The key.
+     * @param slot The slot of the key.
+     * @return The copy of the node.
+     */
+    private JSONHashTrie with(int shift, int hash, String key, int slot){
+        if(shift >= Integer.SIZE){
+            Object[] list = Arrays.copyOf(entries, entries.length + 2);
+            list[entries.length] = key;
+            list[entries.length + 1] = slot;
+            return new JSONHashTrie(0, list);
+        }
+
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+        if((bitmap & bit) == 0){
+            Object[] copy = new Object[entries.length + 2];
+            System.arraycopy(entries, 0, copy, 0, i);
+            copy[i] = key;
+            copy[i + 1] = slot;
+            System.arraycopy(entries, i, copy, i + 2, entries.length - i);
+            return new JSONHashTrie(bitmap | bit, copy);
+        }
+
+        Object[] copy = entries.clone();
+        if(entries[i] == null){
+            copy[i + 1] = ((JSONHashTrie) entries[i + 1]).with(shift + BITS, hash, key, slot);
+        }
+        else {
+            // The key shares the position with another one, both move one level down
+            String other = (String) entries[i];
+            JSONHashTrie child = EMPTY.with(shift + BITS, hash(other), other, (Integer) entries[i + 1]);
+            copy[i] = null;
+            copy[i + 1] = child.with(shift + BITS, hash, key, slot);
+        }
+        return new JSONHashTrie(bitmap, copy);
+    }
+
+    /**
+     * Computes the hash of the key.
+     * The high bits of String.hashCode() are mixed into the low ones,
+     * which select the children of the top levels.
+     * @param key The key.
+     * @return The hash of the key.
+     */
+    private static int hash(String key){
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+}
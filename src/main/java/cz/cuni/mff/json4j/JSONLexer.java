@@ -0,0 +1,140 @@
+package cz.cuni.mff.json4j;
+
+import java.util.Arrays;
+
+/**
+ * A pull-mode lexer splitting a JSON source into JSONTokens.
+ * The tokens are produced one at a time by calling nextToken(), so
+ * the lexer never holds more than the currently processed token.
+ * The implementations differ in the representation of the source:
+ * JSONCharLexer reads characters from a Reader, JSONByteLexer works
+ * directly on UTF-8 encoded bytes.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+abstract class JSONLexer {
+
+    // CHARACTER CONSTANTS
+    final static char QUOTE_CHAR = '"';
+    final static char ESCAPE_CHAR = '\\';
+
+    // CHARACTER CLASSES
+        // Every ASCII character has its class looked up in the table,
+        // all other characters (and negative bytes) are OTHER
+    private final static byte OTHER      = 0;
+    private final static byte WHITESPACE = 1;
+    private final static byte TOKEN_CHAR = 2;
+    private final static byte[] CHAR_CLASSES = new byte[128];
+    static {
+        for(char c: new char[]{' ', '\t', '\n', '\r'}){
+            CHAR_CLASSES[c] = WHITESPACE;
+        }
+        for(char c: new char[]{'{', '}', '[', ']', ',', ':'}){
+            CHAR_CLASSES[c] = TOKEN_CHAR;
+        }
+    }
+
+    // HEXADECIMAL DIGITS
+        // The values of the ASCII digits 0-9, a-f and A-F, -1 for all other characters.
+        // Character.digit() would also accept the non-ASCII digits (e.g. the fullwidth ones)
+    private final static byte[] HEX_DIGITS = new byte[128];
+    static {
+        Arrays.fill(HEX_DIGITS, (byte) -1);
+        for(int d = 0; d < 10; d++){
+            HEX_DIGITS['0' + d] = (byte) d;
+        }
+        for(int d = 0; d < 6; d++){
+            HEX_DIGITS['a' + d] = (byte) (10 + d);
+            HEX_DIGITS['A' + d] = (byte) (10 + d);
+        }
+    }
+
+    /**
+     * Looks up the class of the character.
+     * Takes an int, so that both chars and (signed) bytes can be classified.
+     * @param c The character to be classified.
+     * @return The class of the character.
+     */
+    private static byte charClass(int c){
+        return c >= 0 && c < CHAR_CLASSES.length ? CHAR_CLASSES[c] : OTHER;
+    }
+
+    /**
+     * Decodes a hexadecimal digit of a \\uXXXX escape sequence.
+     * Takes an int, so that both chars and (signed) bytes can be decoded.
+     * @param c The character to be decoded.
+     * @return The value of the digit, -1 if the character is not an ASCII hexadecimal digit.
+     */
+    static int hexDigit(int c){
+        return c >= 0 && c < HEX_DIGITS.length ? HEX_DIGITS[c] : -1;
+    }
+
+    /**
+     * Checks if the char is whitespace.
+     * Whitespace characters for the purposes of JSON are listed in RFC 8259.
+     *
+     * @param c The character to be checked
+     * @return Boolean whether the character is a whitespace character.
+     */
+    static boolean isWhitespace(int c){
+        return charClass(c) == WHITESPACE;
+    }
+
+    /**
+     * Checks if the char is a single-character token.
+     *
+     * @param c The character to be checked
+     * @return Boolean whether the character is a token.
+     */
+    static boolean isTokenChar(int c){
+        return charClass(c) == TOKEN_CHAR;
+    }
+
+    /**
+     * Checks if the char ends a literal (number/boolean/null),
+     * that is if it is whitespace or a single-character token.
+     *
+     * @param c The character to be checked
+     * @return Boolean whether the character ends a literal.
+     */
+    static boolean isDelimiter(int c){
+        return charClass(c) != OTHER;
+    }
+
+    /**
+     * The table the keys are canonicalized by, null if they are not.
+     * Set by the JSONReader.
+     */
+    JSONSymbolTable symbols;
+
+    /**
+     * Fetches next token from the source.
+     * In case of invalid sequence of characters, a JSONToken with
+     * token_type = INVALID_TOKEN is returned.
+     * In case of calling this function at the end of the source (or with only
+     * whitespace left), generates an EOF token.
+     * If a key is expected and this.symbols is set, a String token is looked up
+     * in the table, so known keys share one String (and one token).
+     *
+     * @param key Whether the token is expected to be a key of an Object.
+     * @return Next JSON token from the source.
+     * @throws JSONUnfinishedStringAtEOF If EOF is encountered inside an unfinished String.
+     * @throws JSONMalformedSourceException If a String contains an invalid escape sequence.
+     */
+    abstract JSONToken nextToken(boolean key) throws JSONUnfinishedStringAtEOF, JSONMalformedSourceException;
+
+    /**
+     * Get the index of the next character (or byte) of the source to be processed.
+     * Counted from the beginning of the source, or absolutely in the ByteBuffer.
+     * @return The current position in the source.
+     */
+    abstract long position();
+
+    /**
+     * Moves the processing to the character (or byte) at the position of the source.
+     * Used to jump over the values recorded in a JSONStructuralIndex, so the source
+     * has to be held in memory whole (a String or a ByteBuffer).
+     * @param position The position in the source, as returned by position().
+     * @throws IllegalStateException If the source is read from a Reader.
+     */
+    abstract void seek(long position);
+}
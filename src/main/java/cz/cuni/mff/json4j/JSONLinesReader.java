@@ -0,0 +1,455 @@
+package cz.cuni.mff.json4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A reader of newline-delimited JSON (NDJSON, JSON Lines): a stream of UTF-8
+ * encoded documents, one per line.
+ * The documents are returned one at a time by the Iterator methods or by
+ * a Stream. The bytes are read through a buffer holding only the lines not
+ * returned yet, which grows only if a single line does not fit, so the memory
+ * used is bounded by the longest line and not by the size of the source.
+ * Every line is parsed by a JSONParser directly from the bytes. Lines containing
+ * only whitespace (e.g. after the last newline) are skipped, "\r\n" line ends
+ * are accepted as well.
+ * A parallel Stream (see parallelStream()) hands out batches of lines to other
+ * threads, which parse them while the next batch is being read.
+ * Malformed lines are reported by an UncheckedJSONException with the number of the line.
+ * An instance must not be used by more threads at once, except for the
+ * batches of a parallel Stream.
+ */
+public class JSONLinesReader implements Iterator<JSONValue>, Closeable {
+
+    // The initial size of the buffer, doubled whenever a line does not fit
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    // The number of bytes of lines handed out at once to a thread of a parallel Stream
+    private final static int BATCH_SIZE = 1 << 20;
+
+    // The source of the bytes
+    private final InputStream source;
+
+    // Whether the source was opened by this reader and is therefore closed by close()
+    private final boolean owns_source;
+
+    // The bytes read from the source, the lines not returned yet are between start and end
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int start = 0;
+    private int end = 0;
+    private boolean source_finished = false;
+
+    // The end of the next line (the index of its newline or end), -1 if it was not found yet
+        // The bytes of the buffer before it were already searched for a newline up to scanned
+    private int line_end = -1;
+    private int scanned = 0;
+
+    // The number of the line starting at start, counted from 1
+    private long line_number = 1;
+
+    // The parser of the lines, reused for all of them
+    private final JSONParser parser = new JSONParser();
+
+    // The settings of the parser, passed on to the parsers of the batches
+    private NUMBER_MODE number_mode = NUMBER_MODE.PRIMITIVE;
+    private boolean canonicalize_keys = false;
+
+    /**
+     * Creates a JSONLinesReader of the UTF-8 encoded lines of the InputStream.
+     * The InputStream is read only as far as the requested documents require
+     * and it is not closed by the JSONLinesReader.
+     * @param source_stream An InputStream providing the lines.
+     */
+    public JSONLinesReader(InputStream source_stream){
+        this.source = source_stream;
+        this.owns_source = false;
+    }
+
+    /**
+     * Creates a JSONLinesReader of the UTF-8 encoded lines of the file.
+     * The file is opened right away and closed by close().
+     * @param file The path of the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public JSONLinesReader(Path file) throws IOException {
+        this.source = Files.newInputStream(file);
+        this.owns_source = true;
+    }
+
+    /**
+     * Sets the way the parsed numbers are stored, see JSONParser.setNumberMode().
+     * @param number_mode The mode to be used for the following documents.
+     */
+    public void setNumberMode(NUMBER_MODE number_mode){
+        this.number_mode = number_mode;
+        parser.setNumberMode(number_mode);
+    }
+
+    /**
+     * Turns the canonicalization of the Object keys on or off, see JSONParser.setKeyCanonicalization().
+     * Worth turning on for the usual logs, where all records have the same keys.
+     * @param canonicalize_keys Whether the keys should be canonicalized.
+     */
+    public void setKeyCanonicalization(boolean canonicalize_keys){
+        this.canonicalize_keys = canonicalize_keys;
+        parser.setKeyCanonicalization(canonicalize_keys);
+    }
+
+    /**
+     * Checks if there is another document, reading the source up to its end if needed.
+     * @return Whether next() returns another document.
+     * @throws UncheckedIOException If the source fails.
+     */
+    @Override
+    public boolean hasNext(){
+        return this.findLine();
+    }
+
+    /**
+     * Parses the next line and returns its document.
+     * A malformed line is skipped as well, the following call returns the document of the next line.
+     * @return The document of the next line that is not blank.
+     * @throws NoSuchElementException If there are no more documents.
+     * @throws UncheckedJSONException If the line is not a single valid JSON value.
+     * @throws UncheckedIOException If the source fails.
+     */
+    @Override
+    public JSONValue next(){
+        if(!this.findLine()){
+            throw new NoSuchElementException("No more lines in the source");
+        }
+        // The line is skipped first, so that reading can go on after a malformed one
+            // Its bytes stay in the buffer until the next read from the source
+        int from = start;
+        int to = line_end;
+        long number = line_number;
+        this.skipLine();
+        return parseLine(parser, buffer, from, to, number);
+    }
+
+    /**
+     * Get a sequential Stream of the remaining documents.
+     * Closing the Stream closes this reader.
+     * @return The Stream of the documents in the order of their lines.
+     */
+    public Stream<JSONValue> stream(){
+        return StreamSupport.stream(new LinesSpliterator(), false).onClose(this::closeUnchecked);
+    }
+
+    /**
+     * Get a parallel Stream of the remaining documents.
+     * The lines are read by the thread consuming the Stream, which hands them
+     * out in batches of about a megabyte to the threads of the common ForkJoinPool
+     * (or of the pool the Stream is consumed in), so the documents are parsed on
+     * all cores. The order of the documents is kept by the ordered operations
+     * (e.g. forEachOrdered(), collect()). The memory used is bounded by the batches
+     * being parsed at once. Closing the Stream closes this reader.
+     * @return The parallel Stream of the documents.
+     */
+    public Stream<JSONValue> parallelStream(){
+        return StreamSupport.stream(new LinesSpliterator(), true).onClose(this::closeUnchecked);
+    }
+
+    /**
+     * Closes the source if it was opened by this reader (from a file).
+     * An InputStream provided by the caller is left open.
+     * @throws IOException If the source fails to close.
+     */
+    @Override
+    public void close() throws IOException {
+        if(owns_source){
+            source.close();
+        }
+    }
+
+    /**
+     * Closes the reader, rethrowing its failure as UncheckedIOException.
+     * Used by the Streams, whose close handlers cannot throw checked exceptions.
+     */
+    private void closeUnchecked(){
+        try {
+            this.close();
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finds the end of the next line that is not blank, reading the source as needed.
+     * The blank lines before it are skipped. The line starts at this.start and ends at this.line_end.
+     * @return Whether there is such line.
+     * @throws UncheckedIOException If the source fails.
+     */
+    private boolean findLine(){
+        while(true){
+            if(line_end < 0){
+                line_end = this.searchNewline();
+                if(line_end < 0) return false;
+            }
+            if(!this.isBlank(start, line_end)) return true;
+            this.skipLine();
+        }
+    }
+
+    /**
+     * Searches the buffer for the end of the line starting at this.start, reading the source as needed.
+     * @return The index of the newline, or of the end of the last line without one,
+     * -1 if there are no more bytes.
+     * @throws UncheckedIOException If the source fails.
+     */
+    private int searchNewline(){
+        while(true){
+            for(; scanned < end; scanned++){
+                if(buffer[scanned] == '\n') return scanned;
+            }
+            if(source_finished){
+                return start < end ? end : -1;
+            }
+            this.fill();
+        }
+    }
+
+    /**
+     * Reads more bytes from the source to the buffer.
+     * The bytes already returned are dropped first, the buffer is grown
+     * only when it is full of the current line.
+     * @throws UncheckedIOException If the source fails.
+     */
+    private void fill(){
+        if(start > 0){
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned -= start;
+            start = 0;
+        }
+        if(end == buffer.length){
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        try {
+            int count = source.read(buffer, end, buffer.length - end);
+            if(count < 0) source_finished = true;
+            else end += count;
+        }
+        catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Moves after the line found by findLine() or searchNewline() (and its newline).
+     */
+    private void skipLine(){
+        start = Math.min(line_end + 1, end);
+        scanned = start;
+        line_end = -1;
+        line_number++;
+    }
+
+    /**
+     * Checks if the bytes of the buffer are all whitespace.
+     * @param from Index of the first byte.
+     * @param to Index after the last byte.
+     * @return Whether there is no other byte than whitespace.
+     */
+    private boolean isBlank(int from, int to){
+        for(int i = from; i < to; i++){
+            if(!JSONLexer.isWhitespace(buffer[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a single line.
+     * @param parser The parser to be reset to the line.
+     * @param bytes The bytes holding the line.
+     * @param from Index of the first byte of the line.
+     * @param to Index after the last byte of the line.
+     * @param line The number of the line, for the error message.
+     * @return The document of the line.
+     * @throws UncheckedJSONException If the line is not a single valid JSON value.
+     */
+    private static JSONValue parseLine(JSONParser parser, byte[] bytes, int from, int to, long line){
+        parser.reset(ByteBuffer.wrap(bytes, from, to - from));
+        try {
+            return parser.parseString();
+        }
+        catch (JSONMalformedSourceException e){
+            throw new UncheckedJSONException("Line " + line + ": " + e.getMessage(), e);
+        }
+        catch (JSONUnfinishedStringAtEOF e){
+            throw new UncheckedJSONException("Line " + line + ": Unfinished String at the end of the line", e);
+        }
+    }
+
+    /**
+     * The Spliterator of the remaining documents, reading the lines from the source.
+     * Splitting it reads the next batch of lines, which is then parsed separately.
+     */
+    private final class LinesSpliterator implements Spliterator<JSONValue> {
+
+        /**
+         * Parses the next line and passes its document to the action.
+         * @param action The action to be performed.
+         * @return Whether there was another document.
+         */
+        @Override
+        public boolean tryAdvance(Consumer<? super JSONValue> action){
+            if(!hasNext()) return false;
+            action.accept(next());
+            return true;
+        }
+
+        /**
+         * Reads the next lines up to BATCH_SIZE bytes (at least one line)
+         * and copies them to a batch, which precedes the remaining lines.
+         * @return The batch of the lines, null if there are no more lines.
+         */
+        @Override
+        public Spliterator<JSONValue> trySplit(){
+            byte[] data = new byte[BATCH_SIZE];
+            int length = 0;
+            int[] ends = new int[64];
+            long[] numbers = new long[64];
+            int count = 0;
+            while(length < BATCH_SIZE && findLine()){
+                int line_length = line_end - start;
+                if(length + line_length > data.length){
+                    data = Arrays.copyOf(data, Math.max(data.length * 2, length + line_length));
+                }
+                if(count == ends.length){
+                    ends = Arrays.copyOf(ends, count * 2);
+                    numbers = Arrays.copyOf(numbers, count * 2);
+                }
+                System.arraycopy(buffer, start, data, length, line_length);
+                length += line_length;
+                ends[count] = length;
+                numbers[count] = line_number;
+                count++;
+                skipLine();
+            }
+            return count == 0 ? null : new Batch(data, ends, numbers, 0, count);
+        }
+
+        /**
+         * Get the estimated number of the remaining documents.
+         * @return Long.MAX_VALUE, the number is not known.
+         */
+        @Override
+        public long estimateSize(){
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Get the characteristics of the documents.
+         * @return ORDERED and NONNULL.
+         */
+        @Override
+        public int characteristics(){
+            return ORDERED | NONNULL;
+        }
+    }
+
+    /**
+     * The Spliterator of a batch of lines copied out of the buffer.
+     * The lines are parsed by a parser of the batch, so that more batches
+     * can be parsed at once. It is split by halves of its lines.
+     */
+    private final class Batch implements Spliterator<JSONValue> {
+
+        // The bytes of all the lines of the batch, one after another
+        private final byte[] data;
+
+        // The end of every line in the data (a line starts where the previous one ended)
+        private final int[] ends;
+
+        // The number of every line in the source
+        private final long[] numbers;
+
+        // The lines not processed yet
+        private int index;
+        private final int fence;
+
+        // The parser of the lines, created upon the first use
+        private JSONParser batch_parser;
+
+        /**
+         * Creates the Spliterator of the lines between index and fence.
+         * @param data The bytes of the lines.
+         * @param ends The ends of the lines.
+         * @param numbers The numbers of the lines.
+         * @param index The first line.
+         * @param fence The line after the last one.
+         */
+        Batch(byte[] data, int[] ends, long[] numbers, int index, int fence){
+            this.data = data;
+            this.ends = ends;
+            this.numbers = numbers;
+            this.index = index;
+            this.fence = fence;
+        }
+
+        /**
+         * Parses the next line of the batch and passes its document to the action.
+         * @param action The action to be performed.
+         * @return Whether there was another line.
+         */
+        @Override
+        public boolean tryAdvance(Consumer<? super JSONValue> action){
+            if(index >= fence) return false;
+            if(batch_parser == null){
+                batch_parser = new JSONParser();
+                batch_parser.setNumberMode(number_mode);
+                batch_parser.setKeyCanonicalization(canonicalize_keys);
+            }
+            int from = index == 0 ? 0 : ends[index - 1];
+            JSONValue value = parseLine(batch_parser, data, from, ends[index], numbers[index]);
+            index++;
+            action.accept(value);
+            return true;
+        }
+
+        /**
+         * Splits off the first half of the remaining lines.
+         * @return The Spliterator of the first half, null if there is only one line.
+         */
+        @Override
+        public Spliterator<JSONValue> trySplit(){
+            int middle = (index + fence) >>> 1;
+            if(middle <= index) return null;
+            Batch prefix = new Batch(data, ends, numbers, index, middle);
+            index = middle;
+            return prefix;
+        }
+
+        /**
+         * Get the number of the remaining lines.
+         * @return The number of the documents left.
+         */
+        @Override
+        public long estimateSize(){
+            return fence - index;
+        }
+
+        /**
+         * Get the characteristics of the documents.
+         * @return ORDERED, NONNULL, SIZED and SUBSIZED.
+         */
+        @Override
+        public int characteristics(){
+            return ORDERED | NONNULL | SIZED | SUBSIZED;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package cz.cuni.mff.json4j;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A writer of newline-delimited JSON (NDJSON, JSON Lines): every written value
+ * is serialized compactly by a JSONWriter on a line of its own.
+ * The lines are collected in the buffer of the JSONWriter and passed to the sink
+ * only when it is full or upon flush(), so writing many short records does not
+ * call the sink for each of them. Byte sinks receive the text encoded as UTF-8.
+ * The sink is not closed by the JSONLinesWriter, but flush() has to be called
+ * after the last record.
+ */
+public class JSONLinesWriter implements Flushable {
+
+    // The serializer of the records, always compact, so that a record never spans more lines
+    private final JSONWriter writer;
+
+    /**
+     * Creates a JSONLinesWriter writing the lines to the Writer.
+     * @param writer The Writer to write to.
+     */
+    public JSONLinesWriter(Writer writer){
+        this.writer = new JSONWriter(writer);
+    }
+
+    /**
+     * Creates a JSONLinesWriter writing the UTF-8 encoded lines to the OutputStream.
+     * @param stream The OutputStream to write to.
+     */
+    public JSONLinesWriter(OutputStream stream){
+        this.writer = new JSONWriter(stream);
+    }
+
+    /**
+     * Switches between writing the pairs of the Objects in the order their keys
+     * were added (the default) and in the order of their keys, see JSONWriter.setSortedKeys().
+     * @param sorted_keys Whether the following records should sort the keys.
+     */
+    public void setSortedKeys(boolean sorted_keys){
+        writer.setSortedKeys(sorted_keys);
+    }
+
+    /**
+     * Writes the value as the next line.
+     * @param value The record to be written.
+     * @throws IOException If the sink fails.
+     */
+    public void write(JSONValue value) throws IOException {
+        writer.writeLine(value);
+    }
+
+    /**
+     * Writes every value of the Iterable as a line, in its order.
+     * @param values The records to be written, e.g. a JSONArray or a List.
+     * @throws IOException If the sink fails.
+     */
+    public void writeAll(Iterable<JSONValue> values) throws IOException {
+        for(JSONValue value : values){
+            writer.writeLine(value);
+        }
+    }
+
+    /**
+     * Passes all buffered lines to the sink and flushes the sink.
+     * @throws IOException If the sink fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+}
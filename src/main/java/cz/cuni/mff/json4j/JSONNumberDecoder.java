@@ -0,0 +1,185 @@
+package cz.cuni.mff.json4j;
+
+/**
+ * Validation and decoding of JSON number literals.
+ * The grammar of the literals is checked as specified in RFC-8259
+ * (an optional minus, no leading zeros, optional fraction and exponent).
+ * Integers are decoded digit by digit without any floating-point parsing,
+ * and short decimals are converted exactly using powers of ten, so that
+ * Double.parseDouble is needed only for the remaining literals.
+ * Not public, since there is no reason to use it outside the library.
+ */
+final class JSONNumberDecoder {
+
+    // Powers of ten exactly representable as double
+    private final static double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+            1e21, 1e22
+    };
+
+    // Largest integer up to which all integers are exactly representable as double
+    private final static long MAX_EXACT_DOUBLE_INTEGER = 1L << 53;
+
+    private JSONNumberDecoder(){
+    }
+
+    /**
+     * Checks if the literal is a valid JSON number.
+     * @param literal The literal to be checked.
+     * @return Whether the literal conforms to the number grammar of RFC-8259.
+     */
+    static boolean isValid(CharSequence literal){
+        int length = literal.length();
+        int i = 0;
+
+        // Optional minus
+        if(i < length && literal.charAt(i) == '-') i++;
+
+        // Integer part: a single zero or digits without a leading zero
+        if(i == length) return false;
+        if(literal.charAt(i) == '0'){
+            i++;
+        }
+        else {
+            int start = i;
+            i = skipDigits(literal, i);
+            if(i == start) return false;
+        }
+
+        // Optional fraction
+        if(i < length && literal.charAt(i) == '.'){
+            int start = ++i;
+            i = skipDigits(literal, i);
+            if(i == start) return false;
+        }
+
+        // Optional exponent
+        if(i < length && (literal.charAt(i) == 'e' || literal.charAt(i) == 'E')){
+            i++;
+            if(i < length && (literal.charAt(i) == '+' || literal.charAt(i) == '-')) i++;
+            int start = i;
+            i = skipDigits(literal, i);
+            if(i == start) return false;
+        }
+
+        return i == length;
+    }
+
+    /**
+     * Checks if the valid literal is an integer fitting to long.
+     * The literal -0 is not, since the long 0 would lose its sign (it is decoded to the double -0.0).
+     * @param literal A valid JSON number literal.
+     * @return Whether the literal has no fraction nor exponent and fits to long.
+     */
+    static boolean isIntegral(CharSequence literal){
+        int length = literal.length();
+        int start = literal.charAt(0) == '-' ? 1 : 0;
+        if(start == 1 && length == 2 && literal.charAt(1) == '0') return false;
+        for(int i = start; i < length; i++){
+            char c = literal.charAt(i);
+            if(c < '0' || c > '9') return false;
+        }
+
+        // Up to 18 digits always fit, longer integers are compared with the limits
+        int digits = length - start;
+        if(digits < 19) return true;
+        if(digits > 19) return false;
+        String limit = start == 1 ? "9223372036854775808" : "9223372036854775807";
+        for(int i = 0; i < 19; i++){
+            char c = literal.charAt(start + i);
+            if(c != limit.charAt(i)) return c < limit.charAt(i);
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the valid integral literal to long.
+     * The digits are accumulated directly, without any floating-point parsing.
+     * @param literal A valid JSON number literal for which isIntegral() holds.
+     * @return The value of the literal.
+     */
+    static long parseLong(CharSequence literal){
+        int length = literal.length();
+        boolean negative = literal.charAt(0) == '-';
+
+        // Accumulated negatively, so that Long.MIN_VALUE does not overflow
+        long result = 0;
+        for(int i = negative ? 1 : 0; i < length; i++){
+            result = result * 10 - (literal.charAt(i) - '0');
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Decodes the valid literal to the nearest double.
+     * Integers fitting to long are converted directly. Decimals with at most
+     * 15 significant digits and a small exponent are computed exactly from
+     * the digits and a power of ten. All other literals use Double.parseDouble.
+     * @param literal A valid JSON number literal.
+     * @return The value of the literal rounded to double.
+     */
+    static double parseDouble(CharSequence literal){
+        if(isIntegral(literal)){
+            return (double) parseLong(literal);
+        }
+
+        int length = literal.length();
+        boolean negative = literal.charAt(0) == '-';
+        int i = negative ? 1 : 0;
+
+        // Collect all digits of the integer part and the fraction into the mantissa
+        long mantissa = 0;
+        int significant_digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for(; i < length; i++){
+            char c = literal.charAt(i);
+            if(c == '.'){
+                fraction = true;
+                continue;
+            }
+            if(c < '0' || c > '9') break;
+            if(mantissa != 0 || c != '0') significant_digits++;
+            if(significant_digits > 15) return Double.parseDouble(literal.toString());
+            mantissa = mantissa * 10 + (c - '0');
+            if(fraction) exponent--;
+        }
+
+        // Add the explicit exponent
+        if(i < length){
+            i++;
+            boolean negative_exponent = false;
+            if(literal.charAt(i) == '+' || literal.charAt(i) == '-'){
+                negative_exponent = literal.charAt(i) == '-';
+                i++;
+            }
+            int explicit = 0;
+            for(; i < length; i++){
+                explicit = explicit * 10 + (literal.charAt(i) - '0');
+                if(explicit > 400) return Double.parseDouble(literal.toString());
+            }
+            exponent += negative_exponent ? -explicit : explicit;
+        }
+
+        // Both the mantissa and the power of ten are exact, so is the single rounding
+        if(mantissa > MAX_EXACT_DOUBLE_INTEGER || exponent < -22 || exponent > 22){
+            return Double.parseDouble(literal.toString());
+        }
+        double value = exponent < 0
+                ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Moves the index behind all digits starting at it.
+     * @param literal The literal being processed.
+     * @param i Index of the first character to be checked.
+     * @return Index of the first non-digit character (or the length).
+     */
+    private static int skipDigits(CharSequence literal, int i){
+        while(i < literal.length() && literal.charAt(i) >= '0' && literal.charAt(i) <= '9') i++;
+        return i;
+    }
+}
@@ -1,40 +1,142 @@
 package cz.cuni.mff.json4j;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
 /**
  * A wrapper for a JSON Object type.
- * Utilizes a HashMap for holding the keys and values and provides
- * wrapper methods to operate on it.
+ * The key-value pairs are kept in the order in which the keys were added,
+ * which is also the order in which they are serialized.
+ * The keys are described by a JSONShape shared by all Objects with the same
+ * keys (e.g. the records of an Array), so every Object holds only a flat array
+ * of its values. When the Object is changed in a way the shapes do not allow
+ * (a key is removed, it has too many keys or no more shapes can be created),
+ * it detaches from the shapes and keeps its own array of keys, parallel to the
+ * values, with a hash index of the slots for larger Objects.
+ * An Object of a lazily parsed tree holds nothing until it is accessed for the
+ * first time, its pairs are then parsed from the source (see JSONParser.setLazy()).
  * Note that all added keys must pe plain Strings and all values
  * must be wrapped in the JSONValue wrapper.
  */
 public class JSONObject {
 
+    // Objects with more keys than this keep their own keys
+    private final static int MAX_SHAPED_KEYS = 64;
+
+    /**
+     * The shape of the keys, null once the Object is detached.
+     */
+    private JSONShape shape;
+
+    /**
+     * The values in the order of the slots of the keys.
+     * May be longer than the number of keys, the rest is free for added keys.
+     */
+    private JSONValue[] slots;
+
+    /**
+     * The own keys of a detached Object in the order of their slots, null while the shape is used.
+     * Has the same length as the slots.
+     */
+    private String[] keys;
+
+    /**
+     * The number of keys of a detached Object.
+     */
+    private int size;
+
+    /**
+     * The hash index of the own keys built by JSONShape.buildIndex(), null for small Objects.
+     */
+    private int[] index;
+
+    /**
+     * The structural index of the source of a lazily parsed Object, null once it is materialized.
+     * Volatile, so that the materialized pairs are visible to all threads reading the tree.
+     */
+    private volatile JSONStructuralIndex lazy_index;
+
     /**
-     * The underlying hashMap holding the values of the Object.
+     * The number of the Object in the lazy_index.
      */
-    private HashMap<String, JSONValue> values;
+    private int lazy_ordinal;
 
     /**
      * Associate a value to the key
+     * If the key is already present, its value is replaced and the key keeps its place.
+     * Otherwise the pair is added after all the other ones.
      * @param key String to be used as a key. Note that this MUST NOT be
      *            wrapped in the JSOValue wrapper.
      * @param value The value to be associated to the key. This, on the
      *              other hand, MUST be wrapped in the JSONValue wrapper
      */
     public void put(String key, JSONValue value){
-        values.put(key, value);
+        this.load();
+        int slot = this.slotOf(key);
+        if(slot >= 0){
+            slots[slot] = value;
+            return;
+        }
+
+        int count = this.size();
+        if(shape != null){
+            // A new key moves the Object to the child shape
+            JSONShape next = count < MAX_SHAPED_KEYS ? shape.withKey(key) : null;
+            if(next == null){
+                this.detach();
+            }
+            else {
+                if(slots.length == count){
+                    slots = Arrays.copyOf(slots, Math.max(4, count * 2));
+                }
+                slots[count] = value;
+                shape = next;
+                return;
+            }
+        }
+
+        if(slots.length == count){
+            slots = Arrays.copyOf(slots, Math.max(4, count * 2));
+            keys = Arrays.copyOf(keys, slots.length);
+        }
+        keys[count] = key;
+        slots[count] = value;
+        size++;
+
+        // The index is rebuilt once it would be more than half full
+        if(index == null ? size > JSONShape.LINEAR_SEARCH_KEYS : 2 * size > index.length){
+            index = JSONShape.buildIndex(keys, size);
+        }
+        else if(index != null){
+            JSONShape.addToIndex(index, key, count);
+        }
     }
 
     /**
      * Removes the value associated with the key.
+     * The following pairs keep their order.
      * @param key of the value to be removed.
      * @return The removed value.
      */
     public JSONValue remove(String key){
-        return values.remove(key);
+        this.load();
+        int slot = this.slotOf(key);
+        if(slot < 0) return null;
+
+        // Shapes only grow, so the Object has to keep its own keys
+        if(shape != null){
+            this.detach();
+        }
+
+        JSONValue removed = slots[slot];
+        System.arraycopy(keys, slot + 1, keys, slot, size - slot - 1);
+        System.arraycopy(slots, slot + 1, slots, slot, size - slot - 1);
+        size--;
+        keys[size] = null;
+        slots[size] = null;
+        index = JSONShape.buildIndex(keys, size);
+        return removed;
     }
 
     /**
@@ -44,22 +146,178 @@ public class JSONObject {
      * @return JSON Value associated to the key.
      */
     public JSONValue get(String key){
-        return values.get(key);
+        this.load();
+        int slot = this.slotOf(key);
+        return slot >= 0 ? slots[slot] : null;
+    }
+
+    /**
+     * Get the number of key-value pairs of the Object.
+     * @return The number of keys.
+     */
+    public int size(){
+        this.load();
+        return shape != null ? shape.size() : size;
+    }
+
+    /**
+     * Get the key of the slot.
+     * The slots are numbered from 0 in the order in which the keys were added.
+     * Used by the JSONWriter to walk the Object.
+     * @param slot Index of the slot, less than size().
+     * @return The key of the slot.
+     */
+    String keyAt(int slot){
+        this.load();
+        return shape != null ? shape.keyAt(slot) : keys[slot];
+    }
+
+    /**
+     * Get the value of the slot.
+     * Used by the JSONWriter to walk the Object.
+     * @param slot Index of the slot, less than size().
+     * @return The value of the slot.
+     */
+    JSONValue valueAt(int slot){
+        this.load();
+        return slots[slot];
+    }
+
+    /**
+     * Get a view of the Object which does not change while it is being walked.
+     * Used by the JSONWriter and the copies, which read the pairs slot by slot.
+     * @return This Object, the current version of a concurrent one.
+     */
+    JSONObject stable(){
+        return this;
+    }
+
+    /**
+     * Materializes the Object if it was parsed lazily and not accessed yet.
+     * @throws UncheckedJSONException If the Object is malformed.
+     */
+    private void load(){
+        JSONStructuralIndex lazy = lazy_index;
+        if(lazy != null){
+            lazy.load(this, lazy_ordinal);
+        }
+    }
+
+    /**
+     * Checks if the Object is a lazy shell which was not materialized yet.
+     * @return Whether the Object still waits for its pairs.
+     */
+    boolean isLazy(){
+        return lazy_index != null;
+    }
+
+    /**
+     * Takes over the pairs of the Object materialized for this lazy shell.
+     * @param materialized The Object holding the pairs, not used afterwards.
+     */
+    void adopt(JSONObject materialized){
+        shape = materialized.shape;
+        slots = materialized.slots;
+        keys = materialized.keys;
+        size = materialized.size;
+        index = materialized.index;
+        lazy_index = null;
+    }
+
+    /**
+     * Finds the slot of the key.
+     * @param key The key to be found.
+     * @return The index of the slot, -1 if the Object does not contain the key.
+     */
+    private int slotOf(String key){
+        return shape != null ? shape.indexOf(key) : JSONShape.find(keys, size, index, key);
+    }
+
+    /**
+     * Copies the keys of the shape to the own keys of the Object.
+     */
+    private void detach(){
+        size = shape.size();
+        keys = new String[slots.length];
+        for(int slot = 0; slot < size; slot++){
+            keys[slot] = shape.keyAt(slot);
+        }
+        index = JSONShape.buildIndex(keys, size);
+        shape = null;
     }
 
     /**
      * Creates an empty JSON Object.
      */
     public JSONObject(){
-        this.values = new HashMap<>();
+        this(JSONShape.sharedRoot());
+    }
+
+    /**
+     * Creates an empty JSON Object in the tree of shapes of the root.
+     * @param root The root of the tree of shapes to be used.
+     */
+    JSONObject(JSONShape root){
+        this.shape = root;
+        this.slots = new JSONValue[0];
+    }
+
+    /**
+     * Creates a lazy shell of the Object recorded in the structural index.
+     * Its pairs are parsed upon its first access.
+     * @param lazy_index The structural index of the source.
+     * @param lazy_ordinal The number of the Object in the index.
+     */
+    JSONObject(JSONStructuralIndex lazy_index, int lazy_ordinal){
+        this.lazy_index = lazy_index;
+        this.lazy_ordinal = lazy_ordinal;
     }
 
     /**
      * Creates a JSON Object from a HashMap.
+     * The pairs are copied in the iteration order of the map,
+     * the Object does not change with the map afterwards.
      * @param values The HashMap from which the JSONObject can be constructed.
      */
     public JSONObject(HashMap<String, JSONValue> values){
-        this.values = values;
+        this();
+        for(Entry<String, JSONValue> pair: values.entrySet()){
+            this.put(pair.getKey(), pair.getValue());
+        }
+    }
+
+    /**
+     * Creates a JSON Object from the key-value pairs of the range of the arrays.
+     * The shape is looked up in the tree of the root and the values are copied
+     * to an array of exactly their size. Used by the JSONParser, which collects
+     * all pairs of an Object before creating it.
+     * @param root The root of the tree of shapes to be used.
+     * @param keys The keys of the pairs.
+     * @param values The values of the pairs.
+     * @param from Index of the first pair.
+     * @param to Index after the last pair.
+     * @return The Object holding the pairs (later pairs replace earlier ones with the same key).
+     */
+    static JSONObject fromPairs(JSONShape root, String[] keys, JSONValue[] values, int from, int to){
+        JSONShape shape = root;
+        for(int i = from; i < to && shape != null; i++){
+            // Duplicate keys are left to put()
+            shape = to - from <= MAX_SHAPED_KEYS && shape.indexOf(keys[i]) < 0 ? shape.withKey(keys[i]) : null;
+        }
+
+        JSONObject object = new JSONObject(root);
+        if(shape != null){
+            object.shape = shape;
+            object.slots = Arrays.copyOfRange(values, from, to);
+        }
+        else {
+            // Duplicate keys or too many of them, the Object keeps its own keys right away
+            object.detach();
+            for(int i = from; i < to; i++){
+                object.put(keys[i], values[i]);
+            }
+        }
+        return object;
     }
 
     /**
@@ -70,48 +328,26 @@ public class JSONObject {
      * @return Human readable serialization of the Object.
      */
     public String serialize_readable(){
-        StringBuilder out = new StringBuilder();
-        out.append('{');
-        if(!this.values.isEmpty()) out.append('\n');
-
-        for (Entry<String, JSONValue> setEntry : this.values.entrySet()) {
-            var pair = (Entry<String, JSONValue>) setEntry;
-            String key = pair.getKey();
-            JSONValue value = pair.getValue();
-
-            out.append("    ");                         // Indent by 4 spaces
-            String value_string = value.serialize_readable();
-            // Indent all lines of multiline values (Arrays/Objects)
-            if(value_string.lines().count() > 1){
-                // Indent and remove indent from the first line
-                value_string = value_string.indent(4).trim();
-            }
-            out.append(String.format("%s : %s,\n", key, value_string));
-        }
-
-        // Remove last comma (but leave in the endline)
-        if(!this.values.isEmpty()) out.deleteCharAt(out.length()-2);
-        out.append('}');
-
-        return out.toString();
+        return JSONWriter.toReadableString(new JSONValue(this));
     }
 
     /**
      * Serializes the Object in a space-saving manner.
      * Uses minimal possible number of characters required.
+     * The whole Object is written by a single JSONWriter.
      * @return The compact serialization of the Object
      */
     public String serialize_compact(){
-        StringBuilder out = new StringBuilder();
-        out.append('{');
-        for (Entry<String, JSONValue> stringJSONValueEntry : this.values.entrySet()) {
-            var pair = (Entry<String, JSONValue>) stringJSONValueEntry;
-            out.append(String.format("\"%s\":%s,", pair.getKey(), pair.getValue()));
-        }
-        out.deleteCharAt(out.length()-1);
-        out.append('}');
+        return JSONWriter.toCompactString(new JSONValue(this));
+    }
 
-        return out.toString();
+    /**
+     * Serializes the Object in a space-saving manner with its keys (and the keys
+     * of all Objects in it) sorted, so that equal Objects always give the same String.
+     * @return The compact serialization of the Object with sorted keys.
+     */
+    public String serialize_sorted(){
+        return JSONWriter.toSortedString(new JSONValue(this));
     }
 
     /**
@@ -1,36 +1,91 @@
 package cz.cuni.mff.json4j;
 
-import java.lang.reflect.MalformedParameterizedTypeException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
-
-import org.apache.commons.lang.StringEscapeUtils;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * A class for deserializing a JSON from a String.
- * The String should contain a single JSON Value (as is usually assumed).
+ * A class for deserializing a JSON from a String or a stream of characters.
+ * The source should contain a single JSON Value (as is usually assumed).
  * The JSON should be properly formatted according to the RFC-8259.
- * An instance should be created for each String to be processed.
+ * Byte sources (InputStream, ReadableByteChannel) are decoded as UTF-8.
+ * The source is read through a fixed-size buffer, so it never has to be
+ * held in memory whole. Sources already in memory as UTF-8 bytes (byte[],
+ * ByteBuffer) are parsed directly from the bytes without decoding them first.
+ * Files are memory-mapped and parsed the same way (see reset(Path)).
+ * The JSONValue tree is built from the events of a JSONReader, which can be
+ * used directly when the tree is not needed.
+ * An instance can be reused for any number of sources by calling one of the
+ * reset() methods before each parsing. The internal buffers are then kept,
+ * so the parsing itself allocates little besides the resulting tree.
+ * In lazy mode (see setLazy()), the in-memory sources are only indexed and
+ * the tree is parsed piece by piece as it is accessed. In parallel mode
+ * (see setParallel()), large top-level Arrays of in-memory sources are split
+ * to parts parsed by the threads of a ForkJoinPool.
+ * Instead of the whole tree, only the values selected by a JSONPath can be
+ * built (see select()).
+ * An instance must not be used by more threads at once.
  */
 public class JSONParser {
 
-    // The String to be parsed
-    private final String json_source;
+    // The reader reporting the events of the source one at a time
+    private final JSONReader reader;
+
+    // The way the parsed numbers are stored
+    private NUMBER_MODE number_mode = NUMBER_MODE.PRIMITIVE;
+
+    // Whether the keys are canonicalized, passed on to the parsers of the lazy trees
+    private boolean canonicalize_keys = false;
+
+    // Whether the trees of in-memory sources are parsed lazily
+    private boolean lazy = false;
+
+    // The pool parsing the parts of large top-level Arrays, null for parsing on the calling thread
+    private ForkJoinPool pool;
+
+    // Sources shorter than this are always parsed on the calling thread, splitting them does not pay off
+    private final static int PARALLEL_MIN_LENGTH = 1 << 16;
 
-    // Currently processed character of the string
-    private int char_index;
-    private Character current_char;
+    // The number of parts per thread of the pool, so that the threads finishing early take over the rest
+    private final static int PARTS_PER_THREAD = 4;
 
-    // The list of all tokens obtained by calling getTokens()
-    private ArrayList<JSONToken> tokens;
+    // The current source, if it is held in memory whole and can be therefore parsed lazily or in parallel
+        // At most one of them is set
+    private String lazy_string;
+    private JSONByteSource lazy_bytes;
 
-    // Currently processed token from this.tokens
-    private int token_index;
-    private JSONToken current_token;
+    // The structural index of the lazy tree this parser materializes, null for the usual parsing
+        // The nested Objects and Arrays are then not parsed, only their lazy shells are created
+    private JSONStructuralIndex lazy_index;
 
-    // CHARACTER CONSTANTS
-    private final static char QUOTE_CHAR = '"';
-    private final static char[] WHITESPACE = {' ', '\t', '\n', '\r'};
-    private final static char[] TOKEN_CHARS = {'{', '}', '[', ']', ',', ':'};
+    // The tree of shapes of the parsed Objects, kept across sources
+        // Replaced by a new one once full, so that later Objects can use shapes again
+    private JSONShape shapes = JSONShape.newRoot();
+
+    // The key-value pairs of all Objects being parsed, the innermost on top
+        // An Object is created only once all its pairs are known, so it gets its final shape at once
+    private String[] pending_keys = new String[16];
+    private JSONValue[] pending_values = new JSONValue[16];
+    private int pending_size = 0;
+
+    /**
+     * Creates a JSONParser without any source.
+     * One of the reset() methods has to be called before parsing. Useful for
+     * keeping a parser per thread (e.g. ThreadLocal.withInitial(JSONParser::new))
+     * and reusing it for every request.
+     */
+    public JSONParser(){
+        reader = new JSONReader();
+    }
 
     /**
      * Creates a JSONParser to process the provided String.
@@ -39,351 +94,741 @@ public class JSONParser {
      * @param source_string A String containing a single JSON value.
      */
     public JSONParser(String source_string){
+        this();
+        this.reset(source_string);
+    }
 
-        // Handle all unicode character sequences in the source
-        json_source = StringEscapeUtils.unescapeJava(source_string.trim());
+    /**
+     * Creates a JSONParser to process the characters provided by the Reader.
+     * The Reader is read only as far as this.parseString() requires
+     * and it is not closed by the parser.
+     *
+     * @param source_reader A Reader providing a single JSON value.
+     */
+    public JSONParser(Reader source_reader){
+        this();
+        this.reset(source_reader);
+    }
 
-        // Initialize the character reading index and current_char at the beginning
-        char_index = 0;
-        if(json_source.length() > 0){
-            current_char = json_source.charAt(0);
-        }
+    /**
+     * Creates a JSONParser to process the UTF-8 encoded bytes of the InputStream.
+     * Malformed UTF-8 input is reported as an error during parsing.
+     * The InputStream is not closed by the parser.
+     *
+     * @param source_stream An InputStream providing a single JSON value.
+     */
+    public JSONParser(InputStream source_stream){
+        this();
+        this.reset(source_stream);
+    }
+
+    /**
+     * Creates a JSONParser to process the UTF-8 encoded bytes of the channel.
+     * Malformed UTF-8 input is reported as an error during parsing.
+     * The channel is not closed by the parser.
+     *
+     * @param source_channel A channel providing a single JSON value.
+     */
+    public JSONParser(ReadableByteChannel source_channel){
+        this();
+        this.reset(source_channel);
+    }
 
-        // Initialize the token reading index and current_token at the beginning
-            // Note that these are invalid until this.getTokens() is called
-        token_index = 0;
-        tokens = new ArrayList<>();
+    /**
+     * Creates a JSONParser to process the UTF-8 encoded bytes of the array.
+     * The bytes are parsed without decoding them to chars first.
+     * The array must not be modified during parsing.
+     *
+     * @param source_bytes UTF-8 encoded bytes of a single JSON value.
+     */
+    public JSONParser(byte[] source_bytes){
+        this();
+        this.reset(source_bytes);
     }
 
     /**
-     * Checks if the input String was processed whole.
-     * @return whether the end of the input String was encountered.
+     * Creates a JSONParser to process the UTF-8 encoded bytes between the position
+     * and the limit of the buffer (heap or direct).
+     * The bytes are parsed without decoding them to chars first.
+     * The position of the buffer is not changed.
+     *
+     * @param source_buffer UTF-8 encoded bytes of a single JSON value.
      */
-    private boolean eof(){
-        return char_index >= json_source.length();
+    public JSONParser(ByteBuffer source_buffer){
+        this();
+        this.reset(source_buffer);
     }
 
     /**
-     * Checks if there is a token to be processed.
-     * @return whether there is a token to be processed.
+     * Creates a JSONParser to process the UTF-8 encoded bytes of the file.
+     * See reset(Path).
+     *
+     * @param file The path of a file containing a single JSON value.
+     * @throws IOException If the file cannot be opened or mapped.
      */
-    private boolean eot(){
-        return token_index >= tokens.size();
+    public JSONParser(Path file) throws IOException {
+        this();
+        this.reset(file);
     }
 
     /**
-     * Moves to processing of the next token from the tokenized input.
-     * Increases the internal token_index variable and updates this.current_token.
-     * In case of overflowing the size of the this.tokens, sets current_token = null.
+     * Sets a new String to be parsed, forgetting the previous source.
+     * The number mode, the key canonicalization and the lazy mode are kept.
+     *
+     * @param source_string A String containing a single JSON value.
      */
-    private void incrementToken(){
-        token_index++;
-        current_token = this.eot() ? null : this.tokens.get(token_index);
+    public void reset(String source_string){
+        reader.reset(source_string);
+        this.lazy_string = source_string;
+        this.lazy_bytes = null;
     }
 
     /**
-     * Moves to processing of the next character of the input JSON String.
-     * Increases the internal char_index variable and updates this.current_char.
-     * In case of overflowing the size of the json_source, sets current_char = null.
+     * Sets a new Reader to be parsed, forgetting the previous source.
+     * The number mode, the key canonicalization and the lazy mode are kept.
+     *
+     * @param source_reader A Reader providing a single JSON value.
      */
-    private void incrementIndex(){
-        char_index++;
-        current_char = this.eof() ? null : json_source.charAt(char_index);
+    public void reset(Reader source_reader){
+        reader.reset(source_reader);
+        this.lazy_string = null;
+        this.lazy_bytes = null;
     }
 
     /**
-     * Checks if the char is whitespace.
-     * Whitespace characters for the purposes of JSON are listed in RFC 8259.
+     * Sets a new InputStream of UTF-8 encoded bytes to be parsed, forgetting the previous source.
+     * The number mode, the key canonicalization and the lazy mode are kept.
      *
-     * @param c The character to be checked
-     * @return Boolean whether the character is a whitespace character.
+     * @param source_stream An InputStream providing a single JSON value.
      */
-    private static boolean isWhitespace(char c){
-        for(char ws: WHITESPACE){
-            if(ws == c) return true;
-        }
-        return false;
+    public void reset(InputStream source_stream){
+        reader.reset(source_stream);
+        this.lazy_string = null;
+        this.lazy_bytes = null;
     }
 
     /**
-     * Checks if the char is a single-character token.
+     * Sets a new channel of UTF-8 encoded bytes to be parsed, forgetting the previous source.
+     * The number mode, the key canonicalization and the lazy mode are kept.
      *
-     * @param c The character to be checked
-     * @return Boolean whether the character is a token.
+     * @param source_channel A channel providing a single JSON value.
      */
-    private static boolean isTokenChar(char c){
-        for(char tk: TOKEN_CHARS){
-            if(tk == c) return true;
-        }
-        return false;
+    public void reset(ReadableByteChannel source_channel){
+        reader.reset(source_channel);
+        this.lazy_string = null;
+        this.lazy_bytes = null;
     }
 
     /**
-     * Fetches next token from this.json_source.
-     * After the function call, the char_index is moved after the last char
-     * of the token.
-     * In case of multi-character tokens (numbers and non-String literals),
-     * parsing stops upon encountering a whitespace, token character or EOF.
-     * In case of String literals, tha parsing stops upon the second
-     * appearance of QUOTECHAR. Throws in case of EOF before the ending QUOTECHAR.
-     * In case of invalid sequence of characters, a JSONToken with
-     * token_type = INVALID_TOKEN is returned.
-     * In case of calling this function at the end of the file, generates an EOF token.
+     * Sets a new array of UTF-8 encoded bytes to be parsed, forgetting the previous source.
+     * The number mode, the key canonicalization and the lazy mode are kept.
      *
-     * @return Next JSON token from the source String
-     * @throws JSONUnfinishedStringAtEOF If EOF is encountered inside an unfinished String.
+     * @param source_bytes UTF-8 encoded bytes of a single JSON value.
      */
-    private JSONToken getNextToken() throws JSONUnfinishedStringAtEOF {
+    public void reset(byte[] source_bytes){
+        this.reset(ByteBuffer.wrap(source_bytes));
+    }
 
-        // Handle being at the end of source
-        if(this.eof()){
-            return JSONToken.generateEOFToken();
-        }
+    /**
+     * Sets a new buffer of UTF-8 encoded bytes to be parsed, forgetting the previous source.
+     * The number mode, the key canonicalization and the lazy mode are kept.
+     *
+     * @param source_buffer UTF-8 encoded bytes of a single JSON value.
+     */
+    public void reset(ByteBuffer source_buffer){
+        this.reset(JSONByteSource.of(source_buffer));
+    }
 
-        // Read all whitespace before token
-        while(isWhitespace(current_char)){
-            this.incrementIndex();
-        }
+    /**
+     * Sets new UTF-8 encoded bytes held in memory to be parsed, forgetting the previous source.
+     *
+     * @param source_bytes UTF-8 encoded bytes of a single JSON value.
+     */
+    private void reset(JSONByteSource source_bytes){
+        reader.reset(source_bytes);
+        this.lazy_string = null;
+        this.lazy_bytes = source_bytes;
+    }
 
-        StringBuilder token_sb = new StringBuilder();
+    /**
+     * Sets a new file of UTF-8 encoded bytes to be parsed, forgetting the previous source.
+     * The number mode, the key canonicalization and the lazy mode are kept.
+     * The file is mapped to memory and parsed right from the mapping like a ByteBuffer,
+     * so it is neither read to the heap nor decoded to chars first. Together with
+     * the lazy mode, only the accessed parts of the file are ever parsed, even if
+     * the file is larger than the heap. A lazy tree keeps the mapping alive.
+     * The file must not be modified while it is parsed or a lazy tree of it is in use.
+     * Files of 2 GB or more are mapped as overlapping windows (see JSONReader.reset(Path)),
+     * they are parsed the same way, also lazily or in parallel.
+     *
+     * @param file The path of a file containing a single JSON value.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    public void reset(Path file) throws IOException {
+        this.reset(JSONByteSource.map(file));
+    }
 
-        // Next token is String
-        if(current_char == QUOTE_CHAR){
-           do {
-                token_sb.append(current_char);
-                this.incrementIndex();
-                if(this.eof()){
-                    throw new JSONUnfinishedStringAtEOF();
-                }
-            }  while(current_char != QUOTE_CHAR);
-            token_sb.append(current_char);
-            this.incrementIndex();
-        }
-        // Next token is single-character (brackets, comma, etc...)
-        else if(isTokenChar(current_char)){
-            String token_string = new String(new char[]{current_char});
-            this.incrementIndex();
+    /**
+     * Turns the canonicalization of the Object keys on or off (off by default).
+     * When on, all occurrences of a key (also in the following sources after reset())
+     * are the same String instance, so documents of many records with the same
+     * keys are parsed faster and the resulting trees hold every key only once.
+     * See JSONReader.setKeyCanonicalization().
+     *
+     * @param canonicalize_keys Whether the keys should be canonicalized.
+     */
+    public void setKeyCanonicalization(boolean canonicalize_keys){
+        reader.setKeyCanonicalization(canonicalize_keys);
+        this.canonicalize_keys = canonicalize_keys;
+    }
 
-            return new JSONToken(token_string);
-        }
-        // Next token is a literal (number/boolean/null)
-            // Validity is checked in the next step
-        else{
-            do {
-                token_sb.append(current_char);
-                this.incrementIndex();
-            }  while(!isWhitespace(current_char) && !isTokenChar(current_char) && !this.eof());
-        }
+    /**
+     * Turns the lazy parsing on or off (off by default).
+     * When on, the sources held in memory (String, byte[], ByteBuffer) are only
+     * scanned once for the brackets of their Objects and Arrays, and the
+     * returned tree is built from that structural index on demand: every Object
+     * and Array is parsed upon its first access, its nested Objects and Arrays
+     * are left as shells until they are accessed as well. Reading a few values
+     * of a large document thus costs about as much as the scan, and the parts
+     * of the document never accessed allocate only their index entry.
+     * Only the brackets are checked before parseString() returns, other grammar
+     * violations inside a container are thrown as UncheckedJSONException upon
+     * its first access. The source must not be changed while the tree is in use.
+     * A lazy tree may be read by more threads at once. Sources read from a Reader
+     * or a stream are always parsed whole.
+     *
+     * @param lazy Whether the following parseString() calls should parse lazily.
+     */
+    public void setLazy(boolean lazy){
+        this.lazy = lazy;
+    }
 
-        // This constructor checks the validity of the fetched character sequence
-        return new JSONToken(token_sb.toString());
+    /**
+     * Turns the parallel parsing on or off (off by default).
+     * When on, the sources held in memory (String, byte[], ByteBuffer) whose value
+     * is a large Array (e.g. a batch of records) are first scanned for the brackets
+     * of their Objects and Arrays, as in lazy mode. The values of the top-level Array
+     * are then split to parts of about the same length, which are parsed by the tasks
+     * of the pool and joined in their order. The resulting tree is the same as
+     * when parsed on the calling thread. Small sources, other values and sources
+     * read from a Reader or a stream are parsed on the calling thread.
+     * The lazy mode, if turned on as well, takes precedence.
+     *
+     * @param pool The pool to parse the parts (e.g. ForkJoinPool.commonPool()),
+     *             null to parse everything on the calling thread.
+     */
+    public void setParallel(ForkJoinPool pool){
+        this.pool = pool;
     }
 
     /**
-     * Fetches all tokens of the input into this.tokens().
-     * Calls get_next_token() until the char_index is at the end of input.
+     * Sets the way the parsed numbers are stored, NUMBER_MODE.PRIMITIVE by default.
+     * In NUMBER_MODE.LAZY, every number keeps its literal and is decoded only
+     * when its value is requested, so large integers and long decimals
+     * are kept exact and are serialized unchanged.
      *
-     * @throws JSONUnfinishedStringAtEOF If the input ends at unfinished String token.
+     * @param number_mode The mode to be used by this.parseString().
      */
-    private void getTokens() throws JSONUnfinishedStringAtEOF{
-        while(char_index < json_source.length()){
-            JSONToken token = this.getNextToken();
-            tokens.add(token);
-        }
+    public void setNumberMode(NUMBER_MODE number_mode){
+        this.number_mode = number_mode;
     }
 
     /**
-     * Processes a JSON array starting at the currently processed token.
-     * Expects the token_index to point at a START_ARRAY token ('[').
-     * After running the current token points at the END_ARRAY token (']').
+     * Processes a JSON array whose START_ARRAY event was just read.
+     * After running the current event is the END_ARRAY event.
      *
-     * @return The JSON Array wrapped in a JSONValue.
+     * @return The JSON Array.
      * @throws JSONMalformedSourceException When the array does not conform
-     * to the grammar or an EOT is found during processing.
+     * to the grammar or an EOF is found during processing.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
      */
-    private JSONValue getArray() throws JSONMalformedSourceException{
+    private JSONArray getArray() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
 
         // The Array to be returned
         JSONArray array = new JSONArray();
 
-        // token_index now points at START_OBJECT
-        incrementToken();
+        // The reader guarantees the delimiters, so only the values are left
+            // Numbers are added unwrapped, so that all-number Arrays stay numeric
+        EVENT_TYPE event;
+        while((event = reader.next()) != EVENT_TYPE.END_ARRAY){
+            if(event == EVENT_TYPE.NUMBER && number_mode == NUMBER_MODE.PRIMITIVE){
+                if(reader.isIntegral()) array.add(reader.getLong());
+                else array.add(reader.getNumber());
+            }
+            else {
+                array.add(getValue(event));
+            }
+        }
 
-        // To deal with no trailing comma, we do these steps:
-        // 1.) If the array contains no values, return empty array
-        // 2.) Read a value WITHOUT comma after it
-        // 3.) Until the end of the array, we will read in order
-        //     COMMA, VALUE
+        return array;
+    }
 
-        // Step 1.)
-        if(current_token.type == TOKEN_TYPE.END_ARRAY){
-            return new JSONValue(array);
+    /**
+     * Processes a key-value pair whose KEY event was just read
+     * and pushes it to the pending pairs.
+     *
+     * @throws JSONMalformedSourceException If the pair is not properly formed.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private void addKeyValue() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        String key = reader.getString();
+        JSONValue value = getValue(reader.next());
+
+        // The value may have used the stack itself, so the slot is taken only now
+        if(pending_size == pending_keys.length){
+            pending_keys = Arrays.copyOf(pending_keys, pending_size * 2);
+            pending_values = Arrays.copyOf(pending_values, pending_size * 2);
         }
+        pending_keys[pending_size] = key;
+        pending_values[pending_size] = value;
+        pending_size++;
+    }
 
-        //Step 2.)
-        array.add(getValue());
+    /**
+     * Processes a JSON object whose START_OBJECT event was just read.
+     * Utilizes the addKeyValue function to collect the key-value pairs,
+     * from which the object is then created with its final shape.
+     * After running the current event is the END_OBJECT event.
+     *
+     * @return The JSON object.
+     * @throws JSONMalformedSourceException When the object does not conform
+     * to the grammar or an EOF is found during processing.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private JSONObject getObject() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
 
-        // Step 3.)
-        while(!this.eot() && current_token.type != TOKEN_TYPE.END_ARRAY){
-            if(current_token.type == TOKEN_TYPE.ELEMENT_DELIMITER){
-                incrementToken();
-                array.add(getValue());
-            }
-            else {
-                throw new MalformedParameterizedTypeException(
-                        "Expected an element separator between values in Array, found "
-                            + current_token.value.toString()
-                );
-            }
+        // Pairs of this object are pushed above the ones of the enclosing objects
+        int base = pending_size;
+
+        // Every event before END_OBJECT is a KEY followed by its value
+        while(reader.next() != EVENT_TYPE.END_OBJECT){
+            addKeyValue();
         }
 
-        // If the construction ended by finding EOT, we throw
-            // No closing bracket found
-        if(this.eot()){
-            throw new MalformedParameterizedTypeException(
-                    "Unexpected end of file during Array construction"
-            );
+        JSONObject object = JSONObject.fromPairs(shapes, pending_keys, pending_values, base, pending_size);
+
+        // Pop the pairs, not keeping the values reachable from the parser
+        Arrays.fill(pending_keys, base, pending_size, null);
+        Arrays.fill(pending_values, base, pending_size, null);
+        pending_size = base;
+
+        return object;
+    }
+
+    /**
+     * Wraps the number of the current NUMBER event according to this.number_mode.
+     *
+     * @return The number wrapped in a JSONValue.
+     */
+    private JSONValue getNumber(){
+        if(number_mode == NUMBER_MODE.LAZY){
+            return JSONValue.fromLiteral(reader.getNumberText(), reader.isIntegral());
         }
+        return reader.isIntegral() ? new JSONValue(reader.getLong()) : new JSONValue(reader.getNumber());
+    }
 
-        return new JSONValue(array);
+    /**
+     * Processes the Object or Array whose START_ event was just read.
+     *
+     * @param event START_OBJECT or START_ARRAY.
+     * @return The container wrapped in a JSONValue.
+     * @throws JSONMalformedSourceException If the container does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private JSONValue getContainer(EVENT_TYPE event) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return event == EVENT_TYPE.START_OBJECT ? new JSONValue(getObject()) : new JSONValue(getArray());
     }
 
     /**
-     * Processes a key-value pair and adds it to the JSONObject.
-     * The key must be a string and key and value must be separated by a colon (:).
+     * Jumps over the Object or Array whose START_ event was just read
+     * and creates its lazy shell, to be parsed upon its first access.
+     * After running the current event is its END_ event.
      *
-     * @param object The JSONObject to which the pair should be added.
-     * @throws JSONMalformedSourceException If the pair is not properly formed.
+     * @return The lazy shell of the container wrapped in a JSONValue.
+     * @throws JSONMalformedSourceException Never, the container is not read.
+     * @throws JSONUnfinishedStringAtEOF Never, the container is not read.
+     */
+    private JSONValue getLazyShell() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        int ordinal = reader.containerOrdinal();
+        reader.skipValue();
+        return lazy_index.valueAt(ordinal);
+    }
+
+    /**
+     * Parses the pairs of the Object of the lazy tree of this.lazy_index.
+     * Used by the index when the lazy shell of the Object is accessed.
+     *
+     * @param ordinal The number of the Object in the index.
+     * @return The materialized Object, its nested containers are lazy shells.
+     * @throws JSONMalformedSourceException If the Object does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF Never, the Strings were checked by the scan.
      */
-    private void addKeyValue(JSONObject object) throws JSONMalformedSourceException {
+    JSONObject materializeObject(int ordinal) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        reader.reset(lazy_index, ordinal);
+        reader.next();
+        return getObject();
+    }
 
-        // Process Key name
-        if(current_token.type != TOKEN_TYPE.STRING_LITERAL){
-            throw new JSONMalformedSourceException(
-                    String.format(
-                        "String expected in place of key. Found '%s'",
-                        current_token.value.toString()
-                    )
-            );
-        }
-        String key = (String) current_token.value;
-        incrementToken();
-
-        // Process delimiter (colon)
-        if(current_token.type != TOKEN_TYPE.KEY_VALUE_DELIMITER){
-            throw new JSONMalformedSourceException(
-                String.format(
-                    "Expeted ':' (colon) between key and value. Found '%s'",
-                    current_token.value.toString()
-                )
-            );
+    /**
+     * Parses the values of the Array of the lazy tree of this.lazy_index.
+     * Used by the index when the lazy shell of the Array is accessed.
+     *
+     * @param ordinal The number of the Array in the index.
+     * @return The materialized Array, its nested containers are lazy shells.
+     * @throws JSONMalformedSourceException If the Array does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF Never, the Strings were checked by the scan.
+     */
+    JSONArray materializeArray(int ordinal) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        reader.reset(lazy_index, ordinal);
+        reader.next();
+        return getArray();
+    }
+
+    /**
+     * Scans the in-memory source and returns the lazy shell of its value.
+     * A parser materializing the containers is created for the tree, with the
+     * number mode, the key canonicalization and the shapes of this one.
+     *
+     * @return The lazy shell of the value, null if the value is not an Object or an Array.
+     * @throws JSONMalformedSourceException If the brackets of the source do not match.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private JSONValue parseLazily() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        JSONStructuralIndex index = lazy_string != null
+                ? JSONStructuralIndex.build(lazy_string)
+                : JSONStructuralIndex.build(lazy_bytes);
+        if(index == null){
+            return null;
         }
-        incrementToken();
 
-        // Process value
-        object.put(key, getValue());
+        JSONParser materializer = new JSONParser();
+        materializer.number_mode = number_mode;
+        materializer.shapes = shapes;
+        materializer.setKeyCanonicalization(canonicalize_keys);
+        materializer.lazy_index = index;
+        index.materializer = materializer;
+        return index.valueAt(0);
     }
 
     /**
-     * Processes a JSON object starting at the currently processed token.
-     * Utilizes the addKeyValue function to process key-value pairs.
-     * Expects the token_index to point at a START_OBJECT token ('{').
-     * After running the current token points at the END_ARRAY token ('}').
+     * Scans the in-memory source and parses the parts of its top-level Array in parallel.
+     * Every part is parsed by its own JSONParser with the number mode, the key
+     * canonicalization and the shapes of this one.
      *
-     * @return The JSON object wrapped in a JSONValue.
-     * @throws JSONMalformedSourceException When the object does not conform
-     * to the grammar or an EOT is found during processing.
+     * @return The parsed Array, null if the source is not a large enough Array.
+     * @throws JSONMalformedSourceException If the source does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
      */
-    private JSONValue getObject() throws JSONMalformedSourceException{
+    private JSONValue parseInParallel() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        long length = lazy_string != null ? lazy_string.length() : lazy_bytes.limit - lazy_bytes.start;
+        if(length < PARALLEL_MIN_LENGTH){
+            return null;
+        }
+        JSONStructuralIndex index = lazy_string != null
+                ? JSONStructuralIndex.build(lazy_string)
+                : JSONStructuralIndex.build(lazy_bytes);
+        if(index == null || index.isObject(0)){
+            return null;
+        }
+        long[] ends = index.splitTopLevel(pool.getParallelism() * PARTS_PER_THREAD);
+        if(ends.length == 0){
+            return null;
+        }
 
-        // The object to be returned
-        JSONObject object = new JSONObject();
+        // Every part starts where the previous one ended, the last one ends by the closing bracket
+        List<PartTask> parts = new ArrayList<>(ends.length + 1);
+        long from = index.openAt(0) + 1;
+        for(long end : ends){
+            parts.add(new PartTask(this, index, from, end));
+            from = end;
+        }
+        parts.add(new PartTask(this, index, from, -1));
+
+        JSONArray array = pool.invoke(new RecursiveTask<JSONArray>() {
+            @Override
+            protected JSONArray compute(){
+                // Joined in their order, so that the error of the first malformed part is thrown
+                for(PartTask part : parts){
+                    part.fork();
+                }
+                JSONArray joined = parts.get(0).join();
+                for(int i = 1; i < parts.size(); i++){
+                    joined.addAll(parts.get(i).join());
+                }
+                return joined;
+            }
+        });
+        return new JSONValue(array);
+    }
 
-        // token_index now points at START_OBJECT
-        incrementToken();
+    /**
+     * Parses a part of the top-level Array recorded in the structural index.
+     * Used by the tasks of the parallel parsing, the reader is reset to the part.
+     *
+     * @param index The structural index of the source.
+     * @param from The position where the part starts.
+     * @param to The position where the part ends, -1 for the last part.
+     * @return The values of the part in an Array.
+     * @throws JSONMalformedSourceException If the part does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF Never, the Strings were checked by the scan.
+     */
+    private JSONArray parsePart(JSONStructuralIndex index, long from, long to) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        reader.reset(index, from, to);
+        return getArray();
+    }
 
-        // To deal with no trailing comma, we do these steps:
-            // 1.) If the object contains no values, return empty object
-            // 2.) Read a value WITHOUT comma after it
-            // 3.) Until the end of the object, we will read in order
-            //     COMMA, KEY, COLON, VALUE
+    /**
+     * A task parsing one part of the top-level Array by a JSONParser of its own.
+     * Checked exceptions are wrapped in UncheckedJSONException, which is thrown
+     * by join() and unwrapped by parseString().
+     * The task is never serialized, so it declares no serialVersionUID.
+     */
+    @SuppressWarnings("serial")
+    private final static class PartTask extends RecursiveTask<JSONArray> {
+
+        // The parser whose settings are used
+        private final JSONParser settings;
+
+        // The part of the source, see JSONReader.reset(JSONStructuralIndex, long, long)
+        private final JSONStructuralIndex index;
+        private final long from;
+        private final long to;
+
+        /**
+         * Creates the task parsing the part.
+         * @param settings The parser whose settings are used.
+         * @param index The structural index of the source.
+         * @param from The position where the part starts.
+         * @param to The position where the part ends, -1 for the last part.
+         */
+        PartTask(JSONParser settings, JSONStructuralIndex index, long from, long to){
+            this.settings = settings;
+            this.index = index;
+            this.from = from;
+            this.to = to;
+        }
 
-        // Step 1.)
-        if(current_token.type == TOKEN_TYPE.END_OBJECT){
-            return new JSONValue(object);
+        /**
+         * Parses the part.
+         * @return The values of the part in an Array.
+         * @throws UncheckedJSONException If the part is malformed.
+         */
+        @Override
+        protected JSONArray compute(){
+            JSONParser parser = new JSONParser();
+            parser.number_mode = settings.number_mode;
+            parser.shapes = settings.shapes;
+            parser.setKeyCanonicalization(settings.canonicalize_keys);
+            try {
+                return parser.parsePart(index, from, to);
+            }
+            catch (JSONMalformedSourceException | JSONUnfinishedStringAtEOF e){
+                throw new UncheckedJSONException(e);
+            }
         }
+    }
 
-        // Step 2.)
-        addKeyValue(object);
+    /**
+     * Builds the value starting at the provided event.
+     * If the value is not an Object or Array, only the one event is processed.
+     * Otherwise all events until the matching END_OBJECT / END_ARRAY are processed.
+     *
+     * @param event The event starting the value, as returned by reader.next().
+     * @return JSONValue starting at the event
+     * @throws JSONMalformedSourceException If the source does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private JSONValue getValue(EVENT_TYPE event) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        return switch(event) {
+            case STRING ->          new JSONValue(reader.getString());
+            case NUMBER ->          getNumber();
+            case BOOLEAN ->         new JSONValue(reader.getBoolean());
+            case NULL ->            new JSONValue();
+            case START_ARRAY, START_OBJECT -> lazy_index != null ? getLazyShell() : getContainer(event);
+            // The reader never reports other events in place of a value
+            default -> throw new IllegalStateException("Unexpected event " + event);
+        };
+    }
 
-        // Step 3.)
-        while(!this.eot() && current_token.type != TOKEN_TYPE.END_OBJECT){
-            if(current_token.type == TOKEN_TYPE.ELEMENT_DELIMITER){
-                incrementToken();
-                addKeyValue(object);
+    /**
+     * Parses the source and returns the JSON value it contains.
+     * The source is consumed event by event, so only the resulting
+     * JSONValue tree is kept in memory. In lazy mode, an in-memory source
+     * holding an Object or an Array is only indexed and its lazy shell is returned.
+     * Failures of the underlying source are rethrown as UncheckedIOException.
+     *
+     * @return The JSON value contained in the source.
+     * @throws JSONMalformedSourceException If the source does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     * @throws IllegalStateException If no source was set.
+     */
+    public JSONValue parseString() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        this.forgetPending();
+
+        // Scalar values are not worth indexing, they are parsed as usual
+        if(lazy && (lazy_string != null || lazy_bytes != null)){
+            JSONValue value = this.parseLazily();
+            if(value != null) return value;
+        }
+        if(pool != null && (lazy_string != null || lazy_bytes != null)){
+            JSONValue value;
+            try {
+                value = this.parseInParallel();
             }
-            else {
-                throw new MalformedParameterizedTypeException(
-                        "Expected an element separator between values in Object, found "
-                        + current_token.value.toString()
-                );
+            catch (UncheckedJSONException e){
+                // The first malformed part is reported, as it would be by the parsing on the calling thread
+                if(e.getCause() instanceof JSONUnfinishedStringAtEOF) throw (JSONUnfinishedStringAtEOF) e.getCause();
+                throw (JSONMalformedSourceException) e.getCause();
             }
+            if(value != null) return value;
         }
 
-        // If the construction ended by finding EOT, we throw
-            // No closing bracket found
-        if(this.eot()){
-            throw new MalformedParameterizedTypeException(
-                    "Unexpected end of file during Object construction"
-            );
-        }
+        JSONValue value = getValue(reader.next());
 
-        return new JSONValue(object);
+        // All JSON inputs must contain only one value
+        reader.next();
+        return value;
     }
 
     /**
-     * Fetches a value starting at the currently processed token.
-     * Expects the token_index to be at a JSON value.
-     * If the value is not an Object or Array, only one token is processed.
-     * Otherwise all tokens until next END_OBJECT / END_ARRAY are processed.
-     * DOES NOT move the token_index behind the value (for compound values
-     * the index points at the last token of the value).
+     * Forgets the pairs left by a failed parsing and the shapes once there is no room for more.
+     */
+    private void forgetPending(){
+        Arrays.fill(pending_keys, 0, pending_size, null);
+        Arrays.fill(pending_values, 0, pending_size, null);
+        pending_size = 0;
+        if(shapes.isTreeFull()){
+            shapes = JSONShape.newRoot();
+        }
+    }
+
+    /**
+     * Selects the values of the source by the compiled query.
+     * The source is read event by event and only the selected values are built,
+     * the Objects and Arrays that cannot contain a selected value are skipped.
+     * The whole source is still checked against the grammar. As in the built tree,
+     * the last of the members with the same key wins (see JSONPath). In lazy mode, an
+     * in-memory source is indexed and the query is evaluated on its lazy tree,
+     * so the skipped containers are jumped over without reading them at all.
+     * Failures of the underlying source are rethrown as UncheckedIOException.
      *
-     * @return JSONValue of the current token
-     * @throws JSONMalformedSourceException If the current token is not a value
+     * @param path The compiled query.
+     * @return The selected values in the order of the source, empty if there are none.
+     * @throws JSONMalformedSourceException If the source does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     * @throws IllegalStateException If no source was set.
      */
-    private JSONValue getValue() throws JSONMalformedSourceException {
+    public List<JSONValue> select(JSONPath path) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        this.forgetPending();
 
-        JSONToken current_token = tokens.get(token_index);
+        // Scalar values are not worth indexing, they are selected as usual
+        if(lazy && (lazy_string != null || lazy_bytes != null)){
+            JSONValue root = this.parseLazily();
+            if(root != null) return path.select(root);
+        }
 
-        // Check if the token is a value and return appropriate JSONValue
-        JSONValue value;
-        switch(current_token.type) {
-            case STRING_LITERAL ->  value = new JSONValue((String) current_token.value);
-            case NUMBER ->          value = new JSONValue((Double) current_token.value);
-            case BOOLEAN ->         value = new JSONValue((boolean) current_token.value);
-            case NULL ->            value = new JSONValue();
-            case START_ARRAY ->     value = getArray();
-            case START_OBJECT ->    value = getObject();
-            default -> {
-                // The token is not value -> Throw
-                throw new JSONMalformedSourceException(
-                    "Expected a value, provided " + current_token.value.toString())
-                ;
-            }
+        List<JSONValue> matches = new ArrayList<>();
+        this.selectValue(path, reader.next(), path.all(), 0, matches);
+
+        // All JSON inputs must contain only one value
+        reader.next();
+        return matches;
+    }
+
+    /**
+     * Selects the values inside the value starting at the provided event.
+     * A value selected by some pointer is built whole and the longer pointers
+     * are evaluated on the built tree. Otherwise the members of an Object and
+     * the values of an Array are walked, and the ones not matched by the next
+     * segment of any pointer are skipped.
+     * After running the current event is the last event of the value.
+     *
+     * @param path The compiled query.
+     * @param event The event starting the value, as returned by reader.next().
+     * @param active The pointers whose first depth segments select the value.
+     * @param depth The number of the segments matching the value.
+     * @param matches The list the selected values are added to.
+     * @throws JSONMalformedSourceException If the source does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private void selectValue(JSONPath path, EVENT_TYPE event, long active, int depth, List<JSONValue> matches)
+            throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        if(path.completeAt(active, depth) != 0){
+            path.collect(getValue(event), active, depth, matches);
+            return;
         }
 
-        incrementToken();
-        return value;
+        if(event == EVENT_TYPE.START_OBJECT){
+            this.selectMembers(path, active, depth, matches);
+        }
+        else if(event == EVENT_TYPE.START_ARRAY){
+            int index = 0;
+            EVENT_TYPE value;
+            while((value = reader.next()) != EVENT_TYPE.END_ARRAY){
+                long next = path.matchIndex(active, depth, index++);
+                if(next == 0) reader.skipValue();
+                else this.selectValue(path, value, next, depth + 1, matches);
+            }
+        }
     }
 
-    // Pridat streamove citanie?
-    public JSONValue parseString() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+    /**
+     * Selects the values inside the members of the Object whose START_OBJECT is the current event.
+     * A repeated key replaces the earlier value as in the built Object: the values
+     * selected inside the later member take the place of the ones selected inside
+     * the earlier member, so the result is the same as selecting from the tree.
+     * After running the current event is the END_OBJECT.
+     *
+     * @param path The compiled query.
+     * @param active The pointers whose first depth segments select the Object.
+     * @param depth The number of the segments matching the Object.
+     * @param matches The list the selected values are added to.
+     * @throws JSONMalformedSourceException If the source does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private void selectMembers(JSONPath path, long active, int depth, List<JSONValue> matches)
+            throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+
+        // The order of the matched keys and the index of the first value selected inside each of them
+            // Created upon the first matched member, the values of a member end where the next member starts
+        HashMap<String, Integer> member_order = null;
+        int[] member_starts = null;
+        int member_count = 0;
+
+        while(reader.next() != EVENT_TYPE.END_OBJECT){
+            String key = reader.getString();
+            long next = path.matchKey(active, depth, key);
+            EVENT_TYPE member = reader.next();
+            if(next == 0){
+                reader.skipValue();
+                continue;
+            }
+            if(member_order == null){
+                member_order = new HashMap<>();
+                member_starts = new int[4];
+            }
 
-        // Tokenize the input string
-        this.getTokens();
+            Integer order = member_order.get(key);
+            if(order == null){
+                if(member_count == member_starts.length){
+                    member_starts = Arrays.copyOf(member_starts, member_count * 2);
+                }
+                member_order.put(key, member_count);
+                member_starts[member_count++] = matches.size();
+                this.selectValue(path, member, next, depth + 1, matches);
+                continue;
+            }
 
-        // All JSON inputs must contain only one value
-        return getValue();
+            // The key repeats, the values selected inside its earlier member are replaced
+            List<JSONValue> replacement = new ArrayList<>();
+            this.selectValue(path, member, next, depth + 1, replacement);
+            int start = member_starts[order];
+            int end = order + 1 < member_count ? member_starts[order + 1] : matches.size();
+            matches.subList(start, end).clear();
+            matches.addAll(start, replacement);
+            for(int later = order + 1; later < member_count; later++){
+                member_starts[later] += replacement.size() - (end - start);
+            }
+        }
     }
 }
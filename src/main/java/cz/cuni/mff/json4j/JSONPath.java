@@ -0,0 +1,294 @@
+package cz.cuni.mff.json4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled query selecting values of a JSON document by JSON Pointers (RFC 6901).
+ * A pointer is a sequence of segments, each starting by '/': a segment selects
+ * the member of an Object with the same key, or the value of an Array at the
+ * index if the segment is a non-negative integer. In the segments, "~1" stands
+ * for '/' and "~0" for '~'. The empty pointer selects the whole document.
+ * In addition to RFC 6901, the segment "*" selects all members of an Object or
+ * all values of an Array (so "/items/*&#47;id" selects the ids of all items).
+ * A query can be compiled of up to 64 pointers, it then selects the values
+ * selected by any of them, each value once.
+ * The query is compiled once and can be evaluated any number of times, also by
+ * more threads at once: against a JSONValue tree by select(), or while parsing
+ * by JSONParser.select(), which skips the values that cannot be selected
+ * without building them.
+ * The selected values are always returned in the order of the document.
+ * If an Object has more members with the same key, only the last one is
+ * selected from, at the position of the first one, as the parsed JSONObject
+ * keeps them. JSONParser.select() gives the same result as select() of the
+ * parsed tree, with or without lazy mode.
+ */
+public final class JSONPath {
+
+    // The maximal number of pointers in a query, the ones matching a value are kept in a long
+    private final static int MAX_POINTERS = 64;
+
+    // The segment selecting all members of an Object or all values of an Array
+    private final static String WILDCARD = "*";
+
+    // The pointers as written, for toString()
+    private final String[] expressions;
+
+    // The unescaped segments of every pointer, null for the wildcard
+    private final String[][] keys;
+
+    // The Array index of every segment of every pointer, -1 if the segment is not an index
+    private final int[][] indexes;
+
+    /**
+     * Creates the query of the compiled pointers.
+     * @param expressions The pointers as written.
+     * @param keys The unescaped segments of every pointer.
+     * @param indexes The Array indexes of every segment of every pointer.
+     */
+    private JSONPath(String[] expressions, String[][] keys, int[][] indexes){
+        this.expressions = expressions;
+        this.keys = keys;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Compiles the query of the pointers.
+     * @param pointers The JSON Pointers, optionally with the "*" segments.
+     * @return The compiled query selecting the values selected by any of the pointers.
+     * @throws IllegalArgumentException If a pointer is not valid (it is not empty and does
+     * not start by '/', or it contains '~' not followed by '0' or '1'), or if there are
+     * no pointers or more than 64 of them.
+     */
+    public static JSONPath compile(String... pointers){
+        if(pointers.length == 0 || pointers.length > MAX_POINTERS){
+            throw new IllegalArgumentException(
+                    "Expected 1 to " + MAX_POINTERS + " pointers, provided " + pointers.length
+            );
+        }
+        String[][] keys = new String[pointers.length][];
+        int[][] indexes = new int[pointers.length][];
+        for(int p = 0; p < pointers.length; p++){
+            keys[p] = parsePointer(pointers[p]);
+            indexes[p] = new int[keys[p].length];
+            for(int d = 0; d < keys[p].length; d++){
+                indexes[p][d] = keys[p][d] == null ? -1 : parseIndex(keys[p][d]);
+            }
+        }
+        return new JSONPath(pointers.clone(), keys, indexes);
+    }
+
+    /**
+     * Splits the pointer to its unescaped segments.
+     * @param pointer The JSON Pointer.
+     * @return The segments, null for the wildcards.
+     * @throws IllegalArgumentException If the pointer is not valid.
+     */
+    private static String[] parsePointer(String pointer){
+        if(pointer.isEmpty()){
+            return new String[0];
+        }
+        if(pointer.charAt(0) != '/'){
+            throw new IllegalArgumentException("JSON Pointer must be empty or start by '/', provided " + pointer);
+        }
+
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        for(int i = 1; i <= pointer.length(); i++){
+            char c = i < pointer.length() ? pointer.charAt(i) : '/';
+            if(c == '/'){
+                String key = segment.toString();
+                segments.add(key.equals(WILDCARD) ? null : key);
+                segment.setLength(0);
+            }
+            else if(c == '~'){
+                char escaped = i + 1 < pointer.length() ? pointer.charAt(++i) : ' ';
+                if(escaped != '0' && escaped != '1'){
+                    throw new IllegalArgumentException("Invalid escape sequence in JSON Pointer " + pointer);
+                }
+                segment.append(escaped == '0' ? '~' : '/');
+            }
+            else {
+                segment.append(c);
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    /**
+     * Reads the Array index of the segment.
+     * Only non-negative integers without leading zeros are indexes (RFC 6901),
+     * the segment "-" (the position after the last value) never selects anything.
+     * @param segment The unescaped segment.
+     * @return The index, -1 if the segment is not an index.
+     */
+    private static int parseIndex(String segment){
+        if(segment.isEmpty() || segment.length() > 9 || (segment.length() > 1 && segment.charAt(0) == '0')){
+            return -1;
+        }
+        int index = 0;
+        for(int i = 0; i < segment.length(); i++){
+            char c = segment.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Selects the values of the tree.
+     * Only the Objects and Arrays on the way to the selected values are visited,
+     * so the unvisited parts of a lazily parsed tree are never parsed.
+     * @param root The root of the document.
+     * @return The selected values in the order of the document, empty if there are none.
+     */
+    public List<JSONValue> select(JSONValue root){
+        List<JSONValue> matches = new ArrayList<>();
+        this.collect(root, this.all(), 0, matches);
+        return matches;
+    }
+
+    /**
+     * Selects the first value of the tree.
+     * @param root The root of the document.
+     * @return The first selected value in the order of the document, null if there is none.
+     */
+    public JSONValue selectFirst(JSONValue root){
+        List<JSONValue> matches = this.select(root);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * Get the set of all the pointers of the query.
+     * @return The bits of all the pointers.
+     */
+    long all(){
+        return keys.length == MAX_POINTERS ? -1L : (1L << keys.length) - 1;
+    }
+
+    /**
+     * Finds the pointers ending at the depth.
+     * @param active The pointers selecting the value.
+     * @param depth The number of the segments of the pointers matching the value.
+     * @return The subset of the pointers with exactly depth segments.
+     */
+    long completeAt(long active, int depth){
+        long complete = 0;
+        for(long rest = active; rest != 0; rest &= rest - 1){
+            int p = Long.numberOfTrailingZeros(rest);
+            if(keys[p].length == depth) complete |= 1L << p;
+        }
+        return complete;
+    }
+
+    /**
+     * Finds the pointers continuing to the member of an Object.
+     * @param active The pointers selecting the Object (all longer than depth).
+     * @param depth The number of the segments of the pointers matching the Object.
+     * @param key The key of the member.
+     * @return The subset of the pointers whose next segment selects the member.
+     */
+    long matchKey(long active, int depth, String key){
+        long matching = 0;
+        for(long rest = active; rest != 0; rest &= rest - 1){
+            int p = Long.numberOfTrailingZeros(rest);
+            String segment = keys[p][depth];
+            if(segment == null || segment.equals(key)) matching |= 1L << p;
+        }
+        return matching;
+    }
+
+    /**
+     * Finds the pointers continuing to the value of an Array.
+     * @param active The pointers selecting the Array (all longer than depth).
+     * @param depth The number of the segments of the pointers matching the Array.
+     * @param index The index of the value.
+     * @return The subset of the pointers whose next segment selects the value.
+     */
+    long matchIndex(long active, int depth, int index){
+        long matching = 0;
+        for(long rest = active; rest != 0; rest &= rest - 1){
+            int p = Long.numberOfTrailingZeros(rest);
+            if(keys[p][depth] == null || indexes[p][depth] == index) matching |= 1L << p;
+        }
+        return matching;
+    }
+
+    /**
+     * Checks if some of the pointers has a wildcard segment at the depth.
+     * @param active The pointers to be checked.
+     * @param depth The number of the segment.
+     * @return Whether a pointer matches any key or index at the depth.
+     */
+    private boolean hasWildcard(long active, int depth){
+        for(long rest = active; rest != 0; rest &= rest - 1){
+            if(keys[Long.numberOfTrailingZeros(rest)][depth] == null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the values of the tree selected by the pointers to the matches.
+     * Used also by the JSONParser for the parts of the document it has built.
+     * @param value The value selected by the first depth segments of the pointers.
+     * @param active The pointers selecting the value.
+     * @param depth The number of the segments matching the value.
+     * @param matches The list the selected values are added to.
+     */
+    void collect(JSONValue value, long active, int depth, List<JSONValue> matches){
+        long complete = this.completeAt(active, depth);
+        if(complete != 0){
+            matches.add(value);
+            active &= ~complete;
+        }
+        if(active == 0){
+            return;
+        }
+
+        if(value.type == JSON_TYPE.OBJECT){
+            JSONObject object = value.getObject().stable();
+
+            // A single key is looked up, otherwise the members are walked in their order
+            if(Long.bitCount(active) == 1 && keys[Long.numberOfTrailingZeros(active)][depth] != null){
+                JSONValue member = object.get(keys[Long.numberOfTrailingZeros(active)][depth]);
+                if(member != null) this.collect(member, active, depth + 1, matches);
+                return;
+            }
+            for(int slot = 0; slot < object.size(); slot++){
+                long next = this.matchKey(active, depth, object.keyAt(slot));
+                if(next != 0) this.collect(object.valueAt(slot), next, depth + 1, matches);
+            }
+        }
+        else if(value.type == JSON_TYPE.ARRAY){
+            JSONArray array = value.getArray().stable();
+
+            // Without a wildcard only the indexes of the pointers are looked up, in ascending order
+            if(!this.hasWildcard(active, depth)){
+                int index = -1;
+                while(true){
+                    int next_index = Integer.MAX_VALUE;
+                    for(long rest = active; rest != 0; rest &= rest - 1){
+                        int segment = indexes[Long.numberOfTrailingZeros(rest)][depth];
+                        if(segment > index && segment < next_index) next_index = segment;
+                    }
+                    if(next_index >= array.size()) return;
+                    index = next_index;
+                    this.collect(array.get(index), this.matchIndex(active, depth, index), depth + 1, matches);
+                }
+            }
+            for(int index = 0; index < array.size(); index++){
+                long next = this.matchIndex(active, depth, index);
+                if(next != 0) this.collect(array.get(index), next, depth + 1, matches);
+            }
+        }
+    }
+
+    /**
+     * Get the pointers of the query.
+     * @return The pointers as compiled, separated by commas.
+     */
+    @Override
+    public String toString(){
+        return String.join(",", expressions);
+    }
+}
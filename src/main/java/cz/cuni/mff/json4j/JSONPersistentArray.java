@@ -0,0 +1,230 @@
+package cz.cuni.mff.json4j;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable JSON Array, changed by creating new versions of it.
+ * with(), withAdded() and without() return a new Array and leave this one
+ * unchanged, so a tree of persistent Objects and Arrays can be read by any
+ * number of threads without locking and every thread can derive its own
+ * variants of it.
+ * The values are kept in a JSONVectorTrie, which the versions share except
+ * for the nodes on the path to the changed value, so replacing or appending
+ * a value takes O(log n) time and indexed access is practically constant.
+ * Removing a value rebuilds the Array in linear time.
+ * All values of the Array are persistent as well (see JSONValue.toPersistent()).
+ * It can be used wherever a JSONArray is expected, the methods changing
+ * the Array in place throw UnsupportedOperationException.
+ */
+public final class JSONPersistentArray extends JSONArray {
+
+    // The values in their order
+    private final JSONVectorTrie value_sequence;
+
+    /**
+     * Creates an empty persistent JSON Array.
+     */
+    public JSONPersistentArray(){
+        this(JSONVectorTrie.EMPTY);
+    }
+
+    /**
+     * Creates a persistent copy of the JSON Array.
+     * The values are copied in their order, nested Objects and Arrays are
+     * copied to persistent ones as well. The copy does not change with the Array.
+     * @param array The Array to be copied.
+     */
+    public JSONPersistentArray(JSONArray array){
+        this(copyValues(array.stable()));
+    }
+
+    /**
+     * Creates a version of the Array.
+     * @param value_sequence The values in their order.
+     */
+    private JSONPersistentArray(JSONVectorTrie value_sequence){
+        super(0);
+        this.value_sequence = value_sequence;
+    }
+
+    /**
+     * Creates the version of the Array with the value at the index replaced.
+     * The value is converted by JSONValue.toPersistent(), which copies mutable Objects and Arrays.
+     * @param index Index of the value to be replaced.
+     * @param value Value to be put at the index.
+     * @return The new version of the Array, this one is not changed.
+     * @throws IndexOutOfBoundsException If the index is not less than size().
+     */
+    public JSONPersistentArray with(int index, JSONValue value){
+        return new JSONPersistentArray(value_sequence.set(index, value.toPersistent()));
+    }
+
+    /**
+     * Creates the version of the Array with the value added after all the other ones.
+     * The value is converted by JSONValue.toPersistent(), which copies mutable Objects and Arrays.
+     * @param value Value to be added.
+     * @return The new version of the Array, this one is not changed.
+     */
+    public JSONPersistentArray withAdded(JSONValue value){
+        return new JSONPersistentArray(value_sequence.append(value.toPersistent()));
+    }
+
+    /**
+     * Creates the version of the Array without the value at the index.
+     * The following values move to lower indexes. Takes time linear in the size of the Array.
+     * @param index Index of the value to be removed.
+     * @return The new version of the Array, this one is not changed.
+     * @throws IndexOutOfBoundsException If the index is not less than size().
+     */
+    public JSONPersistentArray without(int index){
+        return new JSONPersistentArray(value_sequence.remove(index));
+    }
+
+    /**
+     * Get a value from the Array.
+     * @param index Index of the element to retrieve.
+     * @return The element at the requested index.
+     */
+    @Override
+    public JSONValue get(int index){
+        return (JSONValue) value_sequence.get(index);
+    }
+
+    /**
+     * Get a number from the Array as double.
+     * @param index Index of the number to retrieve.
+     * @return The number at the requested index.
+     * @throws IllegalStateException If the element is not a number.
+     */
+    @Override
+    public double getDouble(int index){
+        return this.get(index).getDouble();
+    }
+
+    /**
+     * Get a number from the Array as long.
+     * @param index Index of the number to retrieve.
+     * @return The number at the requested index, non-integers are truncated towards zero.
+     * @throws IllegalStateException If the element is not a number.
+     */
+    @Override
+    public long getLong(int index){
+        return this.get(index).getLong();
+    }
+
+    /**
+     * Get the size of the Array.
+     * @return Number of elements in the Array.
+     */
+    @Override
+    public int size(){
+        return value_sequence.size();
+    }
+
+    /**
+     * Get an iterator over the values of the Array in their order.
+     * The values are read leaf by leaf, the iterator does not support remove().
+     * @return Iterator over the values of the Array.
+     */
+    @Override
+    public Iterator<JSONValue> iterator(){
+        return new Iterator<>() {
+            // Index of the value returned by the next call of next()
+            private int index = 0;
+
+            // The leaf holding the value at the index
+            private Object[] leaf;
+
+            @Override
+            public boolean hasNext(){
+                return index < value_sequence.size();
+            }
+
+            @Override
+            public JSONValue next(){
+                if(!this.hasNext()) throw new NoSuchElementException();
+                if(leaf == null || (index & 31) == 0){
+                    leaf = value_sequence.leafOf(index);
+                }
+                return (JSONValue) leaf[index++ & 31];
+            }
+        };
+    }
+
+    /**
+     * Not supported, the Array cannot be changed. Use withAdded() instead.
+     * @param value Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void add(JSONValue value){
+        throw new UnsupportedOperationException("A persistent JSON Array cannot be changed, use withAdded()");
+    }
+
+    /**
+     * Not supported, the Array cannot be changed. Use withAdded() instead.
+     * @param value Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void add(long value){
+        throw new UnsupportedOperationException("A persistent JSON Array cannot be changed, use withAdded()");
+    }
+
+    /**
+     * Not supported, the Array cannot be changed. Use withAdded() instead.
+     * @param value Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void add(double value){
+        throw new UnsupportedOperationException("A persistent JSON Array cannot be changed, use withAdded()");
+    }
+
+    /**
+     * Not supported, the Array cannot be changed. Use with() instead.
+     * @param index Ignored.
+     * @param value Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void set(int index, JSONValue value){
+        throw new UnsupportedOperationException("A persistent JSON Array cannot be changed, use with()");
+    }
+
+    /**
+     * Not supported, the Array cannot be changed. Use without() instead.
+     * @param index Ignored.
+     * @return Never returns.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public JSONValue remove(int index){
+        throw new UnsupportedOperationException("A persistent JSON Array cannot be changed, use without()");
+    }
+
+    /**
+     * Not supported, the Array cannot be changed.
+     * @param other Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    void addAll(JSONArray other){
+        throw new UnsupportedOperationException("A persistent JSON Array cannot be changed");
+    }
+
+    /**
+     * Copies the values of the Array, converted to persistent values.
+     * @param array The Array whose values are copied.
+     * @return The sequence of the persistent values.
+     */
+    private static JSONVectorTrie copyValues(JSONArray array){
+        JSONValue[] values = new JSONValue[array.size()];
+        int i = 0;
+        for(JSONValue value: array){
+            values[i++] = value.toPersistent();
+        }
+        return JSONVectorTrie.of(values, values.length);
+    }
+}
@@ -0,0 +1,209 @@
+package cz.cuni.mff.json4j;
+
+/**
+ * An immutable JSON Object, changed by creating new versions of it.
+ * with() and without() return a new Object and leave this one unchanged, so
+ * a tree of persistent Objects and Arrays can be read by any number of threads
+ * without locking and every thread can derive its own variants of it.
+ * The versions share all their unchanged parts: the keys and values are kept
+ * in the order they were added in JSONVectorTrie sequences and the slots of
+ * the keys of larger Objects in a JSONHashTrie, so adding or replacing a value
+ * copies only O(log n) nodes. Removing a key rebuilds the Object in linear time.
+ * All values of the Object are persistent as well (see JSONValue.toPersistent()).
+ * It can be used wherever a JSONObject is expected, the methods changing
+ * the Object in place throw UnsupportedOperationException.
+ */
+public final class JSONPersistentObject extends JSONObject {
+
+    // The keys in the order of their slots
+    private final JSONVectorTrie key_sequence;
+
+    // The values in the order of the slots of their keys
+    private final JSONVectorTrie value_sequence;
+
+    // The slots of the keys, null for small Objects, whose keys are searched linearly
+    private final JSONHashTrie slot_index;
+
+    /**
+     * Creates an empty persistent JSON Object.
+     */
+    public JSONPersistentObject(){
+        this(JSONVectorTrie.EMPTY, JSONVectorTrie.EMPTY, null);
+    }
+
+    /**
+     * Creates a persistent copy of the JSON Object.
+     * The pairs are copied in their order, nested Objects and Arrays are
+     * copied to persistent ones as well. The copy does not change with the Object.
+     * @param object The Object to be copied.
+     */
+    public JSONPersistentObject(JSONObject object){
+        super(JSONShape.sharedRoot());
+        JSONObject stable = object.stable();
+        String[] keys = new String[stable.size()];
+        JSONValue[] values = new JSONValue[keys.length];
+        for(int slot = 0; slot < keys.length; slot++){
+            keys[slot] = stable.keyAt(slot);
+            values[slot] = stable.valueAt(slot).toPersistent();
+        }
+        this.key_sequence = JSONVectorTrie.of(keys, keys.length);
+        this.value_sequence = JSONVectorTrie.of(values, values.length);
+        this.slot_index = keys.length > JSONShape.LINEAR_SEARCH_KEYS ? JSONHashTrie.of(keys, keys.length) : null;
+    }
+
+    /**
+     * Creates a version of the Object.
+     * @param key_sequence The keys in the order of their slots.
+     * @param value_sequence The values in the order of the slots.
+     * @param slot_index The slots of the keys, null for small Objects.
+     */
+    private JSONPersistentObject(JSONVectorTrie key_sequence, JSONVectorTrie value_sequence, JSONHashTrie slot_index){
+        super(JSONShape.sharedRoot());
+        this.key_sequence = key_sequence;
+        this.value_sequence = value_sequence;
+        this.slot_index = slot_index;
+    }
+
+    /**
+     * Creates the version of the Object with the value associated to the key.
+     * If the key is already present, its value is replaced and the key keeps its place.
+     * Otherwise the pair is added after all the other ones.
+     * The value is converted by JSONValue.toPersistent(), which copies mutable Objects and Arrays.
+     * @param key String to be used as a key.
+     * @param value The value to be associated to the key.
+     * @return The new version of the Object, this one is not changed.
+     */
+    public JSONPersistentObject with(String key, JSONValue value){
+        JSONValue persistent = value.toPersistent();
+        int slot = this.slotOf(key);
+        if(slot >= 0){
+            return new JSONPersistentObject(key_sequence, value_sequence.set(slot, persistent), slot_index);
+        }
+
+        // The slots are indexed once the Object grows over the linear search
+        int count = key_sequence.size();
+        JSONHashTrie index = slot_index;
+        if(index != null){
+            index = index.with(key, count);
+        }
+        else if(count + 1 > JSONShape.LINEAR_SEARCH_KEYS){
+            index = JSONHashTrie.of(this.keyArray(key), count + 1);
+        }
+        return new JSONPersistentObject(key_sequence.append(key), value_sequence.append(persistent), index);
+    }
+
+    /**
+     * Creates the version of the Object without the key.
+     * The following pairs keep their order. Takes time linear in the size of the Object.
+     * @param key The key to be removed.
+     * @return The new version of the Object, this one if it does not contain the key.
+     */
+    public JSONPersistentObject without(String key){
+        int slot = this.slotOf(key);
+        if(slot < 0){
+            return this;
+        }
+
+        JSONVectorTrie keys = key_sequence.remove(slot);
+        String[] key_array = new String[keys.size()];
+        for(int i = 0; i < key_array.length; i++){
+            key_array[i] = (String) keys.get(i);
+        }
+        return new JSONPersistentObject(
+                keys,
+                value_sequence.remove(slot),
+                key_array.length > JSONShape.LINEAR_SEARCH_KEYS ? JSONHashTrie.of(key_array, key_array.length) : null
+        );
+    }
+
+    /**
+     * Get the value associated to the provided key.
+     * @param key Key used to find the value.
+     * @return JSON Value associated to the key, null if there is none.
+     */
+    @Override
+    public JSONValue get(String key){
+        int slot = this.slotOf(key);
+        return slot >= 0 ? (JSONValue) value_sequence.get(slot) : null;
+    }
+
+    /**
+     * Get the number of key-value pairs of the Object.
+     * @return The number of keys.
+     */
+    @Override
+    public int size(){
+        return key_sequence.size();
+    }
+
+    /**
+     * Not supported, the Object cannot be changed. Use with() instead.
+     * @param key Ignored.
+     * @param value Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void put(String key, JSONValue value){
+        throw new UnsupportedOperationException("A persistent JSON Object cannot be changed, use with()");
+    }
+
+    /**
+     * Not supported, the Object cannot be changed. Use without() instead.
+     * @param key Ignored.
+     * @return Never returns.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public JSONValue remove(String key){
+        throw new UnsupportedOperationException("A persistent JSON Object cannot be changed, use without()");
+    }
+
+    /**
+     * Get the key of the slot.
+     * @param slot Index of the slot, less than size().
+     * @return The key of the slot.
+     */
+    @Override
+    String keyAt(int slot){
+        return (String) key_sequence.get(slot);
+    }
+
+    /**
+     * Get the value of the slot.
+     * @param slot Index of the slot, less than size().
+     * @return The value of the slot.
+     */
+    @Override
+    JSONValue valueAt(int slot){
+        return (JSONValue) value_sequence.get(slot);
+    }
+
+    /**
+     * Finds the slot of the key.
+     * @param key The key to be found.
+     * @return The index of the slot, -1 if the Object does not contain the key.
+     */
+    private int slotOf(String key){
+        if(slot_index != null){
+            return slot_index.find(key);
+        }
+        for(int slot = 0; slot < key_sequence.size(); slot++){
+            if(key_sequence.get(slot).equals(key)) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the keys to an array with one more key at the end.
+     * @param added The key to be added after the others.
+     * @return The array of the keys.
+     */
+    private String[] keyArray(String added){
+        String[] keys = new String[key_sequence.size() + 1];
+        for(int slot = 0; slot < key_sequence.size(); slot++){
+            keys[slot] = (String) key_sequence.get(slot);
+        }
+        keys[keys.length - 1] = added;
+        return keys;
+    }
+}
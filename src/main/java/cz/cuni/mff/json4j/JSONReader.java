@@ -0,0 +1,715 @@
+package cz.cuni.mff.json4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A pull-mode reader reporting the contents of a JSON source as a sequence of events.
+ * Each call of next() processes the source only as far as needed to produce
+ * the next event, and no JSONValue tree is built. The memory used is therefore
+ * bounded by the nesting depth of the source and not by its size.
+ * The source should contain a single JSON Value, properly formatted according
+ * to the RFC-8259. All grammar violations are reported upon reaching them.
+ * Byte sources (InputStream, ReadableByteChannel) are decoded as UTF-8.
+ * Byte arrays and ByteBuffers are not decoded at all: the UTF-8 bytes are
+ * processed directly and Strings are decoded only when getString() is called.
+ * Files are memory-mapped (see reset(Path)), so they are read the same way
+ * without being loaded to the heap.
+ */
+public class JSONReader {
+
+    /**
+     * Enumeration of the expectations of the reader about the next token.
+     */
+    private enum READER_STATE {
+        VALUE,                  // A value is required
+        FIRST_ARRAY_VALUE,      // A value or ']' (right after '[')
+        ARRAY_NEXT,             // ',' or ']' (after a value in Array)
+        FIRST_KEY,              // A key or '}' (right after '{')
+        KEY,                    // A key is required (after ',' in Object)
+        OBJECT_NEXT,            // ',' or '}' (after a value in Object)
+        DONE                    // The single JSON value was processed
+    }
+
+    // The lexer handing out the tokens of the source one at a time
+    private JSONLexer lexer;
+
+    // The lexers of both kinds of sources, created upon the first use and then reused
+    private JSONCharLexer char_lexer;
+    private JSONByteLexer byte_lexer;
+
+    // The table canonicalizing the keys, null if they are not canonicalized
+        // Kept across resets, so that the keys are shared by all the sources
+    private JSONSymbolTable symbols;
+
+    // The structural index of the source, set when reading a container of a lazy tree
+        // The nested containers are then skipped by a jump to their closing bracket
+    private JSONStructuralIndex index;
+
+    // The position where the part of the top-level Array being read ends, -1 when reading whole sources
+    private long part_end = -1;
+
+    // What the reader expects to find next
+    private READER_STATE state;
+
+    // Stack of the currently open containers (true for Object, false for Array)
+    private boolean[] in_object;
+    private int depth;
+
+    // The last reported event and its token (for scalars and keys)
+    private EVENT_TYPE current_event;
+    private JSONToken current_token;
+
+    /**
+     * Creates a JSONReader without any source.
+     * One of the reset() methods has to be called before reading.
+     * Useful for keeping a JSONReader per thread and reusing it for many sources.
+     */
+    public JSONReader(){
+        in_object = new boolean[16];
+        state = READER_STATE.DONE;
+    }
+
+    /**
+     * Creates a JSONReader to process the provided String.
+     * @param source_string A String containing a single JSON value.
+     */
+    public JSONReader(String source_string){
+        this();
+        this.reset(source_string);
+    }
+
+    /**
+     * Creates a JSONReader to process the characters provided by the Reader.
+     * The Reader is read only as far as the requested events require
+     * and it is not closed by the JSONReader.
+     * @param source_reader A Reader providing a single JSON value.
+     */
+    public JSONReader(Reader source_reader){
+        this();
+        this.reset(source_reader);
+    }
+
+    /**
+     * Creates a JSONReader to process the UTF-8 encoded bytes of the InputStream.
+     * Malformed UTF-8 input is reported as an error during reading.
+     * The InputStream is not closed by the JSONReader.
+     * @param source_stream An InputStream providing a single JSON value.
+     */
+    public JSONReader(InputStream source_stream){
+        this();
+        this.reset(source_stream);
+    }
+
+    /**
+     * Creates a JSONReader to process the UTF-8 encoded bytes of the channel.
+     * Malformed UTF-8 input is reported as an error during reading.
+     * The channel is not closed by the JSONReader.
+     * @param source_channel A channel providing a single JSON value.
+     */
+    public JSONReader(ReadableByteChannel source_channel){
+        this();
+        this.reset(source_channel);
+    }
+
+    /**
+     * Creates a JSONReader to process the UTF-8 encoded bytes of the array.
+     * The bytes are processed without decoding them to chars first.
+     * The array must not be modified while the JSONReader is in use.
+     * @param source_bytes UTF-8 encoded bytes of a single JSON value.
+     */
+    public JSONReader(byte[] source_bytes){
+        this();
+        this.reset(source_bytes);
+    }
+
+    /**
+     * Creates a JSONReader to process the UTF-8 encoded bytes between the position
+     * and the limit of the buffer (heap or direct).
+     * The bytes are processed without decoding them to chars first.
+     * The position of the buffer is not changed and its contents must not be
+     * modified while the JSONReader is in use.
+     * @param source_buffer UTF-8 encoded bytes of a single JSON value.
+     */
+    public JSONReader(ByteBuffer source_buffer){
+        this();
+        this.reset(source_buffer);
+    }
+
+    /**
+     * Creates a JSONReader to process the UTF-8 encoded bytes of the file.
+     * See reset(Path).
+     * @param file The path of a file containing a single JSON value.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    public JSONReader(Path file) throws IOException {
+        this();
+        this.reset(file);
+    }
+
+    /**
+     * Starts reading the provided String, forgetting the previous source.
+     * The internal buffers are kept, so that reading many sources by a single
+     * JSONReader does not allocate them again.
+     * @param source_string A String containing a single JSON value.
+     */
+    public void reset(String source_string){
+        this.charLexer().reset(source_string);
+        this.start(char_lexer);
+    }
+
+    /**
+     * Starts reading the characters provided by the Reader, forgetting the previous source.
+     * The internal buffers are kept, so that reading many sources by a single
+     * JSONReader does not allocate them again.
+     * @param source_reader A Reader providing a single JSON value.
+     */
+    public void reset(Reader source_reader){
+        this.charLexer().reset(source_reader);
+        this.start(char_lexer);
+    }
+
+    /**
+     * Starts reading the UTF-8 encoded bytes of the InputStream, forgetting the previous source.
+     * @param source_stream An InputStream providing a single JSON value.
+     */
+    public void reset(InputStream source_stream){
+        this.reset(new InputStreamReader(source_stream, StandardCharsets.UTF_8.newDecoder()));
+    }
+
+    /**
+     * Starts reading the UTF-8 encoded bytes of the channel, forgetting the previous source.
+     * @param source_channel A channel providing a single JSON value.
+     */
+    public void reset(ReadableByteChannel source_channel){
+        this.reset(Channels.newReader(source_channel, StandardCharsets.UTF_8.newDecoder(), -1));
+    }
+
+    /**
+     * Starts reading the UTF-8 encoded bytes of the array, forgetting the previous source.
+     * @param source_bytes UTF-8 encoded bytes of a single JSON value.
+     */
+    public void reset(byte[] source_bytes){
+        this.reset(ByteBuffer.wrap(source_bytes));
+    }
+
+    /**
+     * Starts reading the UTF-8 encoded bytes between the position and the limit
+     * of the buffer, forgetting the previous source.
+     * @param source_buffer UTF-8 encoded bytes of a single JSON value.
+     */
+    public void reset(ByteBuffer source_buffer){
+        this.reset(JSONByteSource.of(source_buffer));
+    }
+
+    /**
+     * Starts reading the UTF-8 encoded bytes of the source, forgetting the previous source.
+     * @param source_bytes UTF-8 encoded bytes of a single JSON value.
+     */
+    void reset(JSONByteSource source_bytes){
+        if(byte_lexer == null){
+            byte_lexer = new JSONByteLexer();
+        }
+        byte_lexer.reset(source_bytes);
+        this.start(byte_lexer);
+    }
+
+    /**
+     * Starts reading the UTF-8 encoded bytes of the file, forgetting the previous source.
+     * The file is mapped to memory, so its bytes are lexed right from the page cache:
+     * nothing is copied to the heap and Strings and numbers are decoded only when requested.
+     * The mapping is released by the garbage collector once the reader is reset to another
+     * source and no lazy tree uses it. The file must not be modified while it is read.
+     * Files of 2 GB or more do not fit to a single ByteBuffer, they are mapped
+     * as overlapping windows of up to 2 GB instead (see JSONByteSource), in which
+     * case no single token (e.g. a String) may be longer than 1 GB.
+     * @param file The path of a file containing a single JSON value.
+     * @throws IOException If the file cannot be opened or mapped.
+     */
+    public void reset(Path file) throws IOException {
+        this.reset(JSONByteSource.map(file));
+    }
+
+    /**
+     * Starts reading the container recorded in the structural index, forgetting the previous source.
+     * Reading ends with the END_ event of the container, the rest of the source is not checked.
+     * The lexer is reset to the source of the index only when it was reading another source.
+     * @param index The structural index of the source.
+     * @param ordinal The number of the container in the index.
+     */
+    void reset(JSONStructuralIndex index, int ordinal){
+        JSONLexer lexer = this.indexedLexer(index);
+        lexer.seek(index.openAt(ordinal));
+        this.start(lexer);
+        this.index = index;
+    }
+
+    /**
+     * Starts reading a part of the values of the top-level Array recorded in the structural index,
+     * as if its START_ARRAY event was just read. The part is reported as a whole Array:
+     * its END_ARRAY event is reported upon reaching the end of the part.
+     * @param index The structural index of the source, the top-level value of which is an Array.
+     * @param from The position where the part starts, right after the opening bracket
+     *             of the Array or where the previous part ended.
+     * @param to The position where the part ends (see JSONStructuralIndex.splitTopLevel()),
+     *           -1 if the part ends by the closing bracket of the Array.
+     */
+    void reset(JSONStructuralIndex index, long from, long to){
+        JSONLexer lexer = this.indexedLexer(index);
+        lexer.seek(from);
+        this.start(lexer);
+        this.push(false);
+
+        // Only the first part starts right after the bracket, the others start by a comma
+        state = from == index.openAt(0) + 1 ? READER_STATE.FIRST_ARRAY_VALUE : READER_STATE.ARRAY_NEXT;
+        part_end = to;
+    }
+
+    /**
+     * Get the lexer for the source of the structural index.
+     * The lexer is reset to the source only when it was reading another source.
+     * @param index The structural index of the source.
+     * @return The lexer over the source of the index.
+     */
+    private JSONLexer indexedLexer(JSONStructuralIndex index){
+        if(index.string_source != null){
+            if(char_lexer == null){
+                char_lexer = new JSONCharLexer(index.string_source.length());
+            }
+            if(this.index != index || this.lexer != char_lexer){
+                char_lexer.reset(index.string_source);
+            }
+            return char_lexer;
+        }
+        if(this.index != index || this.lexer != byte_lexer){
+            if(byte_lexer == null){
+                byte_lexer = new JSONByteLexer();
+            }
+            byte_lexer.reset(index.byte_source);
+        }
+        return byte_lexer;
+    }
+
+    /**
+     * Turns the canonicalization of the Object keys on or off (off by default).
+     * When on, every distinct key is kept in a bounded table and all its
+     * occurrences (also in the following sources after reset()) are returned as
+     * the same String instance, which is not allocated again. This saves both time
+     * and memory for documents of many records with the same keys.
+     * The table stops growing after a few thousand distinct keys.
+     * Affects the keys read after the call.
+     * @param canonicalize_keys Whether the keys should be canonicalized.
+     */
+    public void setKeyCanonicalization(boolean canonicalize_keys){
+        if(!canonicalize_keys){
+            symbols = null;
+        }
+        else if(symbols == null){
+            symbols = new JSONSymbolTable();
+        }
+        if(lexer != null){
+            lexer.symbols = symbols;
+        }
+    }
+
+    /**
+     * Get the lexer for character sources, creating it upon the first use.
+     * @return The lexer for character sources.
+     */
+    private JSONCharLexer charLexer(){
+        if(char_lexer == null){
+            char_lexer = new JSONCharLexer();
+        }
+        return char_lexer;
+    }
+
+    /**
+     * Starts reading the tokens of the lexer from the beginning of the grammar.
+     * @param lexer The lexer over the new source.
+     */
+    private void start(JSONLexer lexer){
+        this.lexer = lexer;
+        lexer.symbols = symbols;
+        index = null;
+        part_end = -1;
+        state = READER_STATE.VALUE;
+        depth = 0;
+        current_event = null;
+        current_token = null;
+    }
+
+    /**
+     * Get the last event returned by next().
+     * @return The current event, null before the first call of next().
+     */
+    public EVENT_TYPE currentEvent(){
+        return current_event;
+    }
+
+    /**
+     * Get the number of Objects and Arrays the current event is nested in.
+     * START_ events are counted inside of the container they open.
+     * @return The current nesting depth.
+     */
+    public int getDepth(){
+        return depth;
+    }
+
+    /**
+     * Get the String of the current KEY or STRING event.
+     * @return The key or String value without the enclosing quotes.
+     * @throws IllegalStateException If the current event is not KEY or STRING.
+     */
+    public String getString(){
+        if(current_event != EVENT_TYPE.KEY && current_event != EVENT_TYPE.STRING){
+            throw new IllegalStateException("No String available at " + current_event);
+        }
+        return current_token.value.toString();
+    }
+
+    /**
+     * Get the number of the current NUMBER event as double.
+     * The literal is decoded only by this call.
+     * @return The numeric value rounded to double.
+     * @throws IllegalStateException If the current event is not NUMBER.
+     */
+    public double getNumber(){
+        this.checkNumber();
+        return JSONNumberDecoder.parseDouble((CharSequence) current_token.value);
+    }
+
+    /**
+     * Get the number of the current NUMBER event as long.
+     * The literal is decoded only by this call, integers without any floating-point parsing.
+     * @return The numeric value, non-integers are truncated towards zero.
+     * @throws IllegalStateException If the current event is not NUMBER.
+     */
+    public long getLong(){
+        this.checkNumber();
+        CharSequence literal = (CharSequence) current_token.value;
+        return current_token.integral ? JSONNumberDecoder.parseLong(literal) : (long) JSONNumberDecoder.parseDouble(literal);
+    }
+
+    /**
+     * Get the number of the current NUMBER event as BigDecimal.
+     * @return The exact value of the number.
+     * @throws IllegalStateException If the current event is not NUMBER.
+     */
+    public BigDecimal getBigDecimal(){
+        this.checkNumber();
+        return new BigDecimal(current_token.value.toString());
+    }
+
+    /**
+     * Get the literal of the current NUMBER event exactly as written in the source.
+     * @return The number literal.
+     * @throws IllegalStateException If the current event is not NUMBER.
+     */
+    public String getNumberText(){
+        this.checkNumber();
+        return current_token.value.toString();
+    }
+
+    /**
+     * Checks if the number of the current NUMBER event is an integer fitting to long.
+     * @return Whether getLong() returns the exact value of the number.
+     * @throws IllegalStateException If the current event is not NUMBER.
+     */
+    public boolean isIntegral(){
+        this.checkNumber();
+        return current_token.integral;
+    }
+
+    /**
+     * Checks that the current event is NUMBER.
+     * @throws IllegalStateException If the current event is not NUMBER.
+     */
+    private void checkNumber(){
+        if(current_event != EVENT_TYPE.NUMBER){
+            throw new IllegalStateException("No number available at " + current_event);
+        }
+    }
+
+    /**
+     * Get the boolean of the current BOOLEAN event.
+     * @return The boolean value.
+     * @throws IllegalStateException If the current event is not BOOLEAN.
+     */
+    public boolean getBoolean(){
+        if(current_event != EVENT_TYPE.BOOLEAN){
+            throw new IllegalStateException("No boolean available at " + current_event);
+        }
+        return (Boolean) current_token.value;
+    }
+
+    /**
+     * Skips the value of the current event.
+     * For START_OBJECT and START_ARRAY, all events until the matching END_
+     * event are consumed, so the matching END_ event becomes the current event.
+     * For other events nothing is done.
+     * @throws JSONMalformedSourceException If the skipped value is not properly formed.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    public void skipValue() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        if(current_event != EVENT_TYPE.START_OBJECT && current_event != EVENT_TYPE.START_ARRAY){
+            return;
+        }
+
+        // With the structural index, the whole container is jumped over
+        if(index != null){
+            boolean is_object = current_event == EVENT_TYPE.START_OBJECT;
+            lexer.seek(index.closeAt(this.containerOrdinal()) + 1);
+            this.endContainer(is_object ? EVENT_TYPE.END_OBJECT : EVENT_TYPE.END_ARRAY);
+            return;
+        }
+
+        int target_depth = depth - 1;
+        while(depth > target_depth){
+            this.next();
+        }
+    }
+
+    /**
+     * Get the number of the container of the current START_OBJECT or START_ARRAY event
+     * in the structural index. Valid only when reading a container of a lazy tree.
+     * @return The number of the container in the index.
+     */
+    int containerOrdinal(){
+        // The opening bracket is the last character read by the lexer
+        return index.ordinalAt(lexer.position() - 1);
+    }
+
+    /**
+     * Processes the source up to the next event and returns it.
+     * The grammar is checked on the way, so every returned event is valid
+     * with respect to all the events returned before it.
+     * After the single JSON value of the source, END_DOCUMENT is returned
+     * (also for all subsequent calls). Failures of the underlying source
+     * are rethrown as UncheckedIOException.
+     *
+     * @return The next event of the source.
+     * @throws JSONMalformedSourceException If the source does not conform to the grammar.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     * @throws IllegalStateException If no source was set.
+     */
+    public EVENT_TYPE next() throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        if(lexer == null){
+            throw new IllegalStateException("No source to be read, reset() has to be called first");
+        }
+        if(depth == 1 && state == READER_STATE.ARRAY_NEXT && lexer.position() == part_end){
+            return endContainer(EVENT_TYPE.END_ARRAY);
+        }
+        JSONToken token = lexer.nextToken(state == READER_STATE.FIRST_KEY || state == READER_STATE.KEY);
+
+        switch(state) {
+            case VALUE -> {
+                return readValue(token);
+            }
+            case FIRST_ARRAY_VALUE -> {
+                // Step 1.) of an Array: if it contains no values, it ends right away
+                if(token.type == TOKEN_TYPE.END_ARRAY){
+                    return endContainer(EVENT_TYPE.END_ARRAY);
+                }
+                // Step 2.) Read a value WITHOUT comma before it
+                return readValue(token);
+            }
+            case ARRAY_NEXT -> {
+                // Step 3.) Until the end of the Array, read in order COMMA, VALUE
+                if(token.type == TOKEN_TYPE.END_ARRAY){
+                    return endContainer(EVENT_TYPE.END_ARRAY);
+                }
+                if(token.type == TOKEN_TYPE.EOF){
+                    throw new JSONMalformedSourceException(
+                            "Unexpected end of file during Array construction"
+                    );
+                }
+                if(token.type != TOKEN_TYPE.ELEMENT_DELIMITER){
+                    throw new JSONMalformedSourceException(
+                            "Expected an element separator between values in Array, found "
+                                + describe(token)
+                    );
+                }
+                return readValue(lexer.nextToken(false));
+            }
+            case FIRST_KEY -> {
+                // Step 1.) of an Object: if it contains no values, it ends right away
+                if(token.type == TOKEN_TYPE.END_OBJECT){
+                    return endContainer(EVENT_TYPE.END_OBJECT);
+                }
+                // Step 2.) Read a key-value pair WITHOUT comma before it
+                return readKey(token);
+            }
+            case KEY -> {
+                return readKey(token);
+            }
+            case OBJECT_NEXT -> {
+                // Step 3.) Until the end of the Object, read in order COMMA, KEY, COLON, VALUE
+                if(token.type == TOKEN_TYPE.END_OBJECT){
+                    return endContainer(EVENT_TYPE.END_OBJECT);
+                }
+                if(token.type == TOKEN_TYPE.EOF){
+                    throw new JSONMalformedSourceException(
+                            "Unexpected end of file during Object construction"
+                    );
+                }
+                if(token.type != TOKEN_TYPE.ELEMENT_DELIMITER){
+                    throw new JSONMalformedSourceException(
+                            "Expected an element separator between values in Object, found "
+                                + describe(token)
+                    );
+                }
+                return readKey(lexer.nextToken(true));
+            }
+            default -> {
+                // All JSON inputs must contain only one value
+                if(token.type != TOKEN_TYPE.EOF){
+                    throw new JSONMalformedSourceException(
+                            "Expected end of file after the JSON value, found " + describe(token)
+                    );
+                }
+                return report(EVENT_TYPE.END_DOCUMENT, null);
+            }
+        }
+    }
+
+    /**
+     * Processes a token which has to start a value.
+     * Scalars are reported right away, Objects and Arrays are opened.
+     * @param token The token starting the value.
+     * @return The event of the value.
+     * @throws JSONMalformedSourceException If the token is not a value.
+     */
+    private EVENT_TYPE readValue(JSONToken token) throws JSONMalformedSourceException {
+        switch(token.type) {
+            case STRING_LITERAL -> {
+                this.afterValue();
+                return report(EVENT_TYPE.STRING, token);
+            }
+            case NUMBER -> {
+                this.afterValue();
+                return report(EVENT_TYPE.NUMBER, token);
+            }
+            case BOOLEAN -> {
+                this.afterValue();
+                return report(EVENT_TYPE.BOOLEAN, token);
+            }
+            case NULL -> {
+                this.afterValue();
+                return report(EVENT_TYPE.NULL, token);
+            }
+            case START_ARRAY -> {
+                this.push(false);
+                state = READER_STATE.FIRST_ARRAY_VALUE;
+                return report(EVENT_TYPE.START_ARRAY, null);
+            }
+            case START_OBJECT -> {
+                this.push(true);
+                state = READER_STATE.FIRST_KEY;
+                return report(EVENT_TYPE.START_OBJECT, null);
+            }
+            default -> {
+                // The token is not value -> Throw
+                throw new JSONMalformedSourceException(
+                        "Expected a value, provided " + describe(token)
+                );
+            }
+        }
+    }
+
+    /**
+     * Processes a key of a key-value pair.
+     * The key must be a string and key and value must be separated by a colon (:).
+     * The colon is consumed together with the key.
+     * @param token The token of the key.
+     * @return The KEY event.
+     * @throws JSONMalformedSourceException If the pair is not properly formed.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    private EVENT_TYPE readKey(JSONToken token) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+
+        // Process Key name
+        if(token.type != TOKEN_TYPE.STRING_LITERAL){
+            throw new JSONMalformedSourceException(
+                    String.format("String expected in place of key. Found '%s'", describe(token))
+            );
+        }
+
+        // Process delimiter (colon)
+        JSONToken delimiter = lexer.nextToken(false);
+        if(delimiter.type != TOKEN_TYPE.KEY_VALUE_DELIMITER){
+            throw new JSONMalformedSourceException(
+                    String.format("Expeted ':' (colon) between key and value. Found '%s'", describe(delimiter))
+            );
+        }
+
+        state = READER_STATE.VALUE;
+        return report(EVENT_TYPE.KEY, token);
+    }
+
+    /**
+     * Closes the innermost container and reports its END_ event.
+     * @param event END_OBJECT or END_ARRAY.
+     * @return The provided event.
+     */
+    private EVENT_TYPE endContainer(EVENT_TYPE event){
+        depth--;
+        this.afterValue();
+        return report(event, null);
+    }
+
+    /**
+     * Updates the state after a whole value was processed,
+     * based on the container the value is in.
+     */
+    private void afterValue(){
+        if(depth == 0){
+            state = READER_STATE.DONE;
+        }
+        else {
+            state = in_object[depth - 1] ? READER_STATE.OBJECT_NEXT : READER_STATE.ARRAY_NEXT;
+        }
+    }
+
+    /**
+     * Opens a new container on the stack.
+     * @param is_object Whether the container is an Object (or an Array).
+     */
+    private void push(boolean is_object){
+        if(depth == in_object.length){
+            in_object = Arrays.copyOf(in_object, depth * 2);
+        }
+        in_object[depth++] = is_object;
+    }
+
+    /**
+     * Remembers the reported event and its token.
+     * @param event The event to be reported.
+     * @param token The token belonging to the event.
+     * @return The provided event.
+     */
+    private EVENT_TYPE report(EVENT_TYPE event, JSONToken token){
+        current_event = event;
+        current_token = token;
+        return event;
+    }
+
+    /**
+     * Describes the token for the purposes of error messages.
+     * @param token The token to be described.
+     * @return The textual description of the token.
+     */
+    private static String describe(JSONToken token){
+        if(token.type == TOKEN_TYPE.EOF) return "end of file";
+        if(token.type == TOKEN_TYPE.INVALID_TOKEN) return "an invalid literal";
+        return String.valueOf(token.value);
+    }
+}
@@ -0,0 +1,215 @@
+package cz.cuni.mff.json4j;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable sequence of Object keys, each of which is assigned a slot index.
+ * JSONObjects with the same keys (added in the same order) share one shape
+ * and hold only an array of values in the order of the slots.
+ * The shapes form a tree: adding a key to an Object moves it to the child
+ * shape of its current shape, which is created only once and then reused
+ * (the transitions are cached in a thread-safe way). The number of shapes
+ * in a tree is bounded, so that documents with unbounded sets of keys
+ * cannot grow it forever; when no more shapes can be created, the Objects
+ * use a map instead.
+ * Not public, since there is no reason to use it outside of the library.
+ */
+final class JSONShape {
+
+    // The maximal number of shapes in a single tree
+    private final static int MAX_SHAPES = 4096;
+
+    // Key sequences with up to this many keys are searched linearly, larger ones use a hash index
+    final static int LINEAR_SEARCH_KEYS = 8;
+
+    // The root of the tree shared by the Objects created outside of a parser, see sharedRoot()
+    private final static AtomicReference<JSONShape> SHARED_ROOT = new AtomicReference<>(newRoot());
+
+    // The keys in the order of their slots
+    private final String[] keys;
+
+    // Open addressing index of slot + 1 (0 for empty) by the hash of the key, null for small shapes
+    private final int[] index;
+
+    // The shapes created by adding a key to this one
+    private final ConcurrentHashMap<String, JSONShape> transitions;
+
+    // The number of shapes in the tree, shared by all its shapes
+    private final AtomicInteger tree_size;
+
+    /**
+     * Creates a shape of the keys.
+     * @param keys The keys in the order of their slots.
+     * @param tree_size The counter of the shapes in the tree.
+     */
+    private JSONShape(String[] keys, AtomicInteger tree_size){
+        this.keys = keys;
+        this.tree_size = tree_size;
+        this.transitions = new ConcurrentHashMap<>();
+        this.index = buildIndex(keys, keys.length);
+    }
+
+    /**
+     * Creates the root (the shape without keys) of a new tree.
+     * @return The new root.
+     */
+    static JSONShape newRoot(){
+        return new JSONShape(new String[0], new AtomicInteger(1));
+    }
+
+    /**
+     * Get the root of the tree shared by the Objects created outside of a parser.
+     * Once the tree is full, it is replaced by a new one (as a parser replaces its own),
+     * so that the Objects created later use shapes again. The Objects created
+     * before keep their shapes in the old tree.
+     * @return The current shared root.
+     */
+    static JSONShape sharedRoot(){
+        JSONShape root = SHARED_ROOT.get();
+        if(root.isTreeFull()){
+            // Only one of the threads finding the tree full installs its new root, the others use it
+            JSONShape fresh = newRoot();
+            root = SHARED_ROOT.compareAndSet(root, fresh) ? fresh : SHARED_ROOT.get();
+        }
+        return root;
+    }
+
+    /**
+     * Get the number of keys of the shape.
+     * @return The number of keys (and slots).
+     */
+    int size(){
+        return keys.length;
+    }
+
+    /**
+     * Get the key of the slot.
+     * @param slot The index of the slot.
+     * @return The key assigned to the slot.
+     */
+    String keyAt(int slot){
+        return keys[slot];
+    }
+
+    /**
+     * Finds the slot of the key.
+     * @param key The key to be found.
+     * @return The index of the slot of the key, -1 if the shape does not contain it.
+     */
+    int indexOf(String key){
+        return find(keys, keys.length, index, key);
+    }
+
+    /**
+     * Builds the hash index of the keys.
+     * Shared with the JSONObjects which keep their own keys.
+     * @param keys The keys, indexed by their slots.
+     * @param size The number of keys.
+     * @return The open addressing index of slot + 1 (0 for empty) by the hash of the key,
+     * null if there are few enough keys to be searched linearly.
+     */
+    static int[] buildIndex(String[] keys, int size){
+        if(size <= LINEAR_SEARCH_KEYS){
+            return null;
+        }
+
+        // The index is kept at most half full, so that the probe sequences are short
+        int[] index = new int[Integer.highestOneBit(size) * 4];
+        for(int slot = 0; slot < size; slot++){
+            addToIndex(index, keys[slot], slot);
+        }
+        return index;
+    }
+
+    /**
+     * Puts the slot of the key to the first free place of its probe sequence.
+     * @param index The index, which must have a free place.
+     * @param key The key of the slot.
+     * @param slot The slot to be added.
+     */
+    static void addToIndex(int[] index, String key, int slot){
+        int mask = index.length - 1;
+        int i = spread(key.hashCode()) & mask;
+        while(index[i] != 0){
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+    }
+
+    /**
+     * Finds the slot of the key.
+     * Shared with the JSONObjects which keep their own keys.
+     * @param keys The keys, indexed by their slots.
+     * @param size The number of keys.
+     * @param index The index built by buildIndex() for the keys.
+     * @param key The key to be found.
+     * @return The index of the slot of the key, -1 if the keys do not contain it.
+     */
+    static int find(String[] keys, int size, int[] index, String key){
+        if(index == null){
+            // Canonical keys are the same instances, so the identity is checked first
+            for(int slot = 0; slot < size; slot++){
+                if(keys[slot] == key) return slot;
+            }
+            for(int slot = 0; slot < size; slot++){
+                if(keys[slot].equals(key)) return slot;
+            }
+            return -1;
+        }
+
+        int mask = index.length - 1;
+        for(int i = spread(key.hashCode()) & mask; index[i] != 0; i = (i + 1) & mask){
+            int slot = index[i] - 1;
+            if(keys[slot].equals(key)) return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the shape with the key added after all keys of this one.
+     * The key must not be present in this shape.
+     * @param key The key to be added.
+     * @return The child shape, or null if the tree cannot hold any more shapes.
+     */
+    JSONShape withKey(String key){
+        JSONShape child = transitions.get(key);
+        if(child != null){
+            return child;
+        }
+        if(tree_size.get() >= MAX_SHAPES){
+            return null;
+        }
+
+        String[] child_keys = Arrays.copyOf(keys, keys.length + 1);
+        child_keys[keys.length] = key;
+        child = new JSONShape(child_keys, tree_size);
+
+        // Another thread might have added the same transition meanwhile
+        JSONShape existing = transitions.putIfAbsent(key, child);
+        if(existing != null){
+            return existing;
+        }
+        tree_size.incrementAndGet();
+        return child;
+    }
+
+    /**
+     * Checks if the tree of this shape cannot hold any more shapes.
+     * @return Whether the maximal number of shapes was reached.
+     */
+    boolean isTreeFull(){
+        return tree_size.get() >= MAX_SHAPES;
+    }
+
+    /**
+     * Mixes the higher bits of the hash into the lower ones used for the index.
+     * @param hash The hash of a key.
+     * @return The mixed hash.
+     */
+    private static int spread(int hash){
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,401 @@
+package cz.cuni.mff.json4j;
+
+import java.util.Arrays;
+
+/**
+ * The positions of all Objects and Arrays of a source held in memory (a String
+ * or UTF-8 bytes), found by a single scan over the source.
+ * The scan only skips the Strings and matches the brackets (the bytes are
+ * classified by whole blocks, see JSONBlockClassifier), every container
+ * is recorded by the positions of its opening and closing bracket, numbered
+ * by the order of the opening ones. A lazily parsed tree is built from it:
+ * its Objects and Arrays are empty shells holding only their number, which are
+ * materialized upon their first access by a JSONParser reading just the one
+ * container and jumping over the containers nested in it. Only the brackets
+ * are checked by the scan, the rest of the grammar of a container is checked
+ * when it is materialized.
+ * The materialization of all containers of one source is synchronized on the index,
+ * so a lazy tree can be read by more threads at once.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+final class JSONStructuralIndex {
+
+    // The source, exactly one of them is set
+        // The positions in the bytes are long, a mapped file may have 2 GB or more
+    final String string_source;
+    final JSONByteSource byte_source;
+
+    // The positions of the opening and the closing brackets of the containers, valid up to size
+        // Ordered by the opening brackets, so that the containers can be found by a binary search
+    private long[] opens;
+    private long[] closes;
+    private int size;
+
+    // The containers which are direct values of the top-level container, valid up to top_level_size
+        // Used for splitting the top-level Array to parts parsed in parallel
+    private int[] top_level;
+    private int top_level_size;
+
+    // The containers opened but not yet closed during the scan, the innermost on top
+    private int[] open_stack;
+    private int depth;
+
+    // The parser materializing the containers, set by the parser creating the index
+    JSONParser materializer;
+
+    /**
+     * Creates an empty index of the source.
+     * @param string_source The String source or null.
+     * @param byte_source The byte source or null.
+     */
+    private JSONStructuralIndex(String string_source, JSONByteSource byte_source){
+        this.string_source = string_source;
+        this.byte_source = byte_source;
+        this.opens = new long[16];
+        this.closes = new long[16];
+        this.open_stack = new int[16];
+        this.top_level = new int[16];
+    }
+
+    /**
+     * Scans the String and records all its containers.
+     * @param source The String containing a single JSON value.
+     * @return The index, or null if the value is not an Object or an Array.
+     * @throws JSONMalformedSourceException If the brackets do not match or the value is followed by anything else.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    static JSONStructuralIndex build(String source) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        JSONStructuralIndex index = new JSONStructuralIndex(source, null);
+        int length = source.length();
+
+        int i = 0;
+        while(i < length && JSONLexer.isWhitespace(source.charAt(i))){
+            i++;
+        }
+        if(i == length || (source.charAt(i) != '{' && source.charAt(i) != '[')){
+            return null;
+        }
+
+        for(; i < length; i++){
+            char c = source.charAt(i);
+            if(c == JSONLexer.QUOTE_CHAR){
+                // Strings may contain any brackets, they are skipped up to the unescaped closing quote
+                i++;
+                while(true){
+                    if(i >= length){
+                        throw new JSONUnfinishedStringAtEOF();
+                    }
+                    char s = source.charAt(i);
+                    if(s == JSONLexer.QUOTE_CHAR) break;
+                    i += s == JSONLexer.ESCAPE_CHAR ? 2 : 1;
+                }
+            }
+            else if(c == '{' || c == '['){
+                index.open(i);
+            }
+            else if(c == '}' || c == ']'){
+                index.close(i, c == '}');
+                if(index.depth == 0) break;
+            }
+        }
+        index.finish();
+
+        for(i++; i < length; i++){
+            if(!JSONLexer.isWhitespace(source.charAt(i))){
+                throw new JSONMalformedSourceException(
+                        "Expected end of file after the JSON value, found " + source.charAt(i)
+                );
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Scans the UTF-8 bytes of the source and records all its containers.
+     * The position of a buffer the bytes come from is not changed.
+     * The bytes are classified by blocks of JSONBlockClassifier.BLOCK_SIZE,
+     * the Strings are then masked out of the whole block at once and only
+     * the brackets outside of them are visited one by one.
+     * @param source The bytes of a single JSON value.
+     * @return The index, or null if the value is not an Object or an Array.
+     * @throws JSONMalformedSourceException If the brackets do not match or the value is followed by anything else.
+     * @throws JSONUnfinishedStringAtEOF If the source ends inside an unfinished String.
+     */
+    static JSONStructuralIndex build(JSONByteSource source) throws JSONMalformedSourceException, JSONUnfinishedStringAtEOF {
+        JSONStructuralIndex index = new JSONStructuralIndex(null, source);
+        long limit = source.limit;
+
+        long start = source.start;
+        while(start < limit && JSONLexer.isWhitespace(source.get(start))){
+            start++;
+        }
+        if(start == limit || (source.get(start) != '{' && source.get(start) != '[')){
+            return null;
+        }
+
+        // Heap buffers are classified in place, the bytes of direct ones, mapped files (and the last block) are copied
+        final int block_size = JSONBlockClassifier.BLOCK_SIZE;
+        JSONBlockClassifier classifier = JSONBlockClassifier.instance();
+        boolean in_place = source.windowCount() == 1 && source.window(0).hasArray();
+        byte[] array = in_place ? source.window(0).array() : null;
+        int array_offset = in_place ? source.window(0).arrayOffset() : 0;
+        byte[] scratch = new byte[block_size];
+        long[] masks = new long[4];
+
+        // State carried over from the previous block
+            // Whether the first byte is escaped by a backslash at the end of the previous block
+            // All ones if the previous block ended inside of a String, otherwise 0
+        long escaped_carry = 0;
+        long string_carry = 0;
+
+        long end = -1;
+        for(long block_start = start; block_start < limit && end < 0; block_start += block_size){
+            int length = (int) Math.min(block_size, limit - block_start);
+            if(array != null && length == block_size){
+                classifier.classify(array, array_offset + (int) block_start, masks);
+            }
+            else {
+                // Padded by spaces, which belong to no class
+                source.get(block_start, scratch, 0, length);
+                Arrays.fill(scratch, length, block_size, (byte) ' ');
+                classifier.classify(scratch, 0, masks);
+            }
+
+            // Every backslash not escaped itself escapes the following byte
+            long escaped = escaped_carry;
+            escaped_carry = 0;
+            long backslashes = masks[JSONBlockClassifier.BACKSLASHES] & ~escaped;
+            while(backslashes != 0){
+                int bit = Long.numberOfTrailingZeros(backslashes);
+                if(bit == block_size - 1){
+                    escaped_carry = 1;
+                    break;
+                }
+                escaped |= 1L << (bit + 1);
+                backslashes &= bit + 2 < block_size ? -1L << (bit + 2) : 0;
+            }
+
+            // The bytes from an opening quote up to (not including) the closing one are inside of a String
+            long quotes = masks[JSONBlockClassifier.QUOTES] & ~escaped;
+            long in_string = prefixXor(quotes) ^ string_carry;
+            string_carry = in_string >> (block_size - 1);
+
+            long opening = masks[JSONBlockClassifier.OPENING_BRACKETS] & ~in_string;
+            long structural = (opening | masks[JSONBlockClassifier.CLOSING_BRACKETS]) & ~in_string;
+            while(structural != 0){
+                int bit = Long.numberOfTrailingZeros(structural);
+                structural &= structural - 1;
+                long position = block_start + bit;
+                if((opening >>> bit & 1) != 0){
+                    index.open(position);
+                }
+                else {
+                    index.close(position, source.get(position) == '}');
+                    if(index.depth == 0){
+                        end = position;
+                        break;
+                    }
+                }
+            }
+        }
+        if(end < 0 && string_carry != 0){
+            throw new JSONUnfinishedStringAtEOF();
+        }
+        index.finish();
+
+        for(long i = end + 1; i < limit; i++){
+            if(!JSONLexer.isWhitespace(source.get(i))){
+                throw new JSONMalformedSourceException(
+                        "Expected end of file after the JSON value, found " + (char) (source.get(i) & 0xFF)
+                );
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Computes the running XOR of the bits, from the lowest one.
+     * @param bits The mask.
+     * @return The mask with the i-th bit set if an odd number of bits up to the i-th one is set.
+     */
+    private static long prefixXor(long bits){
+        bits ^= bits << 1;
+        bits ^= bits << 2;
+        bits ^= bits << 4;
+        bits ^= bits << 8;
+        bits ^= bits << 16;
+        bits ^= bits << 32;
+        return bits;
+    }
+
+    /**
+     * Records a new container opened at the position.
+     * @param position The position of its opening bracket.
+     */
+    private void open(long position){
+        if(size == opens.length){
+            opens = Arrays.copyOf(opens, size * 2);
+            closes = Arrays.copyOf(closes, size * 2);
+        }
+        if(depth == open_stack.length){
+            open_stack = Arrays.copyOf(open_stack, depth * 2);
+        }
+        if(depth == 1){
+            if(top_level_size == top_level.length){
+                top_level = Arrays.copyOf(top_level, top_level_size * 2);
+            }
+            top_level[top_level_size++] = size;
+        }
+        opens[size] = position;
+        open_stack[depth++] = size;
+        size++;
+    }
+
+    /**
+     * Closes the innermost open container at the position.
+     * @param position The position of its closing bracket.
+     * @param is_object Whether the bracket closes an Object (or an Array).
+     * @throws JSONMalformedSourceException If the innermost container is of the other kind.
+     */
+    private void close(long position, boolean is_object) throws JSONMalformedSourceException {
+        int ordinal = open_stack[--depth];
+        if(this.isObject(ordinal) != is_object){
+            throw new JSONMalformedSourceException(
+                    "Unexpected " + (is_object ? "'}' inside of an Array" : "']' inside of an Object")
+            );
+        }
+        closes[ordinal] = position;
+    }
+
+    /**
+     * Checks that all the containers were closed and releases the scratch space of the scan.
+     * @throws JSONMalformedSourceException If the source ended inside of a container.
+     */
+    private void finish() throws JSONMalformedSourceException {
+        if(depth > 0){
+            throw new JSONMalformedSourceException(
+                    "Unexpected end of file during "
+                            + (this.isObject(open_stack[depth - 1]) ? "Object" : "Array") + " construction"
+            );
+        }
+        open_stack = null;
+    }
+
+    /**
+     * Get the number of the containers of the source.
+     * @return The number of the Objects and Arrays.
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * Get the position of the opening bracket of the container.
+     * @param ordinal The number of the container.
+     * @return The position in the source.
+     */
+    long openAt(int ordinal){
+        return opens[ordinal];
+    }
+
+    /**
+     * Get the position of the closing bracket of the container.
+     * @param ordinal The number of the container.
+     * @return The position in the source.
+     */
+    long closeAt(int ordinal){
+        return closes[ordinal];
+    }
+
+    /**
+     * Finds the container opened at the position.
+     * @param position The position of the opening bracket.
+     * @return The number of the container.
+     */
+    int ordinalAt(long position){
+        return Arrays.binarySearch(opens, 0, size, position);
+    }
+
+    /**
+     * Splits the values of the top-level container to consecutive parts of about the same length.
+     * Every part except the last one ends right after the closing bracket of one of the
+     * Objects or Arrays directly in the top-level container, so that the parts can be
+     * parsed separately. Scalar values are never split upon, the parts are therefore
+     * fewer when there are not enough Objects or Arrays.
+     * @param parts The requested number of parts.
+     * @return The positions where all the parts but the last one end, in ascending order.
+     */
+    long[] splitTopLevel(int parts){
+        long[] ends = new long[Math.max(0, Math.min(parts, top_level_size) - 1)];
+        int count = 0;
+
+        // The container ending the previous part, the last one may only end the last part
+        int last = -1;
+        int child = 0;
+        long length = closes[0] - opens[0];
+        for(int part = 1; part < parts && count < ends.length; part++){
+            long target = opens[0] + length * part / parts;
+            while(child + 1 < top_level_size - 1 && opens[top_level[child + 1]] < target){
+                child++;
+            }
+            if(child > last && child < top_level_size - 1){
+                ends[count++] = closes[top_level[child]] + 1;
+                last = child;
+            }
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * Checks if the container is an Object (or an Array).
+     * @param ordinal The number of the container.
+     * @return Whether the container is an Object.
+     */
+    boolean isObject(int ordinal){
+        long position = opens[ordinal];
+        return (string_source != null ? string_source.charAt((int) position) : byte_source.get(position)) == '{';
+    }
+
+    /**
+     * Creates the lazy shell of the container.
+     * @param ordinal The number of the container.
+     * @return The unmaterialized Object or Array wrapped in a JSONValue.
+     */
+    JSONValue valueAt(int ordinal){
+        return this.isObject(ordinal)
+                ? new JSONValue(new JSONObject(this, ordinal))
+                : new JSONValue(new JSONArray(this, ordinal));
+    }
+
+    /**
+     * Materializes the lazy Object, unless another thread did it first.
+     * @param target The lazy shell of the Object.
+     * @param ordinal The number of the Object.
+     * @throws UncheckedJSONException If the Object is malformed.
+     */
+    synchronized void load(JSONObject target, int ordinal){
+        if(!target.isLazy()) return;
+        try {
+            target.adopt(materializer.materializeObject(ordinal));
+        }
+        catch (JSONMalformedSourceException | JSONUnfinishedStringAtEOF e){
+            throw new UncheckedJSONException(e);
+        }
+    }
+
+    /**
+     * Materializes the lazy Array, unless another thread did it first.
+     * @param target The lazy shell of the Array.
+     * @param ordinal The number of the Array.
+     * @throws UncheckedJSONException If the Array is malformed.
+     */
+    synchronized void load(JSONArray target, int ordinal){
+        if(!target.isLazy()) return;
+        try {
+            target.adopt(materializer.materializeArray(ordinal));
+        }
+        catch (JSONMalformedSourceException | JSONUnfinishedStringAtEOF e){
+            throw new UncheckedJSONException(e);
+        }
+    }
+}
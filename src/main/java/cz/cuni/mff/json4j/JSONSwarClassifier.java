@@ -0,0 +1,71 @@
+package cz.cuni.mff.json4j;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * A JSONBlockClassifier comparing 8 bytes at once in a long
+ * (SIMD within a register). Works on any JDK, used when the Vector API
+ * is not available.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+final class JSONSwarClassifier extends JSONBlockClassifier {
+
+    // Reads 8 bytes of an array as a long, the first byte being the lowest one
+    private final static VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // The byte repeated in all bytes of a long
+    private final static long ONES = 0x0101010101010101L;
+    private final static long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    // Setting this bit in both brackets gives the curly one ('[' | 0x20 == '{')
+    private final static long BRACKET_FOLD = 0x2020202020202020L;
+
+    /**
+     * Classifies the block by 8 bytes at once.
+     * @param block The array holding the bytes.
+     * @param offset Index of the first byte of the block, at least BLOCK_SIZE bytes have to follow.
+     * @param masks Array of at least 4 masks to be filled.
+     */
+    @Override
+    void classify(byte[] block, int offset, long[] masks){
+        long quotes = 0;
+        long backslashes = 0;
+        long opening = 0;
+        long closing = 0;
+        for(int i = 0; i < BLOCK_SIZE; i += 8){
+            long word = (long) LONGS.get(block, offset + i);
+            long folded = word | BRACKET_FOLD;
+            quotes |= movemask(equalBytes(word, '"')) << i;
+            backslashes |= movemask(equalBytes(word, '\\')) << i;
+            opening |= movemask(equalBytes(folded, '{')) << i;
+            closing |= movemask(equalBytes(folded, '}')) << i;
+        }
+        masks[QUOTES] = quotes;
+        masks[BACKSLASHES] = backslashes;
+        masks[OPENING_BRACKETS] = opening;
+        masks[CLOSING_BRACKETS] = closing;
+    }
+
+    /**
+     * Finds the bytes of the word equal to the character.
+     * Exact for all bytes (no false positives caused by carries).
+     * @param word 8 bytes.
+     * @param c The ASCII character to be found.
+     * @return The word with the highest bit set in exactly the equal bytes.
+     */
+    private static long equalBytes(long word, char c){
+        long zeroed = word ^ (c * ONES);
+        return ~(((zeroed & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | zeroed | LOW_SEVEN_BITS);
+    }
+
+    /**
+     * Gathers the highest bits of the 8 bytes to the lowest 8 bits.
+     * @param high_bits The word with only the highest bits of its bytes set.
+     * @return The mask with the i-th bit set if the highest bit of the i-th byte is.
+     */
+    private static long movemask(long high_bits){
+        return ((high_bits >>> 7) * 0x0102040810204080L) >>> 56;
+    }
+}
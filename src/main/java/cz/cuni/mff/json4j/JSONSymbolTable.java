@@ -0,0 +1,194 @@
+package cz.cuni.mff.json4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded table of the Object keys seen by a JSONReader.
+ * Every key is stored once, together with a shared STRING_LITERAL token
+ * holding it, so a key which is already known is looked up directly in
+ * the buffer of the lexer and neither its String nor its token is allocated.
+ * The keys are hashed with the same function as String.hashCode().
+ * The table stops accepting new keys after MAX_SYMBOLS of them, so documents
+ * with unbounded sets of keys (e.g. IDs used as keys) cannot grow it forever;
+ * such keys are then returned as new Strings.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+final class JSONSymbolTable {
+
+    // The maximal number of keys kept
+    private final static int MAX_SYMBOLS = 4096;
+
+    // Keys longer than this are not worth comparing, they are not kept
+    private final static int MAX_KEY_LENGTH = 128;
+
+    // Open addressing table of the tokens and the hashes of their keys
+        // Kept at most half full, so that the probe sequences are short
+    private JSONToken[] tokens;
+    private int[] hashes;
+    private int size;
+
+    /**
+     * Creates an empty table.
+     */
+    JSONSymbolTable(){
+        tokens = new JSONToken[64];
+        hashes = new int[64];
+        size = 0;
+    }
+
+    /**
+     * Get the token of the key consisting of the characters of the range.
+     * @param chars The buffer containing the key.
+     * @param start Index of the first character of the key.
+     * @param end Index after the last character of the key.
+     * @return The shared token of the key.
+     */
+    JSONToken lookup(char[] chars, int start, int end){
+        int hash = 0;
+        for(int i = start; i < end; i++){
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = tokens.length - 1;
+        for(int slot = spread(hash) & mask; tokens[slot] != null; slot = (slot + 1) & mask){
+            if(hashes[slot] == hash && equals((String) tokens[slot].value, chars, start, end)){
+                return tokens[slot];
+            }
+        }
+        return this.add(new String(chars, start, end - start), hash);
+    }
+
+    /**
+     * Get the token of the key consisting of the ASCII bytes of the range.
+     * @param bytes The buffer containing the key, which has to be ASCII only.
+     * @param start Index of the first byte of the key.
+     * @param end Index after the last byte of the key.
+     * @return The shared token of the key.
+     */
+    JSONToken lookup(ByteBuffer bytes, int start, int end){
+        int hash = 0;
+        for(int i = start; i < end; i++){
+            hash = 31 * hash + bytes.get(i);
+        }
+
+        int mask = tokens.length - 1;
+        for(int slot = spread(hash) & mask; tokens[slot] != null; slot = (slot + 1) & mask){
+            if(hashes[slot] == hash && equals((String) tokens[slot].value, bytes, start, end)){
+                return tokens[slot];
+            }
+        }
+
+        // ASCII bytes are exactly the chars of the String
+        char[] chars = new char[end - start];
+        for(int i = start; i < end; i++){
+            chars[i - start] = (char) bytes.get(i);
+        }
+        return this.add(new String(chars), hash);
+    }
+
+    /**
+     * Get the token of the already decoded key.
+     * Used for keys which cannot be looked up in the buffer
+     * (escaped, non-ASCII or spanning more buffers).
+     * @param key The key.
+     * @return The shared token of the key.
+     */
+    JSONToken lookup(String key){
+        int hash = key.hashCode();
+        int mask = tokens.length - 1;
+        for(int slot = spread(hash) & mask; tokens[slot] != null; slot = (slot + 1) & mask){
+            if(hashes[slot] == hash && key.equals(tokens[slot].value)){
+                return tokens[slot];
+            }
+        }
+        return this.add(key, hash);
+    }
+
+    /**
+     * Creates the token of a new key and keeps it, if the table is not full.
+     * @param key The new key.
+     * @param hash The hash of the key.
+     * @return The token of the key.
+     */
+    private JSONToken add(String key, int hash){
+        JSONToken token = JSONToken.generateStringToken(key);
+        if(size >= MAX_SYMBOLS || key.length() > MAX_KEY_LENGTH){
+            return token;
+        }
+        if(2 * (size + 1) > tokens.length){
+            this.grow();
+        }
+        this.insert(token, hash);
+        size++;
+        return token;
+    }
+
+    /**
+     * Doubles the table and inserts all the tokens again.
+     */
+    private void grow(){
+        JSONToken[] old_tokens = tokens;
+        int[] old_hashes = hashes;
+        tokens = new JSONToken[old_tokens.length * 2];
+        hashes = new int[old_tokens.length * 2];
+        for(int i = 0; i < old_tokens.length; i++){
+            if(old_tokens[i] != null) this.insert(old_tokens[i], old_hashes[i]);
+        }
+    }
+
+    /**
+     * Puts the token to the first free slot of its probe sequence.
+     * @param token The token to be inserted.
+     * @param hash The hash of its key.
+     */
+    private void insert(JSONToken token, int hash){
+        int mask = tokens.length - 1;
+        int slot = spread(hash) & mask;
+        while(tokens[slot] != null){
+            slot = (slot + 1) & mask;
+        }
+        tokens[slot] = token;
+        hashes[slot] = hash;
+    }
+
+    /**
+     * Mixes the higher bits of the hash into the lower ones used for the slots.
+     * @param hash The hash of a key.
+     * @return The mixed hash.
+     */
+    private static int spread(int hash){
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compares the key with the characters of the range.
+     * @param key The known key.
+     * @param chars The buffer.
+     * @param start Index of the first character.
+     * @param end Index after the last character.
+     * @return Whether the key consists of exactly the characters.
+     */
+    private static boolean equals(String key, char[] chars, int start, int end){
+        if(key.length() != end - start) return false;
+        for(int i = start; i < end; i++){
+            if(key.charAt(i - start) != chars[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares the key with the ASCII bytes of the range.
+     * @param key The known key.
+     * @param bytes The buffer.
+     * @param start Index of the first byte.
+     * @param end Index after the last byte.
+     * @return Whether the key consists of exactly the characters of the bytes.
+     */
+    private static boolean equals(String key, ByteBuffer bytes, int start, int end){
+        if(key.length() != end - start) return false;
+        for(int i = start; i < end; i++){
+            if(key.charAt(i - start) != bytes.get(i)) return false;
+        }
+        return true;
+    }
+}
@@ -12,7 +12,7 @@ enum TOKEN_TYPE {
     ELEMENT_DELIMITER,      // ','
     KEY_VALUE_DELIMITER,    // ':'
     STRING_LITERAL,         // A string enclosed in quotes ('"')
-    NUMBER,                 // Any number that fits to double
+    NUMBER,                 // Any number literal valid according to RFC 8259
     BOOLEAN,                // "true" or "false" (without the quotes)
     NULL,                   // "null" (without the quotes)
     EOF,                    // The token signifying the end of file
@@ -24,6 +24,9 @@ enum TOKEN_TYPE {
  * Implementation of a lexical token for the purposes of the JSONParser.
  * Holds the token's type and also its value. That makes sense only for values,
  * so for other token types there are sensible defaults chosen.
+ * The tokens are immutable, so the tokens without a value of their own
+ * (structural characters, keywords, EOF) are shared instances and lexing
+ * them allocates nothing.
  * Not public, since there is no reason to use it outside parser implementation.
  */
 
@@ -38,6 +41,29 @@ class JSONToken {
     private final static String START_ARRAY   = "[";
     private final static String END_ARRAY     = "]";
 
+    // KEYWORDS
+    private final static String TRUE  = "true";
+    private final static String FALSE = "false";
+    private final static String NULL  = "null";
+
+    // SHARED TOKENS
+    private final static JSONToken EOF_TOKEN     = new JSONToken(TOKEN_TYPE.EOF, null);
+    private final static JSONToken TRUE_TOKEN    = new JSONToken(TOKEN_TYPE.BOOLEAN, true);
+    private final static JSONToken FALSE_TOKEN   = new JSONToken(TOKEN_TYPE.BOOLEAN, false);
+    private final static JSONToken NULL_TOKEN    = new JSONToken(TOKEN_TYPE.NULL, null);
+    private final static JSONToken INVALID_TOKEN = new JSONToken(TOKEN_TYPE.INVALID_TOKEN, null);
+
+    // The single-character tokens indexed by their character
+    private final static JSONToken[] STRUCTURAL_TOKENS = new JSONToken[128];
+    static {
+        STRUCTURAL_TOKENS['{'] = new JSONToken(TOKEN_TYPE.START_OBJECT, START_OBJECT);
+        STRUCTURAL_TOKENS['}'] = new JSONToken(TOKEN_TYPE.END_OBJECT, END_OBJECT);
+        STRUCTURAL_TOKENS['['] = new JSONToken(TOKEN_TYPE.START_ARRAY, START_ARRAY);
+        STRUCTURAL_TOKENS[']'] = new JSONToken(TOKEN_TYPE.END_ARRAY, END_ARRAY);
+        STRUCTURAL_TOKENS[','] = new JSONToken(TOKEN_TYPE.ELEMENT_DELIMITER, ELEMENT_DELIMITER);
+        STRUCTURAL_TOKENS[':'] = new JSONToken(TOKEN_TYPE.KEY_VALUE_DELIMITER, KEY_VALUE_DELIMITER);
+    }
+
     /**
      * Type of the token.
      * Used to determine the type of the value it holds.
@@ -47,98 +73,135 @@ class JSONToken {
     /**
      * Value the token holds.
      * Needs to be casted to the proper type when used. Use this.type to determine it.
+     * NUMBER tokens hold their literal (a CharSequence), which is decoded only when requested.
+     * STRING_LITERAL tokens hold a String or a JSONByteString decoded by its toString().
      */
     public final Object value;
 
+    /**
+     * Whether the NUMBER token is an integer fitting to long.
+     */
+    public final boolean integral;
+
 
     /**
-     * Creates an EOF token.
+     * Get the EOF token.
      * There is no sensible way of recognizing an EOF token based on its value
      * and all moments when an EOF token should be emitted are explicitly known,
      * creating a function to produce an EOF token is the most elegant solution.
-     * @return A token with type TOKEN_TYPE.EOF and value = null.
+     * @return The token with type TOKEN_TYPE.EOF and value = null.
      */
     public static JSONToken generateEOFToken(){
-        return new JSONToken(TOKEN_TYPE.EOF, null);
+        return EOF_TOKEN;
+    }
+
+    /**
+     * Get the single-character token of the character.
+     * @param c A character for which JSONLexer.isTokenChar() holds.
+     * @return The shared token of the character.
+     */
+    public static JSONToken generateStructuralToken(int c){
+        return STRUCTURAL_TOKENS[c];
+    }
+
+    /**
+     * Creates a STRING_LITERAL token.
+     * The lexer decodes the String while reading it, so the token
+     * is created directly from the final value.
+     * @param value The String without the enclosing quotes.
+     * @return A token with type TOKEN_TYPE.STRING_LITERAL and the provided value.
+     */
+    public static JSONToken generateStringToken(String value){
+        return new JSONToken(TOKEN_TYPE.STRING_LITERAL, value);
+    }
+
+    /**
+     * Creates a STRING_LITERAL token from a String kept as UTF-8 bytes.
+     * The String is decoded only if its value is requested.
+     * @param value The undecoded String.
+     * @return A token with type TOKEN_TYPE.STRING_LITERAL and the provided value.
+     */
+    public static JSONToken generateStringToken(JSONByteString value){
+        return new JSONToken(TOKEN_TYPE.STRING_LITERAL, value);
+    }
+
+    /**
+     * Get the BOOLEAN token.
+     * @param value The value of the literal.
+     * @return The shared token with type TOKEN_TYPE.BOOLEAN and the provided value.
+     */
+    public static JSONToken generateBooleanToken(boolean value){
+        return value ? TRUE_TOKEN : FALSE_TOKEN;
+    }
+
+    /**
+     * Get the NULL token.
+     * @return The shared token with type TOKEN_TYPE.NULL and value = null.
+     */
+    public static JSONToken generateNullToken(){
+        return NULL_TOKEN;
+    }
+
+    /**
+     * Get the token of a keyword (true, false, null).
+     * The literal is compared without creating any String from it.
+     * @param literal The literal read from the source.
+     * @return The shared token of the keyword, or null if the literal is not a keyword.
+     */
+    public static JSONToken generateKeywordToken(CharSequence literal){
+        if(contentEquals(literal, TRUE)) return TRUE_TOKEN;
+        if(contentEquals(literal, FALSE)) return FALSE_TOKEN;
+        if(contentEquals(literal, NULL)) return NULL_TOKEN;
+        return null;
+    }
+
+    /**
+     * Creates a NUMBER token from a literal, if it is a valid number.
+     * Used for the literals which are not keywords (see generateKeywordToken()).
+     * @param literal The literal read from the source, it is kept by the token.
+     * @return A NUMBER token holding the literal, or an INVALID_TOKEN if the literal is not a number.
+     */
+    public static JSONToken generateNumberToken(CharSequence literal){
+        if(!JSONNumberDecoder.isValid(literal)){
+            return INVALID_TOKEN;
+        }
+        return new JSONToken(TOKEN_TYPE.NUMBER, literal, JSONNumberDecoder.isIntegral(literal));
+    }
+
+    /**
+     * Checks if the literal consists of the same characters as the keyword.
+     * @param literal The literal to be checked.
+     * @param keyword The keyword.
+     * @return Whether the characters are equal.
+     */
+    private static boolean contentEquals(CharSequence literal, String keyword){
+        if(literal.length() != keyword.length()) return false;
+        for(int i = 0; i < keyword.length(); i++){
+            if(literal.charAt(i) != keyword.charAt(i)) return false;
+        }
+        return true;
     }
 
     /**
      * Creates a token with specified fields.
-     * Used only in generateEOFToken() and therefore private.
+     * Used only in the generate functions and therefore private.
      * @param type TOKEN_TYPE of the token.
      * @param value value of the token.
      */
     private JSONToken(TOKEN_TYPE type, Object value){
-        this.type = type;
-        this.value = value;
+        this(type, value, false);
     }
 
     /**
-     * Creates an appropriate token based on the provided value.
-     * Thanks to the nature of the JSON grammar, the token type can be determined
-     * solely (except for EOF) based on the textual value (no context required).
-     * @param token_string the string read from a JSON that should be transformed
-     *                     into a token.
+     * Creates a token with specified fields.
+     * Used only in the generate functions and therefore private.
+     * @param type TOKEN_TYPE of the token.
+     * @param value value of the token.
+     * @param integral Whether the NUMBER token is an integer fitting to long.
      */
-    public JSONToken(String token_string){
-        switch (token_string){
-            case START_OBJECT -> {
-                this.type  = TOKEN_TYPE.START_OBJECT;
-                this.value = START_OBJECT;
-            }
-            case END_OBJECT -> {
-                this.type  = TOKEN_TYPE.END_OBJECT;
-                this.value = END_OBJECT;
-            }
-            case START_ARRAY -> {
-                this.type  = TOKEN_TYPE.START_ARRAY;
-                this.value = START_ARRAY;
-            }
-            case END_ARRAY -> {
-                this.type  = TOKEN_TYPE.END_ARRAY;
-                this.value = END_ARRAY;
-            }
-            case ELEMENT_DELIMITER -> {
-                this.type  = TOKEN_TYPE.ELEMENT_DELIMITER;
-                this.value = ELEMENT_DELIMITER;
-            }
-            case KEY_VALUE_DELIMITER -> {
-                this.type  = TOKEN_TYPE.KEY_VALUE_DELIMITER;
-                this.value = KEY_VALUE_DELIMITER;
-            }
-            case "true", "false" -> {
-                this.type  = TOKEN_TYPE.BOOLEAN;
-                this.value = token_string.equals("true");
-            }
-            case "null" -> {
-                this.type  = TOKEN_TYPE.NULL;
-                this.value = null;
-            }
-            default -> {
-                // Check if the value is enclosed in quotes
-                if(token_string.startsWith("\"") && token_string.endsWith("\"")){
-                    this.type = TOKEN_TYPE.STRING_LITERAL;
-                    this.value = token_string.substring(1, token_string.length()-1);
-                    return;
-                }
-
-                // Or if it is a number
-                TOKEN_TYPE temp_type;
-                Object temp_value;
-                try{
-                    temp_type  = TOKEN_TYPE.NUMBER;
-                    temp_value = Double.parseDouble(token_string);
-                }
-                catch (NumberFormatException e){
-                    // Otherwise token is invalid
-                    temp_type  = TOKEN_TYPE.INVALID_TOKEN;
-                    temp_value = null;
-                }
-
-                this.type  = temp_type;
-                this.value = temp_value;
-
-            }
-        }
+    private JSONToken(TOKEN_TYPE type, Object value, boolean integral){
+        this.type = type;
+        this.value = value;
+        this.integral = integral;
     }
 }
@@ -1,12 +1,14 @@
 package cz.cuni.mff.json4j;
 
-import java.util.Objects;
+import java.math.BigDecimal;
 
 /**
  * A wrapper for a value to be used by the library.
  * All JSON supported types are supported. Note that Objects and Arrays have
  * their additional wrapper class.
- * Holds the value itself and its type. The value itself is stored as Object.
+ * Holds the value itself and its type. Numbers are stored in primitive form
+ * (as long for integers, otherwise as double) or as their exact literal, which
+ * is decoded on every request. All other values are stored as Object.
  * Provides a constructor for each JSON type. The provided type is then used
  * to infer the this.type field.
  */
@@ -14,11 +16,24 @@ import java.util.Objects;
 public class JSONValue {
 
     /**
-     * The actual value of the JSONValue.
+     * The actual value of the JSONValue, null for primitive numbers and null.
+     * Numbers kept as literals store the literal here.
      * Final to prevent machinations with changing the value and mismatching it with
      * the type or vice versa.
      */
-    public final Object value;
+    private final Object value;
+
+    /**
+     * The numeric value, either the long itself or the bits of the double.
+     * Kept primitive so that numbers do not need a boxed object.
+     */
+    private final long number_bits;
+
+    /**
+     * Whether the number is stored as a long (or as a double).
+     * For literals, whether the literal is an integer fitting to long.
+     */
+    private final boolean integral;
 
     /**
      * The type of the value held.
@@ -31,6 +46,8 @@ public class JSONValue {
      */
     public JSONValue(String value){
         this.value = value;
+        this.number_bits = 0;
+        this.integral = false;
         this.type = JSON_TYPE.STRING;
     }
 
@@ -39,16 +56,64 @@ public class JSONValue {
      * @param value Number (double) to be wrapped.
      */
     public JSONValue(double value){
-        this.value = value;
+        this.value = null;
+        this.number_bits = Double.doubleToRawLongBits(value);
+        this.integral = false;
+        this.type = JSON_TYPE.NUMBER;
+    }
+
+    /**
+     * The constructor for an integer numeric value.
+     * The number is kept exact and serialized without a decimal point.
+     * @param value Number (long) to be wrapped.
+     */
+    public JSONValue(long value){
+        this.value = null;
+        this.number_bits = value;
+        this.integral = true;
+        this.type = JSON_TYPE.NUMBER;
+    }
+
+    /**
+     * The constructor for an exact numeric value.
+     * The number is kept as its literal, so it is serialized without any loss.
+     * @param value Number (BigDecimal) to be wrapped.
+     */
+    public JSONValue(BigDecimal value){
+        this(value.toString(), JSONNumberDecoder.isIntegral(value.toString()));
+    }
+
+    /**
+     * Creates a number kept as its literal.
+     * Used by the public BigDecimal constructor and by the parser in LAZY mode.
+     * @param literal A valid JSON number literal.
+     * @param integral Whether the literal is an integer fitting to long.
+     */
+    private JSONValue(CharSequence literal, boolean integral){
+        this.value = literal;
+        this.number_bits = 0;
+        this.integral = integral;
         this.type = JSON_TYPE.NUMBER;
     }
 
+    /**
+     * Creates a number kept as its literal, which is decoded on every request.
+     * @param literal A valid JSON number literal.
+     * @param integral Whether the literal is an integer fitting to long.
+     * @return The number wrapped in JSONValue.
+     */
+    static JSONValue fromLiteral(CharSequence literal, boolean integral){
+        return new JSONValue(literal, integral);
+    }
+
     /**
      * The constructor for a boolean value.
      * @param value Boolean to be wrapped.
      */
     public JSONValue(boolean value){
         this.value = value;
+        this.number_bits = 0;
+        this.integral = false;
         this.type = JSON_TYPE.BOOLEAN;
     }
 
@@ -59,6 +124,8 @@ public class JSONValue {
      */
     public JSONValue(JSONObject value){
         this.value = value;
+        this.number_bits = 0;
+        this.integral = false;
         this.type = JSON_TYPE.OBJECT;
     }
 
@@ -69,6 +136,8 @@ public class JSONValue {
      */
     public JSONValue(JSONArray value){
         this.value = value;
+        this.number_bits = 0;
+        this.integral = false;
         this.type = JSON_TYPE.ARRAY;
     }
 
@@ -79,42 +148,189 @@ public class JSONValue {
      */
     public JSONValue(){
         this.value = null;
+        this.number_bits = 0;
+        this.integral = false;
         this.type = JSON_TYPE.NULL;
     }
 
+    /**
+     * Get the value in the form of an Object.
+     * Numbers are boxed to Long or Double, non-integer literals to BigDecimal.
+     * Null is returned for the null value.
+     * @return The wrapped value.
+     */
+    public Object getValue(){
+        if(this.type == JSON_TYPE.NUMBER){
+            if(integral) return this.getLong();
+            if(this.value != null) return this.getBigDecimal();
+            return Double.longBitsToDouble(number_bits);
+        }
+        return this.value;
+    }
+
+    /**
+     * Get the wrapped String.
+     * @return The String value.
+     * @throws IllegalStateException If the value is not a String.
+     */
+    public String getString(){
+        this.checkType(JSON_TYPE.STRING);
+        return (String) this.value;
+    }
+
+    /**
+     * Get the wrapped number as double.
+     * @return The numeric value, integers are converted to double.
+     * @throws IllegalStateException If the value is not a number.
+     */
+    public double getDouble(){
+        this.checkType(JSON_TYPE.NUMBER);
+        if(this.value != null) return JSONNumberDecoder.parseDouble((CharSequence) this.value);
+        return integral ? (double) number_bits : Double.longBitsToDouble(number_bits);
+    }
+
+    /**
+     * Get the wrapped number as long.
+     * @return The numeric value, non-integers are truncated towards zero.
+     * @throws IllegalStateException If the value is not a number.
+     */
+    public long getLong(){
+        this.checkType(JSON_TYPE.NUMBER);
+        if(this.value != null){
+            CharSequence literal = (CharSequence) this.value;
+            return integral ? JSONNumberDecoder.parseLong(literal) : (long) JSONNumberDecoder.parseDouble(literal);
+        }
+        return integral ? number_bits : (long) Double.longBitsToDouble(number_bits);
+    }
+
+    /**
+     * Get the wrapped number as BigDecimal.
+     * Numbers kept as literals are returned exactly, doubles as their
+     * shortest decimal representation (as they are serialized).
+     * @return The numeric value.
+     * @throws IllegalStateException If the value is not a number.
+     */
+    public BigDecimal getBigDecimal(){
+        this.checkType(JSON_TYPE.NUMBER);
+        if(this.value != null) return new BigDecimal(this.value.toString());
+        return integral ? BigDecimal.valueOf(number_bits) : BigDecimal.valueOf(Double.longBitsToDouble(number_bits));
+    }
+
+    /**
+     * Get the literal of a number kept as its literal.
+     * Used by the JSONWriter to write the literal unchanged.
+     * @return The literal, or null if the number is stored in primitive form.
+     */
+    CharSequence getLiteral(){
+        return this.type == JSON_TYPE.NUMBER ? (CharSequence) this.value : null;
+    }
+
+    /**
+     * Checks if the wrapped number is an integer which getLong() returns exactly.
+     * @return Whether the value is a number stored as long (or a literal fitting to long).
+     */
+    public boolean isIntegral(){
+        return this.type == JSON_TYPE.NUMBER && integral;
+    }
+
+    /**
+     * Get the wrapped boolean.
+     * @return The boolean value.
+     * @throws IllegalStateException If the value is not a boolean.
+     */
+    public boolean getBoolean(){
+        this.checkType(JSON_TYPE.BOOLEAN);
+        return (Boolean) this.value;
+    }
+
+    /**
+     * Get the wrapped JSON Object.
+     * @return The JSONObject value.
+     * @throws IllegalStateException If the value is not a JSON Object.
+     */
+    public JSONObject getObject(){
+        this.checkType(JSON_TYPE.OBJECT);
+        return (JSONObject) this.value;
+    }
+
+    /**
+     * Get the wrapped JSON Array.
+     * @return The JSONArray value.
+     * @throws IllegalStateException If the value is not a JSON Array.
+     */
+    public JSONArray getArray(){
+        this.checkType(JSON_TYPE.ARRAY);
+        return (JSONArray) this.value;
+    }
+
+    /**
+     * Get the value with all its Objects and Arrays immutable.
+     * A mutable Object or Array is copied (deeply) to a JSONPersistentObject or
+     * JSONPersistentArray, which can then be shared by all threads and changed
+     * only by creating its new versions. Of a concurrent Object or Array, its current
+     * version is taken without copying. All other values are immutable already.
+     * @return The persistent value, this one if it is persistent already.
+     */
+    public JSONValue toPersistent(){
+        if(this.type == JSON_TYPE.OBJECT && !(this.value instanceof JSONPersistentObject)){
+            // The current version of a concurrent Object is persistent already
+            JSONObject stable = ((JSONObject) this.value).stable();
+            return new JSONValue(stable instanceof JSONPersistentObject ? stable : new JSONPersistentObject(stable));
+        }
+        if(this.type == JSON_TYPE.ARRAY && !(this.value instanceof JSONPersistentArray)){
+            JSONArray stable = ((JSONArray) this.value).stable();
+            return new JSONValue(stable instanceof JSONPersistentArray ? stable : new JSONPersistentArray(stable));
+        }
+        return this;
+    }
+
+    /**
+     * Checks that the value is of the expected type.
+     * @param expected The type required by the caller.
+     * @throws IllegalStateException If the type of the value differs.
+     */
+    private void checkType(JSON_TYPE expected){
+        if(this.type != expected){
+            throw new IllegalStateException(
+                    String.format("Expected a value of type %s, found %s", expected, this.type)
+            );
+        }
+    }
+
     /**
      * Serializes the value in a space-saving variant.
      * All whitespaces are omitted. This reduces the occupied space but does
      * not affect its machine-readability.
      * This makes a difference only for JSON Objects and arrays, otherwise the
-     * default Object.toString() is used. Note that for String, the quote-chars are
-     * added to the output.
+     * default toString() of the value is used. Note that for String, the quote-chars are
+     * added to the output and the special characters are escaped.
+     * The whole value is written by a single JSONWriter, use it directly
+     * to stream the value into a Writer, OutputStream or ByteBuffer.
      * @return compactly serialized String representation of the JSON Value
      */
     public String serialize_compact(){
-        String printValue = this.value != null ? this.value.toString() : "";
-        if(this.type == JSON_TYPE.STRING){
-            return "\"" + printValue+ "\"";
-        }
-        return printValue;
+        return JSONWriter.toCompactString(this);
     }
 
     /**
      * Serializes the JSON Value in a more readable manner.
      * Changes its behavior compared to serialize_compact() only for JSON Objects and Arrays.
      * Prints them out in an indented form.
+     * Use a JSONWriter in readable mode to choose the indentation and newlines.
      * @return Formatted String representation of the JSONValue
      */
     public String serialize_readable(){
-        if(this.type == JSON_TYPE.ARRAY){
-            JSONArray arr = (JSONArray) this.value;
-            return Objects.requireNonNull(arr).serialize_readable();
-        }
-        if(this.type == JSON_TYPE.OBJECT){
-            JSONObject obj = (JSONObject) this.value;
-            return Objects.requireNonNull(obj).serialize_readable();
-        }
-        return this.serialize_compact();
+        return JSONWriter.toReadableString(this);
+    }
+
+    /**
+     * Serializes the value in the space-saving variant with the keys of all
+     * Objects sorted, so that equal values always give the same String
+     * (e.g. to be hashed or compared), no matter in which order the keys were added.
+     * @return compactly serialized String representation of the JSON Value with sorted keys
+     */
+    public String serialize_sorted(){
+        return JSONWriter.toSortedString(this);
     }
 
     /**
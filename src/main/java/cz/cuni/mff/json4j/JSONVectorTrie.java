@@ -0,0 +1,243 @@
+package cz.cuni.mff.json4j;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An immutable sequence of elements with indexed access, which is changed by
+ * creating a new version sharing all the unchanged parts with the old one.
+ * The elements are kept in the leaves of a trie with 32 children per node, so
+ * reading or replacing an element touches at most log32(n) nodes. The last
+ * (up to 32) elements are kept in a separate tail, so appending usually
+ * copies only the tail. Used by the persistent JSON Arrays and Objects.
+ * Not public, since there is no reason to use it outside of the library.
+ */
+final class JSONVectorTrie {
+
+    // The number of bits of the index consumed by a level of the trie
+    private final static int BITS = 5;
+
+    // The number of children of a node and elements of a leaf
+    private final static int WIDTH = 1 << BITS;
+    private final static int MASK = WIDTH - 1;
+
+    // The sequence without elements
+    final static JSONVectorTrie EMPTY = new JSONVectorTrie(0, BITS, new Object[0], new Object[0]);
+
+    // The number of the elements
+    private final int size;
+
+    // The shift of the index selecting the child of the root, BITS for the trie of leaves only
+    private final int shift;
+
+    // The root of the trie holding all the elements before the tail
+        // The nodes are arrays of their children, the leaves arrays of WIDTH elements
+    private final Object[] root;
+
+    // The last elements, not in the trie yet
+    private final Object[] tail;
+
+    /**
+     * Creates a version of the sequence.
+     * @param size The number of the elements.
+     * @param shift The shift of the index selecting the child of the root.
+     * @param root The root of the trie.
+     * @param tail The last elements.
+     */
+    private JSONVectorTrie(int size, int shift, Object[] root, Object[] tail){
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Creates the sequence of the elements of the array.
+     * The full leaves are created from the array directly, so it takes linear time.
+     * @param elements The elements in their order.
+     * @param count The number of the elements to be taken from the start of the array.
+     * @return The sequence of the elements.
+     */
+    static JSONVectorTrie of(Object[] elements, int count){
+        int tail_offset = tailOffset(count);
+        Object[] root = EMPTY.root;
+        int shift = BITS;
+        for(int from = 0; from < tail_offset; from += WIDTH){
+            int filled = from + WIDTH;
+            if((filled >>> BITS) > (1 << shift)){
+                root = new Object[]{root, newPath(shift, Arrays.copyOfRange(elements, from, filled))};
+                shift += BITS;
+            }
+            else {
+                root = pushLeaf(shift, root, filled, Arrays.copyOfRange(elements, from, filled));
+            }
+        }
+        return new JSONVectorTrie(count, shift, root, Arrays.copyOfRange(elements, tail_offset, count));
+    }
+
+    /**
+     * Get the number of the elements.
+     * @return The number of the elements.
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * Get the element at the index.
+     * @param index Index of the element.
+     * @return The element.
+     * @throws IndexOutOfBoundsException If the index is not less than size().
+     */
+    Object get(int index){
+        Objects.checkIndex(index, size);
+        return this.leafOf(index)[index & MASK];
+    }
+
+    /**
+     * Get the leaf (or the tail) holding the element at the index.
+     * The element is at index &amp; 31 of the leaf, so the callers walking the
+     * sequence can read all elements of the leaf at once.
+     * @param index Index of the element, less than size().
+     * @return The array of the elements of the leaf.
+     */
+    Object[] leafOf(int index){
+        if(index >= tailOffset(size)){
+            return tail;
+        }
+        Object[] node = root;
+        for(int level = shift; level > 0; level -= BITS){
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Creates the version with the element at the index replaced.
+     * Only the nodes on the path to the element are copied.
+     * @param index Index of the element.
+     * @param element The new element.
+     * @return The new version.
+     * @throws IndexOutOfBoundsException If the index is not less than size().
+     */
+    JSONVectorTrie set(int index, Object element){
+        Objects.checkIndex(index, size);
+        if(index >= tailOffset(size)){
+            Object[] new_tail = tail.clone();
+            new_tail[index & MASK] = element;
+            return new JSONVectorTrie(size, shift, root, new_tail);
+        }
+        return new JSONVectorTrie(size, shift, setIn(shift, root, index, element), tail);
+    }
+
+    /**
+     * Creates the version with the element appended.
+     * A full tail is pushed to the trie as a new leaf and the element starts
+     * a new tail. A new root is created once the trie is full.
+     * @param element The element to be appended.
+     * @return The new version.
+     */
+    JSONVectorTrie append(Object element){
+        if(size - tailOffset(size) < WIDTH){
+            Object[] new_tail = Arrays.copyOf(tail, tail.length + 1);
+            new_tail[tail.length] = element;
+            return new JSONVectorTrie(size + 1, shift, root, new_tail);
+        }
+
+        if((size >>> BITS) > (1 << shift)){
+            Object[] new_root = new Object[]{root, newPath(shift, tail)};
+            return new JSONVectorTrie(size + 1, shift + BITS, new_root, new Object[]{element});
+        }
+        return new JSONVectorTrie(size + 1, shift, pushLeaf(shift, root, size, tail), new Object[]{element});
+    }
+
+    /**
+     * Creates the version without the element at the index.
+     * The following elements move to lower indexes, so the sequence is rebuilt
+     * in linear time.
+     * @param index Index of the element.
+     * @return The new version.
+     * @throws IndexOutOfBoundsException If the index is not less than size().
+     */
+    JSONVectorTrie remove(int index){
+        Objects.checkIndex(index, size);
+        Object[] elements = this.toArray();
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        return of(elements, size - 1);
+    }
+
+    /**
+     * Copies the elements to an array.
+     * @return The array of the elements in their order.
+     */
+    Object[] toArray(){
+        Object[] elements = new Object[size];
+        for(int from = 0; from < size; from += WIDTH){
+            System.arraycopy(this.leafOf(from), 0, elements, from, Math.min(WIDTH, size - from));
+        }
+        return elements;
+    }
+
+    /**
+     * Get the number of the elements kept in the trie, the rest is in the tail.
+     * @param size The number of all the elements.
+     * @return The index of the first element of the tail.
+     */
+    private static int tailOffset(int size){
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Copies the path to the element with the element replaced.
+     * @param level The shift of the index selecting the child of the node, 0 for a leaf.
+     * @param node The node of the path.
+     * @param index Index of the element.
+     * @param element The new element.
+     * @return The copy of the node.
+     */
+    private static Object[] setIn(int level, Object[] node, int index, Object element){
+        Object[] copy = node.clone();
+        if(level == 0){
+            copy[index & MASK] = element;
+        }
+        else {
+            int child = (index >>> level) & MASK;
+            copy[child] = setIn(level - BITS, (Object[]) node[child], index, element);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the rightmost path of the trie with the leaf added.
+     * The trie must have room for the leaf.
+     * @param level The shift of the index selecting the child of the node.
+     * @param node The node of the path.
+     * @param filled The number of the elements of the trie including the leaf.
+     * @param leaf The full leaf to be added.
+     * @return The copy of the node.
+     */
+    private static Object[] pushLeaf(int level, Object[] node, int filled, Object[] leaf){
+        int child = ((filled - 1) >>> level) & MASK;
+        Object[] copy = Arrays.copyOf(node, Math.max(node.length, child + 1));
+        if(level == BITS){
+            copy[child] = leaf;
+        }
+        else if(child < node.length){
+            copy[child] = pushLeaf(level - BITS, (Object[]) node[child], filled, leaf);
+        }
+        else {
+            copy[child] = newPath(level - BITS, leaf);
+        }
+        return copy;
+    }
+
+    /**
+     * Creates the chain of nodes leading to the leaf.
+     * @param level The shift of the index selecting the child of the top node, 0 for the leaf itself.
+     * @param leaf The leaf at the end of the chain.
+     * @return The top node of the chain.
+     */
+    private static Object[] newPath(int level, Object[] leaf){
+        return level == 0 ? leaf : new Object[]{newPath(level - BITS, leaf)};
+    }
+}
@@ -0,0 +1,514 @@
+package cz.cuni.mff.json4j;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A class for serializing JSONValues directly into a sink.
+ * The tree is walked once and its text is written through a fixed-size buffer
+ * to a Writer, an OutputStream or a ByteBuffer, so the serialized JSON is never
+ * held in memory whole. Byte sinks receive the text encoded as UTF-8.
+ * By default, the output is compact (without any whitespace). In readable
+ * mode, every value of an Array or Object is put on its own line and indented
+ * according to its depth, which is passed down during the single traversal.
+ * Strings are escaped as required by the RFC-8259.
+ * The sink is not closed by the JSONWriter.
+ */
+public class JSONWriter implements Flushable {
+
+    // Number of characters collected before they are passed to the sink
+    private final static int BUFFER_SIZE = 8192;
+
+    // Exactly one of the sinks is set
+    private final Writer writer;
+    private final OutputStream stream;
+    private final ByteBuffer target;
+
+    // The characters waiting to be passed to the sink, valid up to buffer_length
+    private final char[] buffer;
+    private int buffer_length;
+
+    // The UTF-8 bytes of the buffer, used only for the byte sinks
+    private final byte[] bytes;
+
+    // Formatting of the readable mode
+    private boolean readable;
+    private int indent_width;
+    private String newline;
+
+    // Whether the pairs of the Objects are written in the order of their keys
+    private boolean sorted_keys;
+
+    // CHARACTER CONSTANTS
+    private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Creates a JSONWriter writing the characters of the JSON to the Writer.
+     * @param writer The Writer to write to.
+     */
+    public JSONWriter(Writer writer){
+        this(writer, null, null);
+    }
+
+    /**
+     * Creates a JSONWriter writing the UTF-8 encoded JSON to the OutputStream.
+     * @param stream The OutputStream to write to.
+     */
+    public JSONWriter(OutputStream stream){
+        this(null, stream, null);
+    }
+
+    /**
+     * Creates a JSONWriter writing the UTF-8 encoded JSON to the ByteBuffer.
+     * The bytes are put at the position of the buffer, which is advanced
+     * accordingly. The buffer can be cleared and reused between writes.
+     * @param target The ByteBuffer to write to.
+     */
+    public JSONWriter(ByteBuffer target){
+        this(null, null, target);
+    }
+
+    /**
+     * Creates a JSONWriter with the provided sink.
+     * Used by the public constructors, which set exactly one of the sinks.
+     * @param writer The Writer sink or null.
+     * @param stream The OutputStream sink or null.
+     * @param target The ByteBuffer sink or null.
+     */
+    private JSONWriter(Writer writer, OutputStream stream, ByteBuffer target){
+        this.writer = writer;
+        this.stream = stream;
+        this.target = target;
+        this.buffer = new char[BUFFER_SIZE];
+        this.buffer_length = 0;
+        // Every char takes at most 3 bytes in UTF-8 (surrogate pairs take 4 for 2 chars)
+        this.bytes = writer == null ? new byte[BUFFER_SIZE * 3] : null;
+        this.readable = false;
+        this.indent_width = 4;
+        this.newline = "\n";
+        this.sorted_keys = false;
+    }
+
+    /**
+     * Switches between the compact and the readable output.
+     * @param readable Whether the following writes should be readable.
+     */
+    public void setReadable(boolean readable){
+        this.readable = readable;
+    }
+
+    /**
+     * Sets the number of spaces added with every level of nesting in readable mode.
+     * @param indent_width Number of spaces per level, 4 by default.
+     * @throws IllegalArgumentException If the width is negative.
+     */
+    public void setIndentWidth(int indent_width){
+        if(indent_width < 0){
+            throw new IllegalArgumentException("Indent width must not be negative, provided " + indent_width);
+        }
+        this.indent_width = indent_width;
+    }
+
+    /**
+     * Sets the line separator used in readable mode.
+     * @param newline The line separator, "\n" by default.
+     */
+    public void setNewline(String newline){
+        this.newline = newline;
+    }
+
+    /**
+     * Switches between writing the pairs of the Objects in the order their keys
+     * were added (the default) and in the order of their keys.
+     * The keys are compared by String.compareTo(), i.e. by their UTF-16 code units,
+     * so equal trees are written to the same text regardless of how they were built.
+     * @param sorted_keys Whether the following writes should sort the keys.
+     */
+    public void setSortedKeys(boolean sorted_keys){
+        this.sorted_keys = sorted_keys;
+    }
+
+    /**
+     * Serializes the value and passes it whole to the sink.
+     * @param value The value to be written.
+     * @throws IOException If the sink fails.
+     * @throws java.nio.BufferOverflowException If the target ByteBuffer is full.
+     */
+    public void write(JSONValue value) throws IOException {
+        this.writeValue(value, 0);
+        this.flushBuffer();
+    }
+
+    /**
+     * Serializes the Array and passes it whole to the sink.
+     * @param array The Array to be written.
+     * @throws IOException If the sink fails.
+     * @throws java.nio.BufferOverflowException If the target ByteBuffer is full.
+     */
+    public void write(JSONArray array) throws IOException {
+        this.writeArray(array, 0);
+        this.flushBuffer();
+    }
+
+    /**
+     * Serializes the Object and passes it whole to the sink.
+     * @param object The Object to be written.
+     * @throws IOException If the sink fails.
+     * @throws java.nio.BufferOverflowException If the target ByteBuffer is full.
+     */
+    public void write(JSONObject object) throws IOException {
+        this.writeObject(object, 0);
+        this.flushBuffer();
+    }
+
+    /**
+     * Serializes the value followed by a newline, leaving it in the buffer until it is full.
+     * Used by the JSONLinesWriter, so that many short lines are passed to the sink at once.
+     * @param value The value to be written, compact unless in readable mode.
+     * @throws IOException If the sink fails.
+     * @throws java.nio.BufferOverflowException If the target ByteBuffer is full.
+     */
+    void writeLine(JSONValue value) throws IOException {
+        this.writeValue(value, 0);
+        this.append('\n');
+    }
+
+    /**
+     * Serializes the value into a String.
+     * Used by the serialize_compact() methods of the wrapper classes.
+     * @param value The value to be serialized.
+     * @return The compact serialization of the value.
+     */
+    static String toCompactString(JSONValue value){
+        StringWriter out = new StringWriter();
+        try {
+            new JSONWriter(out).write(value);
+        }
+        catch (IOException e){
+            // StringWriter never fails
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serializes the value into a compact String with the keys of all Objects sorted.
+     * Used by the serialize_sorted() methods of the wrapper classes.
+     * @param value The value to be serialized.
+     * @return The compact serialization of the value with sorted keys.
+     */
+    static String toSortedString(JSONValue value){
+        StringWriter out = new StringWriter();
+        try {
+            JSONWriter writer = new JSONWriter(out);
+            writer.setSortedKeys(true);
+            writer.write(value);
+        }
+        catch (IOException e){
+            // StringWriter never fails
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serializes the value into a readable String with the default formatting.
+     * Used by the serialize_readable() methods of the wrapper classes.
+     * @param value The value to be serialized.
+     * @return The readable serialization of the value.
+     */
+    static String toReadableString(JSONValue value){
+        StringWriter out = new StringWriter();
+        try {
+            JSONWriter writer = new JSONWriter(out);
+            writer.setReadable(true);
+            writer.write(value);
+        }
+        catch (IOException e){
+            // StringWriter never fails
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Passes all buffered characters to the sink and flushes the sink.
+     * @throws IOException If the sink fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        this.flushBuffer();
+        if(writer != null) writer.flush();
+        if(stream != null) stream.flush();
+    }
+
+    /**
+     * Writes the value according to its type.
+     * @param value The value to be written.
+     * @param depth Number of containers the value is nested in.
+     * @throws IOException If the sink fails.
+     */
+    private void writeValue(JSONValue value, int depth) throws IOException {
+        switch(value.type) {
+            case STRING ->  this.writeString(value.getString());
+            case NUMBER ->  {
+                CharSequence literal = value.getLiteral();
+                if(literal != null) this.append(literal.toString());
+                else if(value.isIntegral()) this.append(Long.toString(value.getLong()));
+                else this.append(Double.toString(value.getDouble()));
+            }
+            case BOOLEAN -> this.append(value.getBoolean() ? "true" : "false");
+            case NULL ->    this.append("null");
+            case ARRAY ->   this.writeArray(value.getArray().stable(), depth);
+            case OBJECT ->  this.writeObject(value.getObject().stable(), depth);
+        }
+    }
+
+    /**
+     * Writes the Array with its elements separated by commas.
+     * In readable mode every element is on its own line, indented by one
+     * level more than the Array. Empty Array is written only as a pair of brackets.
+     * @param array The Array to be written.
+     * @param depth Number of containers the Array is nested in.
+     * @throws IOException If the sink fails.
+     */
+    private void writeArray(JSONArray array, int depth) throws IOException {
+        if(array.isNumeric()){
+            this.writeNumericArray(array, depth);
+            return;
+        }
+        this.append('[');
+        boolean first = true;
+        for(JSONValue value: array){
+            if(!first) this.append(',');
+            this.startLine(depth + 1);
+            this.writeValue(value, depth + 1);
+            first = false;
+        }
+        if(!first) this.startLine(depth);
+        this.append(']');
+    }
+
+    /**
+     * Writes the numeric Array, reading its numbers without wrapping them.
+     * The layout is the same as for other Arrays.
+     * @param array The numeric Array to be written.
+     * @param depth Number of containers the Array is nested in.
+     * @throws IOException If the sink fails.
+     */
+    private void writeNumericArray(JSONArray array, int depth) throws IOException {
+        this.append('[');
+        boolean integral = array.isIntegral();
+        for(int i = 0; i < array.size(); i++){
+            if(i > 0) this.append(',');
+            this.startLine(depth + 1);
+            if(integral) this.append(Long.toString(array.getLong(i)));
+            else this.append(Double.toString(array.getDouble(i)));
+        }
+        if(array.size() > 0) this.startLine(depth);
+        this.append(']');
+    }
+
+    /**
+     * Writes the Object with its key-value pairs separated by commas.
+     * The pairs are written in the order the keys were added to the Object,
+     * or in the order of the keys in sorted keys mode.
+     * In readable mode every pair is on its own line, indented by one
+     * level more than the Object. Empty Object is written only as a pair of brackets.
+     * @param object The Object to be written.
+     * @param depth Number of containers the Object is nested in.
+     * @throws IOException If the sink fails.
+     */
+    private void writeObject(JSONObject object, int depth) throws IOException {
+        this.append('{');
+        int size = object.size();
+        if(sorted_keys && !isSorted(object)){
+            // The keys are sorted separately for every Object, the values are then looked up by them
+            String[] keys = new String[size];
+            for(int slot = 0; slot < size; slot++){
+                keys[slot] = object.keyAt(slot);
+            }
+            Arrays.sort(keys);
+            for(int i = 0; i < size; i++){
+                this.writePair(keys[i], object.get(keys[i]), depth, i == 0);
+            }
+        }
+        else {
+            // The pairs are walked by their slots, in the order the keys were added
+            for(int slot = 0; slot < size; slot++){
+                this.writePair(object.keyAt(slot), object.valueAt(slot), depth, slot == 0);
+            }
+        }
+        if(size > 0) this.startLine(depth);
+        this.append('}');
+    }
+
+    /**
+     * Checks if the keys of the Object were added in their sorted order,
+     * so that they do not need to be sorted (e.g. the Object was parsed from sorted output).
+     * @param object The Object to be checked.
+     * @return Whether every key is less than the following one.
+     */
+    private static boolean isSorted(JSONObject object){
+        for(int slot = 1; slot < object.size(); slot++){
+            if(object.keyAt(slot - 1).compareTo(object.keyAt(slot)) > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes a key-value pair of an Object, preceded by a comma if it is not the first one.
+     * @param key The key of the pair.
+     * @param value The value of the pair.
+     * @param depth Number of containers the Object is nested in.
+     * @param first Whether the pair is the first one of the Object.
+     * @throws IOException If the sink fails.
+     */
+    private void writePair(String key, JSONValue value, int depth, boolean first) throws IOException {
+        if(!first) this.append(',');
+        this.startLine(depth + 1);
+        this.writeString(key);
+        this.append(readable ? " : " : ":");
+        this.writeValue(value, depth + 1);
+    }
+
+    /**
+     * Starts a new line indented to the depth in readable mode.
+     * Does nothing in compact mode.
+     * @param depth The level of indentation.
+     * @throws IOException If the sink fails.
+     */
+    private void startLine(int depth) throws IOException {
+        if(!readable) return;
+        this.append(newline);
+        for(int i = depth * indent_width; i > 0; i--){
+            this.append(' ');
+        }
+    }
+
+    /**
+     * Writes the String enclosed in quotes.
+     * Quotes, backslashes and control characters are escaped.
+     * @param string The String to be written.
+     * @throws IOException If the sink fails.
+     */
+    private void writeString(String string) throws IOException {
+        this.append('"');
+        for(int i = 0; i < string.length(); i++){
+            char c = string.charAt(i);
+            switch(c) {
+                case '"' ->  this.append("\\\"");
+                case '\\' -> this.append("\\\\");
+                case '\b' -> this.append("\\b");
+                case '\f' -> this.append("\\f");
+                case '\n' -> this.append("\\n");
+                case '\r' -> this.append("\\r");
+                case '\t' -> this.append("\\t");
+                default -> {
+                    if(c < 0x20){
+                        this.append("\\u00");
+                        this.append(HEX_DIGITS[c >> 4]);
+                        this.append(HEX_DIGITS[c & 0xF]);
+                    }
+                    else {
+                        this.append(c);
+                    }
+                }
+            }
+        }
+        this.append('"');
+    }
+
+    /**
+     * Appends all characters of the String to the buffer.
+     * @param string The String to be appended.
+     * @throws IOException If the sink fails.
+     */
+    private void append(String string) throws IOException {
+        int offset = 0;
+        while(offset < string.length()){
+            if(buffer_length == buffer.length) this.flushBuffer();
+            int count = Math.min(string.length() - offset, buffer.length - buffer_length);
+            string.getChars(offset, offset + count, buffer, buffer_length);
+            buffer_length += count;
+            offset += count;
+        }
+    }
+
+    /**
+     * Appends the character to the buffer.
+     * @param c The character to be appended.
+     * @throws IOException If the sink fails.
+     */
+    private void append(char c) throws IOException {
+        if(buffer_length == buffer.length) this.flushBuffer();
+        buffer[buffer_length++] = c;
+    }
+
+    /**
+     * Passes the buffered characters to the sink and empties the buffer.
+     * For byte sinks the characters are encoded to UTF-8. A high surrogate
+     * at the very end of the buffer is kept until its low surrogate arrives.
+     * @throws IOException If the sink fails.
+     */
+    private void flushBuffer() throws IOException {
+        if(writer != null){
+            writer.write(buffer, 0, buffer_length);
+            buffer_length = 0;
+            return;
+        }
+
+        int byte_count = 0;
+        int i = 0;
+        while(i < buffer_length){
+            char c = buffer[i];
+            if(c < 0x80){
+                bytes[byte_count++] = (byte) c;
+            }
+            else if(c < 0x800){
+                bytes[byte_count++] = (byte) (0xC0 | (c >> 6));
+                bytes[byte_count++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if(Character.isHighSurrogate(c)){
+                // Wait for the low surrogate if it was not buffered yet
+                if(i + 1 == buffer_length) break;
+                char low = buffer[i + 1];
+                if(Character.isLowSurrogate(low)){
+                    int code_point = Character.toCodePoint(c, low);
+                    bytes[byte_count++] = (byte) (0xF0 | (code_point >> 18));
+                    bytes[byte_count++] = (byte) (0x80 | ((code_point >> 12) & 0x3F));
+                    bytes[byte_count++] = (byte) (0x80 | ((code_point >> 6) & 0x3F));
+                    bytes[byte_count++] = (byte) (0x80 | (code_point & 0x3F));
+                    i++;
+                }
+                else {
+                    // Unpaired surrogates can not be encoded
+                    bytes[byte_count++] = '?';
+                }
+            }
+            else if(Character.isLowSurrogate(c)){
+                bytes[byte_count++] = '?';
+            }
+            else {
+                bytes[byte_count++] = (byte) (0xE0 | (c >> 12));
+                bytes[byte_count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[byte_count++] = (byte) (0x80 | (c & 0x3F));
+            }
+            i++;
+        }
+
+        if(stream != null) stream.write(bytes, 0, byte_count);
+        else target.put(bytes, 0, byte_count);
+
+        // Keep the unprocessed high surrogate (if any) at the start of the buffer
+        int remaining = buffer_length - i;
+        System.arraycopy(buffer, i, buffer, 0, remaining);
+        buffer_length = remaining;
+    }
+}
@@ -0,0 +1,11 @@
+package cz.cuni.mff.json4j;
+
+/**
+ * Represents the way the JSONParser stores the parsed numbers.
+ * PRIMITIVE decodes every number right away, integers fitting to long exactly
+ * and all other numbers rounded to double.
+ * LAZY keeps the literal of every number as written in the source and decodes
+ * it only when the value is requested, so no digit is ever lost and numbers
+ * which are never read are never decoded.
+ */
+public enum NUMBER_MODE {PRIMITIVE, LAZY}
@@ -0,0 +1,22 @@
+package cz.cuni.mff.json4j;
+
+/**
+ * Wraps a JSONMalformedSourceException or a JSONUnfinishedStringAtEOF
+ * with an unchecked exception.
+ * Thrown when a lazily parsed Object or Array turns out to be malformed
+ * upon its first access (e.g. by JSONObject.get()), since such methods
+ * cannot throw the checked exceptions, or by the Iterator and the Streams
+ * of a JSONLinesReader upon a malformed line. The original exception is its cause.
+ */
+public class UncheckedJSONException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UncheckedJSONException(Exception cause){
+        super(cause.getMessage(), cause);
+    }
+
+    public UncheckedJSONException(String message, Exception cause){
+        super(message, cause);
+    }
+}
@@ -0,0 +1,116 @@
+package cz.cuni.mff.json4j;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A JSONBlockClassifier using the Vector API, comparing as many bytes at once
+ * as the widest SIMD registers of the CPU hold (32 with AVX2, 64 with AVX-512).
+ * Compiled only on JDK 17 or later and usable only when the jdk.incubator.vector
+ * module is added to the runtime (--add-modules jdk.incubator.vector). It is loaded
+ * reflectively by JSONBlockClassifier, which falls back to JSONSwarClassifier otherwise.
+ * Not public, since there is no reason to use it outside parser implementation.
+ */
+final class JSONVectorClassifier extends JSONBlockClassifier {
+
+    // The widest vectors of bytes supported by the CPU
+    private final static VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    // The i-th byte has the (i % 8)-th bit set, so that each 8 bytes of a mask can be folded to one
+    private final static ByteVector WEIGHTS = ByteVector.fromArray(SPECIES, weights(), 0);
+
+    // The j-th long is shifted by 8 * j bits, so that its folded byte lands at its place in the mask
+    private final static LongVector SHIFTS = LongVector.fromArray(SPECIES.withLanes(long.class), shifts(), 0);
+
+    /**
+     * Creates the classifier.
+     * @throws UnsupportedOperationException If the CPU does not support vectors of at least 16 bytes.
+     */
+    JSONVectorClassifier(){
+        if(SPECIES.length() < 16 || BLOCK_SIZE % SPECIES.length() != 0){
+            throw new UnsupportedOperationException("No suitable vector species: " + SPECIES);
+        }
+    }
+
+    /**
+     * Creates the lanes of WEIGHTS.
+     * @return The weight of every byte.
+     */
+    private static byte[] weights(){
+        byte[] weights = new byte[SPECIES.length()];
+        for(int i = 0; i < weights.length; i++){
+            weights[i] = (byte) (1 << (i % 8));
+        }
+        return weights;
+    }
+
+    /**
+     * Creates the lanes of SHIFTS.
+     * @return The shift of every long.
+     */
+    private static long[] shifts(){
+        long[] shifts = new long[Math.max(1, SPECIES.length() / 8)];
+        for(int j = 0; j < shifts.length; j++){
+            shifts[j] = 8 * j;
+        }
+        return shifts;
+    }
+
+    /**
+     * Classifies the block by SPECIES.length() bytes at once.
+     * Most vectors contain none of the classified bytes (e.g. the inside of
+     * a long String or a number), those are recognized by a single test
+     * and the conversion of their masks to bits is skipped.
+     * @param block The array holding the bytes.
+     * @param offset Index of the first byte of the block, at least BLOCK_SIZE bytes have to follow.
+     * @param masks Array of at least 4 masks to be filled.
+     */
+    @Override
+    void classify(byte[] block, int offset, long[] masks){
+        long quotes = 0;
+        long backslashes = 0;
+        long opening = 0;
+        long closing = 0;
+        for(int i = 0; i < BLOCK_SIZE; i += SPECIES.length()){
+            ByteVector bytes = ByteVector.fromArray(SPECIES, block, offset + i);
+
+            // Setting this bit in both brackets gives the curly one ('[' | 0x20 == '{')
+            ByteVector folded = bytes.or((byte) 0x20);
+            VectorMask<Byte> is_quote = bytes.eq((byte) '"');
+            VectorMask<Byte> is_backslash = bytes.eq((byte) '\\');
+            VectorMask<Byte> is_opening = folded.eq((byte) '{');
+            VectorMask<Byte> is_closing = folded.eq((byte) '}');
+            if(!is_quote.or(is_backslash).or(is_opening).or(is_closing).anyTrue()){
+                continue;
+            }
+            quotes |= this.toBits(is_quote) << i;
+            backslashes |= this.toBits(is_backslash) << i;
+            opening |= this.toBits(is_opening) << i;
+            closing |= this.toBits(is_closing) << i;
+        }
+        masks[QUOTES] = quotes;
+        masks[BACKSLASHES] = backslashes;
+        masks[OPENING_BRACKETS] = opening;
+        masks[CLOSING_BRACKETS] = closing;
+    }
+
+    /**
+     * Converts the mask to bits, the i-th bit describing the i-th lane.
+     * Does the same as VectorMask.toLong(), which is not compiled to SIMD
+     * instructions by JDK 17: the set lanes are replaced by their weights,
+     * each 8 of them are ORed to one byte by shifts of the longs they form
+     * and the bytes are then ORed to their places.
+     * @param mask The mask of SPECIES.length() lanes.
+     * @return The bits of the lanes.
+     */
+    private long toBits(VectorMask<Byte> mask){
+        LongVector bits = ByteVector.zero(SPECIES).blend(WEIGHTS, mask).reinterpretAsLongs();
+        bits = bits.or(bits.lanewise(VectorOperators.LSHR, 32));
+        bits = bits.or(bits.lanewise(VectorOperators.LSHR, 16));
+        bits = bits.or(bits.lanewise(VectorOperators.LSHR, 8));
+        return bits.and(0xFF).lanewise(VectorOperators.LSHL, SHIFTS).reduceLanes(VectorOperators.OR);
+    }
+}